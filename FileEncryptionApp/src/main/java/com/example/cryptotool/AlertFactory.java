@@ -22,7 +22,7 @@ public class AlertFactory {
     public static void showAboutDialog() {
         showAlert(Alert.AlertType.INFORMATION, "About Crypter Pro",
                 "Version: 3.0\n\n" +
-                        "This tool uses industry-standard AES-256-GCM encryption to secure your files. " +
+                        "This tool uses industry-standard AES-256-GCM or ChaCha20-Poly1305 encryption to secure your files. " +
                         "The encryption key is derived from your password and an optional key file using PBKDF2.");
     }
 }
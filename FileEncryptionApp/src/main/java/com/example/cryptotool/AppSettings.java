@@ -1,11 +1,32 @@
 package com.example.cryptotool;
 
+import java.io.File;
+import java.security.Provider;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.prefs.Preferences;
 
 public class AppSettings {
 
     private static final String DEFAULT_THEME = "DEFAULT_THEME";
     private static final String DEFAULT_SECURE_DELETE = "DEFAULT_SECURE_DELETE";
+    private static final String BUFFER_BUDGET_MB = "BUFFER_BUDGET_MB";
+    private static final int DEFAULT_BUFFER_BUDGET_MB = 64;
+    private static final String FILE_CONCURRENCY = "FILE_CONCURRENCY";
+    private static final String SHRED_PASSES = "SHRED_PASSES";
+    private static final String COMPRESSION_LEVEL = "COMPRESSION_LEVEL";
+    private static final String ARCHIVE_FOLDERS = "ARCHIVE_FOLDERS";
+    private static final String INCREMENTAL_ENCRYPTION = "INCREMENTAL_ENCRYPTION";
+    /** Calibrations stored under the earlier key were measured on cold code and are ignored. */
+    private static final String CIPHER_CALIBRATION = "CIPHER_CALIBRATION_WARM";
+    private static final String CIPHER_ALGORITHM = "CIPHER_ALGORITHM";
+    private static final String OUTPUT_DIRECTORY = "OUTPUT_DIRECTORY";
+    private static final String DEVICE_CONCURRENCY = "DEVICE_CONCURRENCY";
+    /** Cipher algorithm policy that follows the calibration of the host. */
+    public static final String AUTO_ALGORITHM = "auto";
+    public static final int AUTO_CONCURRENCY = 0;
     private final Preferences prefs;
 
     public AppSettings() {
@@ -27,4 +48,165 @@ public class AppSettings {
     public void setDefaultSecureDelete(boolean enabled) {
         prefs.putBoolean(DEFAULT_SECURE_DELETE, enabled);
     }
+
+    /** Whether added folders become a single archive item instead of one item per file. */
+    public boolean isArchiveFolders() {
+        return prefs.getBoolean(ARCHIVE_FOLDERS, false);
+    }
+
+    public void setArchiveFolders(boolean enabled) {
+        prefs.putBoolean(ARCHIVE_FOLDERS, enabled);
+    }
+
+    /** Whether files are encrypted into a chunk store, so re-encrypting them writes only changed chunks. */
+    public boolean isIncrementalEncryption() {
+        return prefs.getBoolean(INCREMENTAL_ENCRYPTION, false);
+    }
+
+    public void setIncrementalEncryption(boolean enabled) {
+        prefs.putBoolean(INCREMENTAL_ENCRYPTION, enabled);
+    }
+
+    public List<Shredder.Pass> getShredPasses() {
+        try {
+            return Shredder.parsePasses(prefs.get(SHRED_PASSES, Shredder.formatPasses(Shredder.SINGLE_PASS)));
+        } catch (IllegalArgumentException e) {
+            return Shredder.SINGLE_PASS;
+        }
+    }
+
+    public void setShredPasses(List<Shredder.Pass> passes) {
+        prefs.put(SHRED_PASSES, Shredder.formatPasses(passes));
+    }
+
+    /** Upper bound for the working buffers a single file operation may hold, in megabytes. */
+    public int getBufferBudgetMb() {
+        return prefs.getInt(BUFFER_BUDGET_MB, DEFAULT_BUFFER_BUDGET_MB);
+    }
+
+    public void setBufferBudgetMb(int megabytes) {
+        prefs.putInt(BUFFER_BUDGET_MB, megabytes);
+    }
+
+    public long getBufferBudgetBytes() {
+        return getBufferBudgetMb() * 1024L * 1024L;
+    }
+
+    /** Deflate level applied before encryption, 1-9, or 0 to store files uncompressed. */
+    public int getCompressionLevel() {
+        int level = prefs.getInt(COMPRESSION_LEVEL, SegmentCompressor.NO_COMPRESSION);
+        return level >= 0 && level <= 9 ? level : SegmentCompressor.NO_COMPRESSION;
+    }
+
+    public void setCompressionLevel(int level) {
+        SegmentCompressor.checkLevel(level);
+        prefs.putInt(COMPRESSION_LEVEL, level);
+    }
+
+    /** The last cipher calibration, if it was measured on this host and runtime. */
+    public Optional<CipherRegistry.Calibration> getCipherCalibration() {
+        String encoded = prefs.get(CIPHER_CALIBRATION, null);
+        if (encoded == null) return Optional.empty();
+        return CipherRegistry.Calibration.decode(encoded).filter(c -> c.host().equals(CipherRegistry.hostKey()));
+    }
+
+    /** Caches a settled calibration; an unsettled one is dropped, so the next start measures again. */
+    public void setCipherCalibration(CipherRegistry.Calibration calibration) {
+        if (!calibration.settled()) return;
+        prefs.put(CIPHER_CALIBRATION, calibration.encode());
+    }
+
+    /** Preferred provider of the algorithm in the cached calibration, or null for the platform default. */
+    public Provider getCipherProvider(String algorithm) {
+        return getCipherCalibration().flatMap(c -> c.preferred(algorithm))
+                .map(m -> CipherRegistry.provider(m.provider())).orElse(null);
+    }
+
+    /** {@link #AUTO_ALGORITHM} or the transformation newly encrypted files always use. */
+    public String getCipherAlgorithm() {
+        String algorithm = prefs.get(CIPHER_ALGORITHM, AUTO_ALGORITHM);
+        return algorithm.equals(CipherRegistry.AES_GCM) || algorithm.equals(CipherRegistry.CHACHA20_POLY1305) ? algorithm : AUTO_ALGORITHM;
+    }
+
+    public void setCipherAlgorithm(String algorithm) {
+        prefs.put(CIPHER_ALGORITHM, algorithm);
+    }
+
+    /** Header algorithm id for new files: the configured one, or the calibration's choice, or AES-GCM. */
+    public int resolveCipherAlgorithm() {
+        return resolveCipherAlgorithm(getCipherAlgorithm());
+    }
+
+    /** Header algorithm id for the given policy, a transformation or {@link #AUTO_ALGORITHM}. */
+    public int resolveCipherAlgorithm(String algorithm) {
+        if (algorithm.equals(AUTO_ALGORITHM)) {
+            algorithm = getCipherCalibration().map(CipherRegistry.Calibration::preferredAlgorithm).orElse(CipherRegistry.AES_GCM);
+        }
+        return SegmentCipher.algorithmId(algorithm);
+    }
+
+    /** Applies the algorithm policy and the calibrated providers to {@code cryptoService}. */
+    public void configureCiphers(CryptoService cryptoService) {
+        cryptoService.setAlgorithm(resolveCipherAlgorithm());
+        cryptoService.setCipherProvider(FileHeader.ALGORITHM_AES_256_GCM, getCipherProvider(CipherRegistry.AES_GCM));
+        cryptoService.setCipherProvider(FileHeader.ALGORITHM_CHACHA20_POLY1305, getCipherProvider(CipherRegistry.CHACHA20_POLY1305));
+    }
+
+    /** Number of files processed at once, or {@link #AUTO_CONCURRENCY} to size by available cores. */
+    public int getFileConcurrency() {
+        return prefs.getInt(FILE_CONCURRENCY, AUTO_CONCURRENCY);
+    }
+
+    public void setFileConcurrency(int concurrency) {
+        prefs.putInt(FILE_CONCURRENCY, Math.max(AUTO_CONCURRENCY, concurrency));
+    }
+
+    /** Folder outputs are written under, or null to write them next to their inputs. */
+    public File getOutputDirectory() {
+        String directory = prefs.get(OUTPUT_DIRECTORY, null);
+        return directory == null ? null : new File(directory);
+    }
+
+    public void setOutputDirectory(File directory) {
+        if (directory == null) prefs.remove(OUTPUT_DIRECTORY);
+        else prefs.put(OUTPUT_DIRECTORY, directory.getAbsolutePath());
+    }
+
+    /** Files processed at once per storage device name, overriding the choice by device type. */
+    public Map<String, Integer> getDeviceConcurrency() {
+        try {
+            return parseDeviceConcurrency(prefs.get(DEVICE_CONCURRENCY, ""));
+        } catch (IllegalArgumentException e) {
+            return Map.of();
+        }
+    }
+
+    public void setDeviceConcurrency(Map<String, Integer> concurrency) {
+        StringBuilder encoded = new StringBuilder();
+        concurrency.forEach((device, workers) -> encoded.append(device).append('=').append(workers).append(';'));
+        prefs.put(DEVICE_CONCURRENCY, encoded.toString());
+    }
+
+    /** Parses {@code device=N} entries separated by semicolons. */
+    public static Map<String, Integer> parseDeviceConcurrency(String text) {
+        Map<String, Integer> concurrency = new LinkedHashMap<>();
+        for (String entry : text.split(";")) {
+            if (entry.isBlank()) continue;
+            int separator = entry.lastIndexOf('=');
+            if (separator <= 0) throw new IllegalArgumentException("expected DEVICE=N, got '" + entry + "'");
+            int workers = Integer.parseInt(entry.substring(separator + 1).trim());
+            if (workers < 1) throw new IllegalArgumentException("device concurrency must be at least 1");
+            concurrency.put(entry.substring(0, separator).trim(), workers);
+        }
+        return concurrency;
+    }
+
+    public StorageDevices newStorageDevices() {
+        return new StorageDevices(getDeviceConcurrency());
+    }
+
+    public int resolveFileConcurrency() {
+        int configured = getFileConcurrency();
+        return configured == AUTO_CONCURRENCY ? Runtime.getRuntime().availableProcessors() : configured;
+    }
 }
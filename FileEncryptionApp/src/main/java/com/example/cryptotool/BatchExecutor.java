@@ -0,0 +1,349 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Runs a per-file operation over a list of files on a bounded worker pool.
+ * <p>
+ * Each file reports into its own counter of a {@link ProgressChannel}, weighted by file size, so
+ * one large file does not count the same as a hundred small ones and the listener is never called
+ * from the hot loop. Setting the shared cancellation flag stops in-flight files at their next
+ * segment boundary and keeps queued files from starting. After the first failure no further files
+ * are started; files already running are allowed to finish, then the failure is rethrown. With
+ * {@link #setStopOnFailure} off, as for verification, every file runs and failures only reach the
+ * listener.
+ * <p>
+ * With {@link #setStorageDevices} the files are grouped by the device they are read from and each
+ * device gets its own lane of workers, sized by {@link StorageDevices#concurrencyOf}: solid-state
+ * devices take files in order, several at once, while a rotational disk takes one file at a time,
+ * largest first, so its head is not dragged between files. Every file holds a slot of each
+ * rotational device it reads or writes, so a lane writing to another lane's disk waits its turn too.
+ * The executor has no UI dependencies, so the same scheduler serves the JavaFX task and headless callers.
+ */
+public class BatchExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(BatchExecutor.class);
+    private static final StorageDevices.Device UNKNOWN_DEVICE = new StorageDevices.Device("unknown", false);
+    /** Files a device lane holds before the feed waits for its workers; largest-first ordering applies within them. */
+    private static final int LANE_CAPACITY = 1024;
+
+    public enum Outcome { SUCCESS, CANCELLED, FAILED }
+
+    @FunctionalInterface
+    public interface FileOperation {
+        /** Processes one file, reporting progress as (done, total) in any unit the operation chooses. */
+        void process(File file, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception;
+
+        /** File the operation will write for {@code file}, or null if it writes none. */
+        default File outputFileFor(File file) {
+            return null;
+        }
+    }
+
+    /**
+     * Every file the executor takes gets {@code onFileFinished}; a file skipped because the batch was
+     * cancelled or had already failed finishes as {@link Outcome#CANCELLED} without being started.
+     */
+    public interface Listener {
+        default void onFileStarted(int index, File file) {}
+        default void onFileFinished(int index, File file, Outcome outcome, Exception error) {}
+    }
+
+    private final int concurrency;
+    private boolean stopOnFailure = true;
+    private StorageDevices storageDevices;
+
+    public BatchExecutor(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /** Whether the first failure stops the batch and is rethrown by {@code run}; on by default. */
+    public void setStopOnFailure(boolean stopOnFailure) {
+        this.stopOnFailure = stopOnFailure;
+    }
+
+    /** Schedules files per storage device; null, the default, runs one pool over all devices. */
+    public void setStorageDevices(StorageDevices storageDevices) {
+        this.storageDevices = storageDevices;
+    }
+
+    public void run(List<File> files, FileOperation operation, AtomicBoolean cancellationFlag, Listener listener) throws Exception {
+        run(files, operation, cancellationFlag, new ProgressChannel(), listener);
+    }
+
+    public void run(List<File> files, FileOperation operation, AtomicBoolean cancellationFlag, ProgressChannel progressChannel,
+                    Listener listener) throws Exception {
+        if (storageDevices != null) {
+            run(FileFeed.of(files), operation, cancellationFlag, progressChannel, listener);
+            return;
+        }
+        int fileCount = files.size();
+        long[] weights = new long[fileCount];
+        long totalWeight = 0;
+        for (int i = 0; i < fileCount; i++) {
+            File file = files.get(i);
+            weights[i] = Math.max(1, file.isDirectory() ? EncryptedArchive.treeSize(file) : file.length());
+            totalWeight += weights[i];
+        }
+        progressChannel.expect(totalWeight, fileCount);
+
+        AtomicReference<Exception> firstFailure = new AtomicReference<>();
+        ExecutorService pool = newWorkerPool(Math.min(concurrency, Math.max(1, fileCount)));
+
+        try {
+            List<Future<?>> futures = new ArrayList<>(fileCount);
+            for (int i = 0; i < fileCount; i++) {
+                int index = i;
+                futures.add(pool.submit(() -> process(index, files.get(index), weights[index], operation, cancellationFlag,
+                        progressChannel, listener, stopOnFailure ? firstFailure : null)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (firstFailure.get() != null) {
+            throw firstFailure.get();
+        }
+    }
+
+    /**
+     * Runs over files that are still being discovered. Each file is announced to the progress
+     * channel when it is taken from the feed, so totals grow with the feed; at most two files per
+     * worker wait in the queue, so a feed of a million files does not turn into a million tasks.
+     * Indexes passed to the listener count files in feed order.
+     */
+    public void run(FileFeed feed, FileOperation operation, AtomicBoolean cancellationFlag, ProgressChannel progressChannel,
+                    Listener listener) throws Exception {
+        if (storageDevices != null) {
+            runByDevice(feed, operation, cancellationFlag, progressChannel, listener);
+            return;
+        }
+        AtomicReference<Exception> firstFailure = new AtomicReference<>();
+        ExecutorService pool = newWorkerPool(concurrency);
+        Semaphore slots = new Semaphore(concurrency * 2);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            int index = 0;
+            File file;
+            while (firstFailure.get() == null && (file = feed.next(cancellationFlag)) != null) {
+                long weight = Math.max(1, file.isDirectory() ? EncryptedArchive.treeSize(file) : file.length());
+                progressChannel.expect(weight, 1);
+                slots.acquire();
+                int fileIndex = index++;
+                File next = file;
+                futures.add(pool.submit(() -> {
+                    try {
+                        process(fileIndex, next, weight, operation, cancellationFlag, progressChannel, listener,
+                                stopOnFailure ? firstFailure : null);
+                    } finally {
+                        slots.release();
+                    }
+                }));
+                futures.removeIf(Future::isDone);
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (firstFailure.get() != null) {
+            throw firstFailure.get();
+        }
+    }
+
+    /** A file waiting in a device lane; the one with a negative index tells a worker to stop. */
+    private record Queued(int index, File file, long weight) {
+        boolean isEnd() {
+            return index < 0;
+        }
+    }
+
+    /** Files queued for one device, at most {@link #LANE_CAPACITY} of them. */
+    private static final class Lane {
+        final PriorityBlockingQueue<Queued> queue;
+        final Semaphore capacity = new Semaphore(LANE_CAPACITY);
+        final int workers;
+
+        Lane(Comparator<Queued> order, int workers) {
+            this.queue = new PriorityBlockingQueue<>(64, order);
+            this.workers = workers;
+        }
+
+        void put(Queued queued) throws InterruptedException {
+            capacity.acquire();
+            queue.add(queued);
+        }
+
+        Queued take() throws InterruptedException {
+            Queued queued = queue.take();
+            if (!queued.isEnd()) capacity.release();
+            return queued;
+        }
+    }
+
+    /**
+     * Sorts the feed into per-device queues, so files of a slow disk waiting for their turn do not
+     * hold back the files of other devices. A full queue holds back the feed until its workers catch
+     * up, so a large watch-folder feed is not buffered whole.
+     */
+    private void runByDevice(FileFeed feed, FileOperation operation, AtomicBoolean cancellationFlag, ProgressChannel progressChannel,
+                             Listener listener) throws Exception {
+        AtomicReference<Exception> firstFailure = new AtomicReference<>();
+        Map<StorageDevices.Device, Lane> lanes = new LinkedHashMap<>();
+        Map<StorageDevices.Device, Semaphore> deviceSlots = new ConcurrentHashMap<>();
+        ExecutorService pool = newWorkerPool();
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            int index = 0;
+            File file;
+            while (firstFailure.get() == null && (file = feed.next(cancellationFlag)) != null) {
+                long weight = Math.max(1, file.isDirectory() ? EncryptedArchive.treeSize(file) : file.length());
+                progressChannel.expect(weight, 1);
+                StorageDevices.Device device = deviceOf(file);
+                Lane lane = lanes.get(device);
+                if (lane == null) {
+                    // Ends sort last, so workers finish the files queued before them.
+                    Comparator<Queued> order = Comparator.comparing(Queued::isEnd);
+                    order = device.rotational() ? order.thenComparing(Queued::weight, Comparator.reverseOrder()).thenComparingInt(Queued::index)
+                            : order.thenComparingInt(Queued::index);
+                    int workers = storageDevices.concurrencyOf(device, concurrency);
+                    lane = new Lane(order, workers);
+                    lanes.put(device, lane);
+                    logger.info("Reading from {} with {} worker(s){}.", device.name(), workers, device.rotational() ? ", largest files first" : "");
+                    for (int i = 0; i < workers; i++) {
+                        Lane drained = lane;
+                        futures.add(pool.submit(() -> {
+                            drainLane(device, drained, deviceSlots, operation, cancellationFlag, progressChannel, listener,
+                                    stopOnFailure ? firstFailure : null);
+                            return null;
+                        }));
+                    }
+                }
+                lane.put(new Queued(index++, file, weight));
+            }
+            for (Lane lane : lanes.values()) {
+                for (int i = 0; i < lane.workers; i++) lane.queue.add(new Queued(-1, null, 0));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (firstFailure.get() != null) {
+            throw firstFailure.get();
+        }
+    }
+
+    private void drainLane(StorageDevices.Device device, Lane lane, Map<StorageDevices.Device, Semaphore> deviceSlots,
+                           FileOperation operation, AtomicBoolean cancellationFlag, ProgressChannel progressChannel, Listener listener,
+                           AtomicReference<Exception> firstFailure) throws InterruptedException {
+        Queued next;
+        while (!(next = lane.take()).isEnd()) {
+            File output = operation.outputFileFor(next.file());
+            StorageDevices.Device outputDevice = output == null ? device : deviceOf(output);
+            // Always taken in name order, so two lanes writing to each other's disks cannot deadlock.
+            List<StorageDevices.Device> touched = device.equals(outputDevice) ? List.of(device)
+                    : Stream.of(device, outputDevice).sorted(Comparator.comparing(StorageDevices.Device::name)).toList();
+            List<Semaphore> slots = new ArrayList<>();
+            for (StorageDevices.Device d : touched) {
+                if (d.rotational()) slots.add(deviceSlots.computeIfAbsent(d, k -> new Semaphore(storageDevices.concurrencyOf(k, concurrency))));
+            }
+            int acquired = 0;
+            try {
+                for (Semaphore slot : slots) {
+                    slot.acquire();
+                    acquired++;
+                }
+                process(next.index(), next.file(), next.weight(), operation, cancellationFlag, progressChannel, listener, firstFailure);
+            } finally {
+                for (int i = 0; i < acquired; i++) slots.get(i).release();
+            }
+        }
+    }
+
+    /** Files on a device that cannot be identified share one solid-state lane; processing reports the real error. */
+    private StorageDevices.Device deviceOf(File file) {
+        try {
+            return storageDevices.deviceOf(file.toPath());
+        } catch (IOException | RuntimeException e) {
+            return UNKNOWN_DEVICE;
+        }
+    }
+
+    private static ExecutorService newWorkerPool() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "batch-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static ExecutorService newWorkerPool(int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "batch-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** {@code firstFailure} is null when failures must not stop the batch. */
+    private static void process(int index, File file, long weight, FileOperation operation, AtomicBoolean cancellationFlag,
+                                ProgressChannel progressChannel, Listener listener, AtomicReference<Exception> firstFailure) {
+        ProgressChannel.FileProgress progress = progressChannel.register(file, weight);
+        if (cancellationFlag.get() || (firstFailure != null && firstFailure.get() != null)) {
+            progress.finish(false);
+            listener.onFileFinished(index, file, Outcome.CANCELLED, null);
+            return;
+        }
+
+        listener.onFileStarted(index, file);
+        try {
+            operation.process(file, cancellationFlag, progress);
+            Outcome outcome = cancellationFlag.get() ? Outcome.CANCELLED : Outcome.SUCCESS;
+            progress.finish(outcome == Outcome.SUCCESS);
+            listener.onFileFinished(index, file, outcome, null);
+        } catch (Exception e) {
+            if (firstFailure != null) {
+                firstFailure.compareAndSet(null, e);
+                logger.error("Processing failed for file: {}", file.getAbsolutePath(), e);
+            } else {
+                logger.warn("Processing failed for file: {}: {}", file.getAbsolutePath(), e.getMessage());
+            }
+            progress.finish(false);
+            listener.onFileFinished(index, file, Outcome.FAILED, e);
+        }
+    }
+}
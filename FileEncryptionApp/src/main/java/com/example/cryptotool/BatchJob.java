@@ -0,0 +1,146 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-file work of an encrypt, decrypt or verify batch, shared by the UI and the command line.
+ * <p>
+ * Skips files the batch journal already records, runs the crypto operation, and after a successful
+ * encryption hands the original to the {@link Shredder} instead of deleting it inline, so shredding
+ * file N overlaps with encrypting file N+1. Cancelled outputs are removed unless a checkpoint lets
+ * the next run resume them.
+ */
+public class BatchJob implements BatchExecutor.FileOperation {
+    private static final Logger logger = LoggerFactory.getLogger(BatchJob.class);
+
+    public enum Mode { ENCRYPT, DECRYPT, VERIFY }
+
+    @FunctionalInterface
+    public interface ShredListener {
+        void onShredFinished(File file, Exception error);
+    }
+
+    private final CryptoService cryptoService;
+    private final KeySession session;
+    private final Mode mode;
+    private final BatchJournal journal;
+    private final Shredder shredder;
+    private final Set<File> skipped = ConcurrentHashMap.newKeySet();
+    private final List<CompletableFuture<Void>> pendingShreds = new ArrayList<>();
+    private final AtomicReference<CryptoException> firstShredFailure = new AtomicReference<>();
+    private ShredListener shredListener = (file, error) -> {};
+    private File outputDirectory;
+    private List<File> roots = List.of();
+
+    /**
+     * @param journal  journal of the batch, or null to always process every file
+     * @param shredder shredder for encrypted originals, or null to keep them
+     */
+    public BatchJob(CryptoService cryptoService, KeySession session, Mode mode, BatchJournal journal, Shredder shredder) {
+        this.cryptoService = cryptoService;
+        this.session = session;
+        this.mode = mode;
+        this.journal = journal;
+        this.shredder = mode == Mode.ENCRYPT ? shredder : null;
+    }
+
+    public void setShredListener(ShredListener shredListener) {
+        this.shredListener = shredListener;
+    }
+
+    /**
+     * Writes outputs under {@code outputDirectory}, laid out relative to the selected {@code roots},
+     * instead of next to their inputs; null restores the default.
+     */
+    public void setOutputDirectory(File outputDirectory, List<File> roots) {
+        this.outputDirectory = outputDirectory;
+        this.roots = List.copyOf(roots);
+    }
+
+    @Override
+    public File outputFileFor(File inputFile) {
+        return mode == Mode.VERIFY ? null : CryptoService.outputFileFor(inputFile, mode == Mode.ENCRYPT, outputDirectory, roots);
+    }
+
+    @Override
+    public void process(File inputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception {
+        if (mode == Mode.VERIFY) {
+            cryptoService.verify(session, inputFile, cancellationFlag, progress);
+            return;
+        }
+        File outputFile = outputFileFor(inputFile);
+        if (journal != null && journal.isCompleted(inputFile) && outputFile.exists()) {
+            logger.info("Skipping {}: already completed by an earlier run of this batch.", inputFile.getName());
+            skipped.add(inputFile);
+            return;
+        }
+        if (outputDirectory != null) Files.createDirectories(outputFile.toPath().getParent());
+
+        if (mode == Mode.ENCRYPT) {
+            cryptoService.encrypt(session, inputFile, outputFile, cancellationFlag, progress);
+        } else {
+            cryptoService.decrypt(session, inputFile, outputFile, cancellationFlag, progress);
+        }
+
+        if (cancellationFlag.get()) {
+            if (outputFile.exists() && !cryptoService.hasCheckpoint(outputFile)) outputFile.delete();
+        } else if (shredder != null) {
+            // A folder loses only what its archive holds; the list comes from the archive that was written.
+            CompletableFuture<Void> submitted = inputFile.isDirectory()
+                    ? shredder.submit(inputFile, cryptoService.listArchive(session, outputFile)) : shredder.submit(inputFile);
+            CompletableFuture<Void> shred = submitted.whenComplete((ignored, error) -> {
+                CryptoException failure = error == null ? null : unwrap(error);
+                if (failure == null && journal != null) journal.markCompleted(inputFile);
+                if (failure != null) firstShredFailure.compareAndSet(null, failure);
+                shredListener.onShredFinished(inputFile, failure);
+            });
+            synchronized (pendingShreds) {
+                pendingShreds.add(shred);
+            }
+        } else if (journal != null) {
+            journal.markCompleted(inputFile);
+        }
+    }
+
+    /** True if the file was skipped because an earlier run of the batch already completed it. */
+    public boolean isSkipped(File inputFile) {
+        return skipped.contains(inputFile);
+    }
+
+    public int skippedCount() {
+        return skipped.size();
+    }
+
+    /** Waits until every queued original has been shredded, then rethrows the first shredding failure. */
+    public void awaitShredding() throws CryptoException {
+        List<CompletableFuture<Void>> pending;
+        synchronized (pendingShreds) {
+            pending = new ArrayList<>(pendingShreds);
+        }
+        for (CompletableFuture<Void> shred : pending) {
+            try {
+                shred.join();
+            } catch (CompletionException e) {
+                // Recorded in firstShredFailure by the completion handler.
+            }
+        }
+        if (firstShredFailure.get() != null) throw firstShredFailure.get();
+    }
+
+    private static CryptoException unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof CryptoException ? (CryptoException) cause : new CryptoException("Could not securely delete original file.", cause);
+    }
+}
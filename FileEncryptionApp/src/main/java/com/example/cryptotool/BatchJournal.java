@@ -0,0 +1,95 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Append-only record of the files a batch has finished, so re-running the same batch skips them.
+ * <p>
+ * A batch is identified by its operation and the sorted absolute paths of its inputs; the journal
+ * lives under {@code ~/.file-crypter-pro/jobs} and is removed once the whole batch succeeds.
+ */
+public class BatchJournal {
+    private static final Logger logger = LoggerFactory.getLogger(BatchJournal.class);
+    private static final Path JOURNAL_DIRECTORY = Paths.get(System.getProperty("user.home"), ".file-crypter-pro", "jobs");
+
+    private final Path path;
+    private final Set<String> completed = new HashSet<>();
+
+    private BatchJournal(Path path) {
+        this.path = path;
+    }
+
+    public static BatchJournal open(String operation, List<File> files) {
+        List<String> paths = new ArrayList<>(files.size());
+        files.forEach(file -> paths.add(file.getAbsolutePath()));
+        Collections.sort(paths);
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        digest.update(operation.getBytes(StandardCharsets.UTF_8));
+        for (String path : paths) {
+            digest.update((byte) 0);
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+        }
+
+        BatchJournal journal = new BatchJournal(JOURNAL_DIRECTORY.resolve(HexFormat.of().formatHex(digest.digest()) + ".journal"));
+        if (Files.isRegularFile(journal.path)) {
+            try {
+                journal.completed.addAll(Files.readAllLines(journal.path, StandardCharsets.UTF_8));
+                logger.info("Resuming batch: {} of {} files already done.", journal.completed.size(), files.size());
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable batch journal {}", journal.path, e);
+            }
+        }
+        return journal;
+    }
+
+    public synchronized boolean isCompleted(File file) {
+        return completed.contains(file.getAbsolutePath());
+    }
+
+    /** Records a finished file. A journal that cannot be written only costs the ability to skip it later. */
+    public synchronized void markCompleted(File file) {
+        String entry = file.getAbsolutePath();
+        if (!completed.add(entry)) return;
+        try {
+            Files.createDirectories(path.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)) {
+                writer.write(entry);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not update batch journal {}", path, e);
+        }
+    }
+
+    public synchronized void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not remove batch journal {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.cryptotool;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles direct buffers between segments and files. Allocating direct memory is expensive, so
+ * released buffers are kept up to a fixed count; requests larger than the pooled capacity get a
+ * one-off buffer that is simply dropped on release.
+ */
+public class BufferPool {
+    private final int bufferCapacity;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(int bufferCapacity, int maxPooled) {
+        this.bufferCapacity = bufferCapacity;
+        this.maxPooled = maxPooled;
+    }
+
+    public ByteBuffer acquire(int minCapacity) {
+        if (minCapacity > bufferCapacity) {
+            return ByteBuffer.allocateDirect(minCapacity);
+        }
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferCapacity);
+        }
+        pooled.decrementAndGet();
+        return buffer.clear();
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferCapacity) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer.clear());
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.cryptotool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pipeline listener that extends the tag chain for every written segment and, every
+ * {@code intervalBytes} of plaintext, forces the output to disk and saves a {@link JobCheckpoint}.
+ * The final segment is never checkpointed, so a resumed job always has work left to do. For
+ * compressed containers it also collects the sealed segment lengths that go into the trailer.
+ */
+public class CheckpointRecorder implements SegmentPipeline.SegmentListener {
+    private final File inputFile;
+    private final File outputFile;
+    private final byte[] header;
+    private final int compressionLevel;
+    private final FileChannel output;
+    private final long firstSegment;
+    private final long intervalBytes;
+    private final int generation;
+    private final List<SegmentCipher.Resume> resumes;
+    private byte[] chainHash;
+    private int[] sealedLengths;
+    private long segments;
+    private long plaintextOffset;
+    private long outputOffset;
+    private long sinceCheckpoint;
+
+    public CheckpointRecorder(File inputFile, File outputFile, FileHeader header, int compressionLevel, FileChannel output, long intervalBytes) {
+        this(inputFile, outputFile, header, compressionLevel, output, intervalBytes, 0, 0, header.length(),
+                JobCheckpoint.chainStart(header.encoded()), 0, List.of(), header.isCompressed() ? new int[0] : null);
+    }
+
+    /** Continues {@code resumeFrom}, whose generation the resumed segments are sealed under. */
+    public CheckpointRecorder(File inputFile, File outputFile, FileHeader header, int compressionLevel, FileChannel output, long intervalBytes,
+                              JobCheckpoint resumeFrom) {
+        this(inputFile, outputFile, header, compressionLevel, output, intervalBytes, resumeFrom.getSegments(), resumeFrom.getPlaintextOffset(),
+                resumeFrom.getOutputOffset(), resumeFrom.getChainHash(), resumeFrom.getGeneration(), resumeFrom.resumesFrom(),
+                resumeFrom.getSealedLengths());
+    }
+
+    private CheckpointRecorder(File inputFile, File outputFile, FileHeader header, int compressionLevel, FileChannel output, long intervalBytes,
+                               long segments, long plaintextOffset, long outputOffset, byte[] chainHash, int generation,
+                               List<SegmentCipher.Resume> resumes, int[] sealedLengths) {
+        this.inputFile = inputFile;
+        this.outputFile = outputFile;
+        this.header = header.encoded();
+        this.compressionLevel = compressionLevel;
+        this.output = output;
+        this.intervalBytes = intervalBytes;
+        this.firstSegment = segments;
+        this.segments = segments;
+        this.plaintextOffset = plaintextOffset;
+        this.outputOffset = outputOffset;
+        this.chainHash = chainHash;
+        this.generation = generation;
+        this.resumes = List.copyOf(resumes);
+        this.sealedLengths = sealedLengths;
+    }
+
+    /** Segment counter the pipeline should continue from. */
+    public long getFirstSegment() {
+        return firstSegment;
+    }
+
+    /** Resume points of the container being written, for {@link SegmentCipher#resumedAt}. */
+    public List<SegmentCipher.Resume> getResumes() {
+        return resumes;
+    }
+
+    @Override
+    public void onSegmentWritten(long index, boolean last, ByteBuffer sealed, int inputBytes) throws IOException {
+        chainHash = JobCheckpoint.chainNext(chainHash, sealed);
+        if (sealedLengths != null) {
+            if (segments == sealedLengths.length) sealedLengths = Arrays.copyOf(sealedLengths, Math.max(16, sealedLengths.length * 2));
+            sealedLengths[(int) segments] = sealed.remaining();
+        }
+        segments++;
+        plaintextOffset += inputBytes;
+        outputOffset += sealed.remaining();
+        sinceCheckpoint += inputBytes;
+        if (!last && sinceCheckpoint >= intervalBytes) {
+            output.force(false);
+            new JobCheckpoint(inputFile, header, compressionLevel, segments, plaintextOffset, outputOffset, chainHash, generation, resumes,
+                    sealedLengths == null ? null : Arrays.copyOf(sealedLengths, (int) segments)).save(outputFile);
+            sinceCheckpoint = 0;
+        }
+    }
+
+    /** Index trailer for the finished container, once every segment has been written. */
+    public ByteBuffer trailer(long plaintextLength, int segmentSize) {
+        if (sealedLengths == null) return SegmentIndex.encodeFixedTrailer(plaintextLength, segmentSize, resumes);
+        return SegmentIndex.encodeTrailer(sealedLengths, (int) segments, plaintextLength, resumes);
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+
+/**
+ * Incremental encryption of one file into content-defined chunks.
+ * <p>
+ * The output file {@code name.enc} is a container with {@link FileHeader#FLAG_CHUNKED} whose
+ * plaintext is the manifest: plaintext length (8) | chunk count (4) | per chunk: id (32) | length (4).
+ * The chunks live next to it in {@code name.enc.chunks/}, one single-segment container per chunk,
+ * named by its id: an HMAC-SHA256 of the chunk plaintext under a key of the store. Re-encrypting
+ * the file only seals and writes chunks whose id is not in the store yet; everything else is reused
+ * as is. The new manifest replaces the old one atomically, and chunks it no longer references are
+ * deleted afterwards, so an interrupted run leaves the previous version intact and the chunks it
+ * already wrote are picked up by the next run.
+ * <p>
+ * The {@code store} file holds the header template of the store: chunks and manifests share its
+ * batch salt, so opening everything costs one PBKDF2 run, while every chunk still gets its own key.
+ * Chunk ids reveal which chunks two versions have in common, which is inherent to reusing them.
+ */
+public class ChunkStore {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkStore.class);
+    private static final String DIRECTORY_SUFFIX = ".chunks";
+    private static final String STORE_FILE = "store";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] GEAR_SEED_INFO = "file-crypter-pro chunk boundaries".getBytes(StandardCharsets.US_ASCII);
+    private static final int ID_LENGTH = 32;
+    private static final int READ_BUFFER_SIZE = 2 * ContentChunker.MAX_CHUNK_SIZE;
+
+    /** One chunk of the manifest. */
+    public record Chunk(byte[] id, int length) {
+        String name() {
+            return HexFormat.of().formatHex(id);
+        }
+    }
+
+    private final KeySession session;
+    private final Path directory;
+    private final FileHeader storeHeader;
+    private final int algorithm;
+    private final IntFunction<Provider> providers;
+    private final Mac mac;
+    private final ContentChunker chunker;
+    // Direct buffers: the JDK's GCM is many times slower on heap buffers.
+    private final ByteBuffer sealed = ByteBuffer.allocateDirect(ContentChunker.MAX_CHUNK_SIZE + SegmentCompressor.FRAME_OVERHEAD + SegmentCipher.TAG_LENGTH_BYTES);
+    private final ByteBuffer plaintext = ByteBuffer.allocateDirect(ContentChunker.MAX_CHUNK_SIZE);
+    private ByteBuffer framed;
+
+    private ChunkStore(KeySession session, Path directory, FileHeader storeHeader, int algorithm, IntFunction<Provider> providers)
+            throws GeneralSecurityException, IOException {
+        this.session = session;
+        this.directory = directory;
+        this.storeHeader = storeHeader;
+        this.algorithm = algorithm;
+        this.providers = providers;
+        this.mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(new SecretKeySpec(session.keyFor(storeHeader).getEncoded(), HMAC_ALGORITHM));
+        this.chunker = new ContentChunker(ByteBuffer.wrap(mac.doFinal(GEAR_SEED_INFO)).getLong());
+    }
+
+    /** Directory holding the chunks of the given output file. */
+    public static File directoryFor(File outputFile) {
+        return new File(outputFile.getParentFile(), outputFile.getName() + DIRECTORY_SUFFIX);
+    }
+
+    public static boolean exists(File outputFile) {
+        return new File(directoryFor(outputFile), STORE_FILE).isFile();
+    }
+
+    /** True if {@code path} names a chunk store directory; its contents are never inputs of their own. */
+    public static boolean isStoreDirectory(Path path) {
+        Path name = path.getFileName();
+        return name != null && name.toString().endsWith(".enc" + DIRECTORY_SUFFIX);
+    }
+
+    /** True if {@code path} lies inside some chunk store directory. */
+    public static boolean isInsideStore(Path path) {
+        for (Path parent = path.getParent(); parent != null; parent = parent.getParent()) {
+            if (isStoreDirectory(parent)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opens the store of {@code outputFile}, creating it with the session's batch salt if there is none.
+     * New chunks and the manifest are sealed with {@code algorithm}; chunks already in the store keep
+     * theirs. {@code providers} maps an algorithm id to its JCA provider, or null for the default.
+     */
+    public static ChunkStore openOrCreate(KeySession session, File outputFile, int algorithm, IntFunction<Provider> providers)
+            throws IOException, GeneralSecurityException, CryptoException {
+        if (exists(outputFile)) return open(session, outputFile, algorithm, providers);
+        Path directory = directoryFor(outputFile).toPath();
+        Files.createDirectories(directory);
+        // The store header only carries the salts; its algorithm id is fixed so the chunk ids never change.
+        FileHeader storeHeader = newHeader(FileHeader.ALGORITHM_AES_256_GCM, 0, session.getBatchSalt());
+        Path temp = directory.resolve(STORE_FILE + TEMP_SUFFIX);
+        Files.write(temp, storeHeader.encoded());
+        Files.move(temp, directory.resolve(STORE_FILE), StandardCopyOption.ATOMIC_MOVE);
+        return new ChunkStore(session, directory, storeHeader, algorithm, providers);
+    }
+
+    /** Opens the store of {@code outputFile} for restoring. */
+    public static ChunkStore open(KeySession session, File outputFile, IntFunction<Provider> providers) throws IOException, GeneralSecurityException, CryptoException {
+        return open(session, outputFile, FileHeader.ALGORITHM_AES_256_GCM, providers);
+    }
+
+    private static ChunkStore open(KeySession session, File outputFile, int algorithm, IntFunction<Provider> providers)
+            throws IOException, GeneralSecurityException, CryptoException {
+        Path directory = directoryFor(outputFile).toPath();
+        Path storeFile = directory.resolve(STORE_FILE);
+        if (!Files.isRegularFile(storeFile)) {
+            throw new CryptoException("Chunk store " + directory.getFileName() + " is missing.");
+        }
+        FileHeader storeHeader = FileHeader.read(new ByteArrayInputStream(Files.readAllBytes(storeFile)));
+        return new ChunkStore(session, directory, storeHeader, algorithm, providers);
+    }
+
+    /** Removes the chunk store of {@code outputFile}, if there is one. */
+    public static void delete(File outputFile) throws IOException {
+        Path directory = directoryFor(outputFile).toPath();
+        if (!Files.exists(directory)) return;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Chunks {@code in}, stores the chunks that are new, then replaces {@code outputFile} with the
+     * new manifest and deletes chunks it no longer references.
+     *
+     * @param compressionLevel deflate level for new chunks, or {@link SegmentCompressor#NO_COMPRESSION}
+     * @return false if the operation was cancelled; the previous manifest is then left in place.
+     */
+    public boolean encrypt(FileChannel in, File outputFile, int compressionLevel, AtomicBoolean cancellationFlag,
+                           ProgressChannel.FileProgress progress) throws IOException, GeneralSecurityException {
+        long totalBytes = in.size();
+        // Manifest entries are collected in memory: 36 bytes per chunk, about 360 KB for a 10 GB file.
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream manifest = new DataOutputStream(entries);
+        Set<String> referenced = new HashSet<>();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int start = 0;
+        int end = 0;
+        boolean endOfInput = false;
+        long done = 0;
+        long written = 0;
+        int count = 0;
+        int created = 0;
+        while (true) {
+            if (cancellationFlag.get()) return false;
+            if (!endOfInput && end - start < ContentChunker.MAX_CHUNK_SIZE) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                ByteBuffer window = ByteBuffer.wrap(buffer, end, buffer.length - end);
+                while (window.hasRemaining() && !endOfInput) {
+                    endOfInput = in.read(window) < 0;
+                }
+                end = window.position();
+            }
+            if (start == end) break;
+
+            int length = chunker.cut(buffer, start, end - start);
+            mac.update(buffer, start, length);
+            Chunk chunk = new Chunk(mac.doFinal(), length);
+            String name = chunk.name();
+            manifest.write(chunk.id());
+            manifest.writeInt(length);
+            if (referenced.add(name) && !Files.exists(chunkPath(name))) {
+                written += writeChunk(name, ByteBuffer.wrap(buffer, start, length), compressionLevel);
+                created++;
+            }
+            count++;
+            start += length;
+            done += length;
+            progress.update(done, totalBytes);
+        }
+        if (done != in.size()) throw new IOException("Input file changed while it was being encrypted.");
+
+        writeManifest(outputFile, done, count, entries);
+        int removed = collectGarbage(referenced);
+        logger.info("Stored {} in {} chunks: {} new ({} bytes written), {} reused, {} removed.",
+                outputFile.getName(), count, created, written, count - created, removed);
+        return true;
+    }
+
+    /**
+     * Writes the plaintext described by {@code manifest} to {@code out}, authenticating every chunk
+     * and checking it against its id.
+     *
+     * @return false if the operation was cancelled.
+     */
+    public boolean restore(SeekableByteChannel manifest, WritableByteChannel out, AtomicBoolean cancellationFlag,
+                           ProgressChannel.FileProgress progress) throws IOException, GeneralSecurityException, CryptoException {
+        // Not closed here: the caller owns the manifest channel.
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(manifest)));
+        long totalBytes = in.readLong();
+        int count = in.readInt();
+        if (totalBytes < 0 || count < 0) throw new CryptoException("Invalid chunk manifest.");
+        long done = 0;
+        byte[] id = new byte[ID_LENGTH];
+        for (int i = 0; i < count; i++) {
+            if (cancellationFlag.get()) return false;
+            in.readFully(id);
+            int length = in.readInt();
+            if (length <= 0 || length > ContentChunker.MAX_CHUNK_SIZE) throw new CryptoException("Invalid chunk manifest.");
+            ByteBuffer chunk = readChunk(new Chunk(id, length));
+            while (chunk.hasRemaining()) out.write(chunk);
+            done += length;
+            progress.update(done, totalBytes);
+        }
+        if (done != totalBytes) throw new CryptoException("Invalid chunk manifest: chunk lengths do not add up.");
+        return true;
+    }
+
+    private long writeChunk(String name, ByteBuffer data, int compressionLevel) throws IOException, GeneralSecurityException {
+        int flags = FileHeader.FLAG_INDEX_TRAILER;
+        if (compressionLevel != SegmentCompressor.NO_COMPRESSION) flags |= FileHeader.FLAG_COMPRESSED;
+        FileHeader header = newHeader(algorithm, flags, storeHeader.getSalt());
+        SegmentCipher cipher = new SegmentCipher(session.keyFor(header), header, providers.apply(algorithm));
+        long plaintextLength = data.remaining();
+        plaintext.clear().put(data).flip();
+        sealed.clear();
+        if (header.isCompressed()) {
+            if (framed == null) framed = ByteBuffer.allocateDirect(ContentChunker.MAX_CHUNK_SIZE + SegmentCompressor.FRAME_OVERHEAD);
+            SegmentCompressor.compress(plaintext, framed.clear(), compressionLevel);
+            cipher.seal(0, true, framed.flip(), sealed);
+        } else {
+            cipher.seal(0, true, plaintext, sealed);
+        }
+        sealed.flip();
+
+        Path target = chunkPath(name);
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(name + TEMP_SUFFIX);
+        long written;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer trailer = SegmentIndex.encodeTrailer(new int[] {sealed.remaining()}, 1, plaintextLength);
+            ByteBuffer[] parts = {ByteBuffer.wrap(header.encoded()), sealed, trailer};
+            written = 0;
+            while (trailer.hasRemaining()) {
+                written += out.write(parts);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    private ByteBuffer readChunk(Chunk chunk) throws IOException, GeneralSecurityException, CryptoException {
+        Path path = chunkPath(chunk.name());
+        if (!Files.isRegularFile(path)) throw new CryptoException("Chunk " + chunk.name() + " is missing from the store.");
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            FileHeader header = FileHeader.read(Channels.newInputStream(in));
+            SegmentIndex index = SegmentIndex.load(in, header);
+            if (index.segmentCount() != 1 || index.sealedLength(0) > sealed.capacity()) {
+                throw new CryptoException("Invalid chunk " + chunk.name() + ": unexpected segment layout.");
+            }
+            sealed.clear().limit(index.sealedLength(0));
+            while (sealed.hasRemaining()) {
+                if (in.read(sealed, index.offset(0) + sealed.position()) < 0) throw new IOException("Chunk " + chunk.name() + " is truncated.");
+            }
+            sealed.flip();
+            SegmentCipher cipher = new SegmentCipher(session.keyFor(header), header, providers.apply(header.getAlgorithm()));
+            plaintext.clear();
+            if (header.isCompressed()) {
+                if (framed == null) framed = ByteBuffer.allocateDirect(ContentChunker.MAX_CHUNK_SIZE + SegmentCompressor.FRAME_OVERHEAD);
+                cipher.open(0, true, sealed, framed.clear());
+                SegmentCompressor.expand(framed.flip(), plaintext);
+            } else {
+                cipher.open(0, true, sealed, plaintext);
+            }
+        } catch (DataFormatException e) {
+            throw new CryptoException("Invalid chunk " + chunk.name() + ": " + e.getMessage(), e);
+        }
+        plaintext.flip();
+        mac.update(plaintext.duplicate());
+        if (plaintext.remaining() != chunk.length() || !MessageDigest.isEqual(mac.doFinal(), chunk.id())) {
+            throw new CryptoException("Chunk " + chunk.name() + " does not match the manifest.");
+        }
+        return plaintext;
+    }
+
+    private void writeManifest(File outputFile, long plaintextLength, int count, ByteArrayOutputStream entries) throws IOException, GeneralSecurityException {
+        FileHeader header = newHeader(algorithm, FileHeader.FLAG_INDEX_TRAILER | FileHeader.FLAG_CHUNKED, storeHeader.getSalt());
+        Path temp = directory.resolve("manifest" + TEMP_SUFFIX);
+        EncryptingChannel channel = new EncryptingChannel(
+                FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+                header, new SegmentCipher(session.keyFor(header), header, providers.apply(algorithm)), SegmentCompressor.NO_COMPRESSION);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeLong(plaintextLength);
+            out.writeInt(count);
+            entries.writeTo(out);
+        } catch (IOException e) {
+            channel.abort();
+            throw e;
+        }
+        Files.move(temp, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Deletes chunks and leftover temporary files that the current manifest does not reference. */
+    private int collectGarbage(Set<String> referenced) throws IOException {
+        int removed = 0;
+        try (Stream<Path> walk = Files.walk(directory, 2)) {
+            for (Path path : walk.filter(p -> p.getNameCount() - directory.getNameCount() == 2).toList()) {
+                if (!referenced.contains(path.getFileName().toString()) && Files.isRegularFile(path)) {
+                    Files.delete(path);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private Path chunkPath(String name) {
+        return directory.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private static FileHeader newHeader(int algorithm, int flags, byte[] salt) {
+        return new FileHeader(algorithm, FileHeader.KDF_KEY_FILE_DIGEST, flags, ContentChunker.MAX_CHUNK_SIZE,
+                KeySession.generateRandomBytes(FileHeader.NONCE_PREFIX_LENGTH), salt, KeySession.generateRandomBytes(FileHeader.SALT_LENGTH));
+    }
+
+}
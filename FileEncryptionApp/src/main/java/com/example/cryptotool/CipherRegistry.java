@@ -0,0 +1,251 @@
+package com.example.cryptotool;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Cipher providers available for the segment AEADs, and a short calibration that picks the fastest.
+ * <p>
+ * Whether a provider's AES-GCM runs on AES-NI intrinsics depends on the JVM and the CPU, so the
+ * choice is measured rather than assumed, and the result is cached per host. Cold code runs in the
+ * interpreter or C1, where the intrinsics are missing and the ranking is noise, so each candidate is
+ * warmed up until its throughput stops changing and only then measured. A calibration in which some
+ * candidate never settled is not {@link Calibration#settled() settled} and must not be cached.
+ * ChaCha20-Poly1305 is measured alongside, so hosts where AES runs in software can tell that the
+ * other AEAD is faster; the platform default AES-GCM is kept unless something clearly beats it.
+ */
+public class CipherRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(CipherRegistry.class);
+    public static final String AES_GCM = "AES/GCM/NoPadding";
+    public static final String CHACHA20_POLY1305 = "ChaCha20-Poly1305";
+    public static final String DEFAULT_PROVIDER = "default";
+    private static final List<String> ALGORITHMS = List.of(AES_GCM, CHACHA20_POLY1305);
+    /** Small samples reach the JIT's invocation thresholds sooner than full segments. */
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    private static final long WINDOW_NANOS = 20_000_000L;
+    /** Throughput is the mean of this many consecutive windows, which smooths out scheduling noise. */
+    private static final int SMOOTHING_WINDOWS = 5;
+    /** A smaller gain in throughput counts as noise rather than as the JIT still at work. */
+    private static final double SIGNIFICANT_GAIN = 0.2;
+    /** No candidate settles sooner; interpreted and C1 code can look steady for a few hundred milliseconds. */
+    private static final long MIN_WARMUP_NANOS = 1_000_000_000L;
+    /** A candidate still gaining speed after this long is left out of the calibration. */
+    private static final long MAX_WARMUP_NANOS = 6_000_000_000L;
+    /** Another provider or AEAD must beat the platform default AES-GCM by this factor before it is preferred. */
+    private static final double SWITCH_FACTOR = 1.5;
+
+    private static Provider bouncyCastle;
+
+    /** Throughput of one algorithm on one provider. */
+    public record Measurement(String algorithm, String provider, double megabytesPerSecond) {}
+
+    /**
+     * Result of a calibration run on one host. The measurements of each algorithm are in provider
+     * priority order, so the first is the platform default. {@code settled} is false if some
+     * candidate never reached a steady throughput; such a result is left out of the cache.
+     */
+    public record Calibration(String host, long measuredAtMillis, List<Measurement> measurements, boolean settled) {
+        /** Provider for the algorithm: the platform default unless another is clearly faster, or empty if none offers it. */
+        public Optional<Measurement> preferred(String algorithm) {
+            List<Measurement> offers = measurements.stream().filter(m -> m.algorithm().equals(algorithm)).toList();
+            if (offers.isEmpty()) return Optional.empty();
+            Measurement fastest = offers.stream().max(Comparator.comparingDouble(Measurement::megabytesPerSecond)).orElseThrow();
+            Measurement standard = offers.get(0);
+            return Optional.of(fastest.megabytesPerSecond() > standard.megabytesPerSecond() * SWITCH_FACTOR ? fastest : standard);
+        }
+
+        /** AES-GCM, unless the host runs another AEAD clearly faster, as it does without AES instructions. */
+        public String preferredAlgorithm() {
+            double aes = preferred(AES_GCM).map(Measurement::megabytesPerSecond).orElse(0.0);
+            return preferred(CHACHA20_POLY1305).filter(m -> m.megabytesPerSecond() > aes * SWITCH_FACTOR)
+                    .map(Measurement::algorithm).orElse(AES_GCM);
+        }
+
+        /** Compact form for preferences: host|time|algorithm,provider,MB/s;... */
+        public String encode() {
+            StringBuilder encoded = new StringBuilder(host).append('|').append(measuredAtMillis).append('|');
+            for (Measurement m : measurements) {
+                encoded.append(m.algorithm()).append(',').append(m.provider()).append(',')
+                        .append(String.format(Locale.ROOT, "%.1f", m.megabytesPerSecond())).append(';');
+            }
+            return encoded.toString();
+        }
+
+        public static Optional<Calibration> decode(String encoded) {
+            try {
+                String[] parts = encoded.split("\\|", -1);
+                List<Measurement> measurements = new ArrayList<>();
+                for (String entry : parts[2].split(";")) {
+                    if (entry.isEmpty()) continue;
+                    String[] fields = entry.split(",");
+                    measurements.add(new Measurement(fields[0], fields[1], Double.parseDouble(fields[2])));
+                }
+                return Optional.of(new Calibration(parts[0], Long.parseLong(parts[1]), List.copyOf(measurements), true));
+            } catch (RuntimeException e) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    private CipherRegistry() {
+    }
+
+    /**
+     * Identifies the host and runtime a calibration is valid for: the same home directory may be
+     * shared by machines with different CPUs or JVMs.
+     */
+    public static String hostKey() {
+        String name = System.getenv("HOSTNAME");
+        if (name == null) name = System.getenv("COMPUTERNAME");
+        if (name == null) {
+            try {
+                name = InetAddress.getLocalHost().getHostName();
+            } catch (Exception e) {
+                name = "unknown";
+            }
+        }
+        return name + "/" + System.getProperty("os.arch") + "/" + System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.vm.version");
+    }
+
+    /** Resolves a provider name recorded by a calibration; null stands for the platform default. */
+    public static Provider provider(String name) {
+        if (name == null || name.equals(DEFAULT_PROVIDER)) return null;
+        if (name.equals(BouncyCastleProvider.PROVIDER_NAME)) return bouncyCastle();
+        return Security.getProvider(name);
+    }
+
+    private static synchronized Provider bouncyCastle() {
+        if (bouncyCastle == null) bouncyCastle = new BouncyCastleProvider();
+        return bouncyCastle;
+    }
+
+    /**
+     * Measures every provider of every supported AEAD on the calling thread, one after the other;
+     * each takes from {@link #MIN_WARMUP_NANOS} to {@link #MAX_WARMUP_NANOS}.
+     */
+    public static Calibration calibrate() {
+        List<Provider> providers = new ArrayList<>(List.of(Security.getProviders()));
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) providers.add(bouncyCastle());
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (String algorithm : ALGORITHMS) {
+            for (Provider provider : providers) {
+                try {
+                    candidates.add(new Candidate(algorithm, provider));
+                } catch (GeneralSecurityException e) {
+                    // The provider does not offer this algorithm.
+                }
+            }
+        }
+
+        List<Measurement> measurements = new ArrayList<>();
+        boolean settled = true;
+        for (Candidate candidate : candidates) {
+            try {
+                if (!candidate.warmUp()) {
+                    logger.info("Leaving out {} on {}: its throughput did not settle.", candidate.algorithm, candidate.provider.getName());
+                    settled = false;
+                    continue;
+                }
+            } catch (GeneralSecurityException | RuntimeException e) {
+                logger.debug("Skipping {} on {}: {}", candidate.algorithm, candidate.provider.getName(), e.toString());
+                continue;
+            }
+            measurements.add(new Measurement(candidate.algorithm, candidate.provider.getName(), candidate.megabytesPerSecond));
+            logger.debug("{} on {}: {} MB/s", candidate.algorithm, candidate.provider.getName(),
+                    String.format(Locale.ROOT, "%.0f", candidate.megabytesPerSecond));
+        }
+        Calibration calibration = new Calibration(hostKey(), System.currentTimeMillis(), List.copyOf(measurements), settled);
+        logger.info("Cipher calibration: AES-GCM on {}, preferred algorithm {}{}.",
+                calibration.preferred(AES_GCM).map(Measurement::provider).orElse("none"), calibration.preferredAlgorithm(),
+                settled ? "" : " (not settled, will not be cached)");
+        return calibration;
+    }
+
+    /** One algorithm on one provider, with its own key, buffers and nonce counter. */
+    private static final class Candidate {
+        final String algorithm;
+        final Provider provider;
+        final Cipher cipher;
+        final SecretKeySpec key;
+        // Direct buffers, as in the engine; some providers are much slower on heap buffers.
+        final ByteBuffer plaintext = ByteBuffer.allocateDirect(SAMPLE_SIZE);
+        final ByteBuffer sealed = ByteBuffer.allocateDirect(SAMPLE_SIZE + SegmentCipher.TAG_LENGTH_BYTES);
+        final byte[] nonce = new byte[12];
+        long counter;
+        double megabytesPerSecond;
+
+        Candidate(String algorithm, Provider provider) throws GeneralSecurityException {
+            this.algorithm = algorithm;
+            this.provider = provider;
+            this.cipher = Cipher.getInstance(algorithm, provider);
+            this.key = new SecretKeySpec(KeySession.generateRandomBytes(32), algorithm.startsWith("AES") ? "AES" : "ChaCha20");
+        }
+
+        /**
+         * Runs windows until the smoothed throughput has gone without a significant gain for as long
+         * as it took to reach it, and keeps that throughput; false if that does not happen within
+         * {@link #MAX_WARMUP_NANOS}. The plateau has to outlast the ramp, so a pause between two
+         * JIT tiers is not mistaken for the compiled speed.
+         */
+        boolean warmUp() throws GeneralSecurityException {
+            long started = System.nanoTime();
+            double[] recent = new double[SMOOTHING_WINDOWS];
+            int windows = 0;
+            double reached = 0;
+            long reachedAt = started;
+            long now;
+            do {
+                recent[windows++ % SMOOTHING_WINDOWS] = runWindow();
+                now = System.nanoTime();
+                if (windows < SMOOTHING_WINDOWS) continue;
+                double smoothed = 0;
+                for (double rate : recent) smoothed += rate / SMOOTHING_WINDOWS;
+                if (smoothed > reached * (1 + SIGNIFICANT_GAIN)) {
+                    reached = smoothed;
+                    reachedAt = now;
+                } else if (now - started >= MIN_WARMUP_NANOS && now - reachedAt >= reachedAt - started) {
+                    megabytesPerSecond = smoothed;
+                    return true;
+                }
+            } while (now - started < MAX_WARMUP_NANOS);
+            return false;
+        }
+
+        /** Throughput of one window, in MB/s. */
+        double runWindow() throws GeneralSecurityException {
+            long windowStart = System.nanoTime();
+            long bytes = 0;
+            long now;
+            do {
+                // A fresh nonce per sample, as the providers refuse to encrypt twice under the same one.
+                ByteBuffer.wrap(nonce).putLong(4, ++counter);
+                AlgorithmParameterSpec parameters = algorithm.equals(AES_GCM)
+                        ? new GCMParameterSpec(SegmentCipher.TAG_LENGTH_BYTES * 8, nonce) : new IvParameterSpec(nonce);
+                cipher.init(Cipher.ENCRYPT_MODE, key, parameters);
+                cipher.doFinal(plaintext.clear(), sealed.clear());
+                bytes += SAMPLE_SIZE;
+                now = System.nanoTime();
+            } while (now - windowStart < WINDOW_NANOS);
+            return bytes / 1e6 / ((now - windowStart) / 1e9);
+        }
+    }
+}
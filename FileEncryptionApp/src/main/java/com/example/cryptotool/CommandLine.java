@@ -0,0 +1,642 @@
+package com.example.cryptotool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Headless entry point: {@code file-crypter-pro encrypt|decrypt|list [options] PATH...},
+ * {@code file-crypter-pro watch [options] DIR} or {@code file-crypter-pro calibrate}.
+ * <p>
+ * Paths may be files, directory trees or glob patterns (quoted, so the shell does not expand them).
+ * Per-file results go to stderr; a single JSON line with throughput figures goes to stdout so cron
+ * jobs and scripts can parse it. This class must not touch JavaFX, so short invocations stay fast.
+ */
+public class CommandLine {
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final int EXIT_CANCELLED = 130;
+    private static final Duration METRICS_LOG_INTERVAL = Duration.ofMinutes(1);
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: file-crypter-pro encrypt|decrypt|list [options] PATH...",
+            "       file-crypter-pro watch [options] DIR",
+            "       file-crypter-pro calibrate",
+            "",
+            "PATH may be a file, a directory (processed recursively) or a quoted glob such as 'logs/**/*.log'.",
+            "Decrypting an archive extracts it into a new directory; 'list' prints the contents of archives.",
+            "'watch' encrypts files arriving in DIR until interrupted, with the encrypt options; a JSON line per batch goes to stdout.",
+            "'calibrate' warms up and measures the cipher providers of this host, which takes several seconds, and remembers the result.",
+            "",
+            "Options:",
+            "  --password-stdin       read the password from the first line of standard input",
+            "  --password-fd N        read the password from file descriptor N",
+            "  --password-file FILE   read the password from the first line of FILE",
+            "  --key-file FILE        use FILE as an additional key file",
+            "  -j, --jobs N           number of files processed concurrently (default: CPU count)",
+            "  --output-dir DIR       encrypt, decrypt: write outputs under DIR, keeping their folders, instead of next to the inputs",
+            "  --device-jobs DEV=N    files processed at once on storage device DEV, e.g. /dev/sdb1=2 (repeatable;",
+            "                         default: 1 on rotational disks, --jobs on others)",
+            "  --buffer-mb N          direct-buffer budget of the crypto engine in MiB (default: 64)",
+            "  --archive              encrypt: pack each directory PATH into one encrypted archive",
+            "  --entry NAME           decrypt: extract only this archive entry (repeatable)",
+            "  --verify-only          decrypt: authenticate files without writing plaintext",
+            "  --compress LEVEL       encrypt: deflate compressible files first, 1 (fast) to 9 (small); 0 disables",
+            "  --incremental          encrypt: keep chunks in NAME.enc.chunks and rewrite only the changed ones",
+            "  --algorithm NAME       encrypt: aes-gcm, chacha20-poly1305 or auto, the fastest measured (default: settings)",
+            "  --secure-delete        encrypt: overwrite and delete each input after encryption",
+            "  --quiet-seconds N      watch: encrypt a file once it has not changed for N seconds (default: 2)",
+            "  --shred-passes LIST    overwrite passes for --secure-delete, e.g. zeros,ones,random (default: random)",
+            "  --dry-run              list what would be processed and exit",
+            "  -v, --verbose          log engine details to stderr",
+            "  -h, --help             show this help");
+
+    private String command;
+    private final List<String> paths = new ArrayList<>();
+    private String passwordSource;
+    private String passwordArgument;
+    private File keyFile;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private File outputDirectory;
+    private final Map<String, Integer> deviceJobs = new LinkedHashMap<>();
+    private long bufferBudgetBytes = CryptoService.DEFAULT_BUFFER_BUDGET_BYTES;
+    private boolean archive;
+    private final List<String> entryPaths = new ArrayList<>();
+    private boolean verifyOnly;
+    private int compressionLevel = SegmentCompressor.NO_COMPRESSION;
+    private boolean incremental;
+    private String algorithm;
+    private boolean secureDelete;
+    private long quietMillis = FolderWatcher.DEFAULT_QUIET_MILLIS;
+    private List<Shredder.Pass> shredPasses = Shredder.SINGLE_PASS;
+    private boolean dryRun;
+    private boolean verbose;
+
+    /** True if the arguments ask for the command-line mode rather than the UI. */
+    public static boolean isCommand(String[] args) {
+        if (args.length == 0) return false;
+        String first = args[0];
+        return first.equals("encrypt") || first.equals("decrypt") || first.equals("list") || first.equals("watch") || first.equals("calibrate")
+                || first.equals("-h") || first.equals("--help");
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        // Before anything can create a logger: option defaults and parsing already load engine classes.
+        if (!Arrays.asList(args).contains("-v") && !Arrays.asList(args).contains("--verbose")) {
+            System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        }
+        CommandLine commandLine = new CommandLine();
+        try {
+            if (!commandLine.parse(args)) {
+                out.println(USAGE);
+                return EXIT_OK;
+            }
+        } catch (IllegalArgumentException e) {
+            err.println("error: " + e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        try {
+            return commandLine.execute(out, err);
+        } catch (IOException | IllegalArgumentException e) {
+            err.println("error: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+    }
+
+    /** Returns false if only help was requested. */
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-h", "--help" -> { return false; }
+                case "--password-stdin" -> setPasswordSource(arg, null);
+                case "--password-fd", "--password-file" -> setPasswordSource(arg, value(args, ++i, arg));
+                case "--key-file" -> keyFile = new File(value(args, ++i, arg));
+                case "-j", "--jobs" -> jobs = positiveInt(value(args, ++i, arg), arg);
+                case "--output-dir" -> outputDirectory = new File(value(args, ++i, arg));
+                case "--device-jobs" -> deviceJobs.putAll(AppSettings.parseDeviceConcurrency(value(args, ++i, arg)));
+                case "--buffer-mb" -> bufferBudgetBytes = positiveInt(value(args, ++i, arg), arg) * 1024L * 1024;
+                case "--archive" -> archive = true;
+                case "--entry" -> entryPaths.add(value(args, ++i, arg));
+                case "--verify-only" -> verifyOnly = true;
+                case "--compress" -> compressionLevel = compressionLevel(value(args, ++i, arg), arg);
+                case "--incremental" -> incremental = true;
+                case "--algorithm" -> algorithm = algorithm(value(args, ++i, arg), arg);
+                case "--secure-delete" -> secureDelete = true;
+                case "--quiet-seconds" -> quietMillis = positiveInt(value(args, ++i, arg), arg) * 1000L;
+                case "--shred-passes" -> shredPasses = Shredder.parsePasses(value(args, ++i, arg));
+                case "--dry-run" -> dryRun = true;
+                case "-v", "--verbose" -> verbose = true;
+                default -> {
+                    if (arg.startsWith("-") && !arg.equals("-")) throw new IllegalArgumentException("unknown option " + arg);
+                    if (command == null) command = arg;
+                    else paths.add(arg);
+                }
+            }
+        }
+        if (command == null || !(command.equals("encrypt") || command.equals("decrypt") || command.equals("list")
+                || command.equals("watch") || command.equals("calibrate"))) {
+            throw new IllegalArgumentException("expected 'encrypt', 'decrypt', 'list', 'watch' or 'calibrate'");
+        }
+        if (command.equals("calibrate")) {
+            if (!paths.isEmpty()) throw new IllegalArgumentException("calibrate takes no paths");
+            return true;
+        }
+        if (paths.isEmpty()) throw new IllegalArgumentException("no input paths given");
+        if (command.equals("watch") && (paths.size() != 1 || dryRun)) throw new IllegalArgumentException("watch takes exactly one directory");
+        if (quietMillis != FolderWatcher.DEFAULT_QUIET_MILLIS && !command.equals("watch")) {
+            throw new IllegalArgumentException("--quiet-seconds only applies to watch");
+        }
+        if (verifyOnly && !command.equals("decrypt")) throw new IllegalArgumentException("--verify-only only applies to decrypt");
+        if (archive && !command.equals("encrypt")) throw new IllegalArgumentException("--archive only applies to encrypt");
+        if (!entryPaths.isEmpty() && (!command.equals("decrypt") || verifyOnly)) {
+            throw new IllegalArgumentException("--entry only applies to decrypt");
+        }
+        if (outputDirectory != null && (verifyOnly || !(command.equals("encrypt") || command.equals("decrypt")))) {
+            throw new IllegalArgumentException("--output-dir only applies to encrypt and decrypt");
+        }
+        if (!deviceJobs.isEmpty() && (verifyOnly || !(command.equals("encrypt") || command.equals("decrypt")))) {
+            throw new IllegalArgumentException("--device-jobs only applies to encrypt and decrypt");
+        }
+        if (incremental && !encrypts()) throw new IllegalArgumentException("--incremental only applies to encrypt and watch");
+        if (algorithm != null && !encrypts()) throw new IllegalArgumentException("--algorithm only applies to encrypt and watch");
+        if (secureDelete && !encrypts()) throw new IllegalArgumentException("--secure-delete only applies to encrypt and watch");
+        if (compressionLevel != SegmentCompressor.NO_COMPRESSION && !encrypts()) {
+            throw new IllegalArgumentException("--compress only applies to encrypt and watch");
+        }
+        return true;
+    }
+
+    private boolean encrypts() {
+        return command.equals("encrypt") || command.equals("watch");
+    }
+
+    private void setPasswordSource(String source, String argument) {
+        if (passwordSource != null) throw new IllegalArgumentException("only one password source may be given");
+        passwordSource = source;
+        passwordArgument = argument;
+    }
+
+    private int execute(PrintStream out, PrintStream err) throws IOException {
+        if (command.equals("calibrate")) return calibrate(out);
+        if (command.equals("watch")) return watch(out, err);
+        boolean encrypting = command.equals("encrypt");
+        List<File> files = collectInputs(paths, encrypting, archive);
+        if (files.isEmpty()) {
+            err.println("error: no input files matched");
+            return EXIT_FAILED;
+        }
+        List<File> roots = inputRoots(paths);
+
+        if (dryRun) {
+            long totalBytes = 0;
+            for (File file : files) {
+                totalBytes += file.length();
+                out.println(verifyOnly || command.equals("list") ? (verifyOnly ? "verify " : "list ") + file.getPath()
+                        : file.getPath() + " -> " + CryptoService.outputFileFor(file, encrypting, outputDirectory, roots).getPath());
+            }
+            out.printf(Locale.ROOT, "{\"dry_run\":true,\"files\":%d,\"bytes\":%d}%n", files.size(), totalBytes);
+            return EXIT_OK;
+        }
+
+        char[] password = readPassword();
+        if (password == null || password.length == 0) {
+            err.println("error: no password given (use --password-stdin, --password-fd or --password-file)");
+            return EXIT_USAGE;
+        }
+        if (command.equals("list") || !entryPaths.isEmpty()) {
+            return listOrExtractEntries(files, password, out, err);
+        }
+
+        AtomicBoolean cancellationFlag = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            cancellationFlag.set(true);
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "cli-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        String operation = verifyOnly ? "verify" : command;
+        BatchExecutor executor = new BatchExecutor(jobs);
+        Map<String, Integer> deviceConcurrency = new LinkedHashMap<>(new AppSettings().getDeviceConcurrency());
+        deviceConcurrency.putAll(deviceJobs);
+        executor.setStorageDevices(new StorageDevices(deviceConcurrency));
+        BatchJournal journal = verifyOnly ? null : BatchJournal.open(command, files);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong bytesProcessed = new AtomicLong();
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            File file = files.get(i);
+            sizes[i] = file.isDirectory() ? EncryptedArchive.treeSize(file) : file.length();
+        }
+        long kdfNanos = 0;
+        long started = System.nanoTime();
+
+        BatchJob.Mode mode = encrypting ? BatchJob.Mode.ENCRYPT : BatchJob.Mode.DECRYPT;
+        int skipped = 0;
+        CryptoService cryptoService = newCryptoService();
+        try (KeySession session = new KeySession(password, keyFile);
+             Shredder shredder = secureDelete ? new Shredder(executor.getConcurrency(), shredPasses) : null) {
+            Arrays.fill(password, '\0');
+            if (verifyOnly) {
+                VerificationReport report = cryptoService.verify(session, files, jobs, cancellationFlag, new ProgressChannel());
+                printVerification(report, session.getKdfNanos(), out, err);
+                if (report.count(VerificationReport.Status.FAILED) > 0) return EXIT_FAILED;
+                return cancellationFlag.get() ? EXIT_CANCELLED : EXIT_OK;
+            }
+            BatchJob job = new BatchJob(cryptoService, session, mode, journal, shredder);
+            job.setOutputDirectory(outputDirectory, roots);
+            job.setShredListener((file, error) -> {
+                if (error != null) {
+                    failed.incrementAndGet();
+                    err.println("failed " + file.getPath() + ": " + error.getMessage());
+                }
+            });
+            try {
+                executor.run(files, job, cancellationFlag, new BatchExecutor.Listener() {
+                    @Override
+                    public void onFileFinished(int index, File file, BatchExecutor.Outcome outcome, Exception error) {
+                        switch (outcome) {
+                            case SUCCESS -> {
+                                succeeded.incrementAndGet();
+                                if (!job.isSkipped(file)) bytesProcessed.addAndGet(sizes[index]);
+                                if (verbose) err.println("ok " + file.getPath());
+                            }
+                            case CANCELLED -> err.println("cancelled " + file.getPath());
+                            case FAILED -> {
+                                failed.incrementAndGet();
+                                err.println("failed " + file.getPath() + ": " + error.getMessage());
+                            }
+                        }
+                    }
+                });
+                job.awaitShredding();
+            } catch (Exception e) {
+                // Already reported per file by the listeners.
+            }
+            if (journal != null && failed.get() == 0 && !cancellationFlag.get()) journal.delete();
+            kdfNanos = session.getKdfNanos();
+            skipped = job.skippedCount();
+        } finally {
+            // Every exit, including verification and failures, unregisters the MBean and stops the summary log.
+            cryptoService.getMetrics().close();
+            finished.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down; the hook is running.
+            }
+        }
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        PipelineStats stats = cryptoService.getPipelineStats();
+        EngineMetrics metrics = cryptoService.getMetrics();
+        int processed = succeeded.get() - skipped;
+        out.printf(Locale.ROOT,
+                "{\"operation\":\"%s\",\"files\":%d,\"succeeded\":%d,\"skipped\":%d,\"failed\":%d,\"cancelled\":%b,\"bytes\":%d,"
+                        + "\"seconds\":%.3f,\"files_per_second\":%.2f,\"mb_per_second\":%.2f,"
+                        + "\"kdf_seconds\":%.3f,\"io_seconds\":%.3f,\"cipher_seconds\":%.3f,"
+                        + "\"file_ms_p50\":%d,\"file_ms_p95\":%d,\"file_ms_p99\":%d}%n",
+                operation, files.size(), succeeded.get(), skipped, failed.get(), cancellationFlag.get(), bytesProcessed.get(),
+                seconds, processed / Math.max(seconds, 1e-9), bytesProcessed.get() / 1e6 / Math.max(seconds, 1e-9),
+                kdfNanos / 1e9, (stats.getReadNanos() + stats.getWriteNanos()) / 1e9, stats.getCipherNanos() / 1e9,
+                metrics.getFileMillisP50(), metrics.getFileMillisP95(), metrics.getFileMillisP99());
+        if (verbose) err.println("metrics " + metrics.getSummary());
+
+        if (failed.get() > 0) return EXIT_FAILED;
+        return cancellationFlag.get() ? EXIT_CANCELLED : EXIT_OK;
+    }
+
+    private CryptoService newCryptoService() {
+        CryptoService cryptoService = new CryptoService(Runtime.getRuntime().availableProcessors(), bufferBudgetBytes);
+        cryptoService.setCompressionLevel(compressionLevel);
+        cryptoService.setIncremental(incremental);
+        AppSettings settings = new AppSettings();
+        settings.configureCiphers(cryptoService);
+        if (algorithm != null) cryptoService.setAlgorithm(settings.resolveCipherAlgorithm(algorithm));
+        cryptoService.getMetrics().register("cli-" + command);
+        cryptoService.getMetrics().startSummaryLog(METRICS_LOG_INTERVAL);
+        return cryptoService;
+    }
+
+    /**
+     * Encrypts files arriving in the watched directory until the process is interrupted; files in
+     * flight then stop at a segment boundary and resume from their checkpoint on the next start.
+     */
+    private int watch(PrintStream out, PrintStream err) throws IOException {
+        Path directory = Path.of(paths.get(0)).toAbsolutePath().normalize();
+        if (!Files.isDirectory(directory)) {
+            err.println("error: not a directory: " + directory);
+            return EXIT_USAGE;
+        }
+        char[] password = readPassword();
+        if (password == null || password.length == 0) {
+            err.println("error: no password given (use --password-stdin, --password-fd or --password-file)");
+            return EXIT_USAGE;
+        }
+
+        AtomicBoolean cancellationFlag = new AtomicBoolean();
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            cancellationFlag.set(true);
+            interrupted.countDown();
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "cli-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        FolderWatcher.Listener listener = new FolderWatcher.Listener() {
+            @Override
+            public void onFileEncrypted(File file) {
+                if (verbose) err.println("ok " + file.getPath());
+            }
+
+            @Override
+            public void onFileFailed(File file, Exception error) {
+                err.println("failed " + file.getPath() + ": " + error.getMessage());
+            }
+
+            @Override
+            public void onBatchFinished(int batch, int succeeded, int failed, long bytes, double seconds, FolderWatcher.Status status) {
+                out.printf(Locale.ROOT,
+                        "{\"operation\":\"watch\",\"batch\":%d,\"succeeded\":%d,\"failed\":%d,\"bytes\":%d,\"seconds\":%.3f,"
+                                + "\"mb_per_second\":%.2f,\"queue_depth\":%d,\"pending\":%d,\"queued\":%d,\"active\":%d}%n",
+                        batch, succeeded, failed, bytes, seconds, bytes / 1e6 / Math.max(seconds, 1e-9),
+                        status.queueDepth(), status.pending(), status.queued(), status.active());
+                out.flush();
+            }
+        };
+        CryptoService cryptoService = newCryptoService();
+        try (Shredder shredder = secureDelete ? new Shredder(jobs, shredPasses) : null) {
+            FolderWatcher watcher = new FolderWatcher(directory, cryptoService, password, keyFile, jobs, shredder, cancellationFlag, listener);
+            Arrays.fill(password, '\0');
+            watcher.setQuietMillis(quietMillis);
+            watcher.start();
+            err.println("watching " + directory + " (interrupt to stop)");
+            interrupted.await();
+            watcher.close();
+            FolderWatcher.Status status = watcher.status();
+            err.println("stopped: " + status.encrypted() + " encrypted, " + status.failed() + " failed");
+            return status.failed() > 0 ? EXIT_FAILED : EXIT_CANCELLED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_CANCELLED;
+        } finally {
+            cryptoService.getMetrics().close();
+            finished.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down; the hook is running.
+            }
+        }
+    }
+
+    /** Prints one line per failed file (and per passed file when verbose), then the report as JSON. */
+    private void printVerification(VerificationReport report, long kdfNanos, PrintStream out, PrintStream err) {
+        for (VerificationReport.FileResult result : report.getResults()) {
+            switch (result.status()) {
+                case PASSED -> { if (verbose) err.println("ok " + result.file().getPath()); }
+                case CANCELLED -> err.println("cancelled " + result.file().getPath());
+                case FAILED -> err.println("failed " + result.file().getPath() + ": " + result.error());
+            }
+        }
+        StringBuilder failures = new StringBuilder();
+        for (VerificationReport.FileResult failure : report.getFailures()) {
+            failures.append(failures.length() == 0 ? "" : ",").append("{\"file\":\"").append(jsonString(failure.file().getPath()))
+                    .append("\",\"error\":\"").append(jsonString(String.valueOf(failure.error()))).append("\"}");
+        }
+        int cancelled = report.count(VerificationReport.Status.CANCELLED);
+        out.printf(Locale.ROOT,
+                "{\"operation\":\"verify\",\"files\":%d,\"succeeded\":%d,\"skipped\":0,\"failed\":%d,\"cancelled\":%b,\"bytes\":%d,"
+                        + "\"seconds\":%.3f,\"files_per_second\":%.2f,\"mb_per_second\":%.2f,\"kdf_seconds\":%.3f,\"failures\":[%s]}%n",
+                report.getResults().size(), report.count(VerificationReport.Status.PASSED), report.count(VerificationReport.Status.FAILED),
+                cancelled > 0, report.getBytesVerified(), report.getSeconds(), report.getFilesPerSecond(), report.getMegabytesPerSecond(),
+                kdfNanos / 1e9, failures);
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> escaped.append("\\\"");
+                case '\\' -> escaped.append("\\\\");
+                default -> {
+                    if (c < 0x20) escaped.append(String.format("\\u%04x", (int) c));
+                    else escaped.append(c);
+                }
+            }
+        }
+        return escaped.toString();
+    }
+
+    /** Measures the cipher providers, stores the result for later runs and prints it as JSON. */
+    private int calibrate(PrintStream out) {
+        CipherRegistry.Calibration calibration = CipherRegistry.calibrate();
+        new AppSettings().setCipherCalibration(calibration);
+        StringBuilder json = new StringBuilder("{\"host\":\"").append(calibration.host().replace("\"", "'")).append("\",\"measurements\":[");
+        for (int i = 0; i < calibration.measurements().size(); i++) {
+            CipherRegistry.Measurement m = calibration.measurements().get(i);
+            json.append(i == 0 ? "" : ",").append(String.format(Locale.ROOT, "{\"algorithm\":\"%s\",\"provider\":\"%s\",\"mb_per_second\":%.1f}",
+                    m.algorithm(), m.provider(), m.megabytesPerSecond()));
+        }
+        json.append("],\"aes_gcm_provider\":\"").append(calibration.preferred(CipherRegistry.AES_GCM).map(CipherRegistry.Measurement::provider).orElse("none"))
+                .append("\",\"preferred_algorithm\":\"").append(calibration.preferredAlgorithm())
+                .append("\",\"settled\":").append(calibration.settled()).append('}');
+        out.println(json);
+        return EXIT_OK;
+    }
+
+    /** Lists archives, or extracts the {@code --entry} names from them; only the segments involved are decrypted. */
+    private int listOrExtractEntries(List<File> archives, char[] password, PrintStream out, PrintStream err) {
+        CryptoService cryptoService = new CryptoService(1, bufferBudgetBytes);
+        int failed = 0;
+        try (KeySession session = new KeySession(password, keyFile)) {
+            Arrays.fill(password, '\0');
+            for (File archiveFile : archives) {
+                try {
+                    if (command.equals("list")) {
+                        String prefix = archives.size() > 1 ? archiveFile.getPath() + ":" : "";
+                        for (EncryptedArchive.Entry entry : cryptoService.listArchive(session, archiveFile)) {
+                            out.printf(Locale.ROOT, "%12d  %s  %s%s%s%n", entry.size(), Instant.ofEpochMilli(entry.lastModified()),
+                                    prefix, entry.path(), entry.directory() ? "/" : "");
+                        }
+                    } else {
+                        File target = CryptoService.outputFileFor(archiveFile, false, outputDirectory, inputRoots(paths));
+                        cryptoService.extractArchiveEntries(session, archiveFile, entryPaths, target);
+                        if (verbose) err.println("ok " + archiveFile.getPath() + " -> " + target.getPath());
+                    }
+                } catch (CryptoException e) {
+                    failed++;
+                    err.println("failed " + archiveFile.getPath() + ": " + e.getMessage());
+                }
+            }
+        }
+        return failed > 0 ? EXIT_FAILED : EXIT_OK;
+    }
+
+    private char[] readPassword() throws IOException {
+        if (passwordSource == null) {
+            return System.console() != null ? System.console().readPassword("Password: ") : null;
+        }
+        Path source = switch (passwordSource) {
+            case "--password-fd" -> Paths.get("/dev/fd", Integer.toString(positiveOrZeroInt(passwordArgument, passwordSource)));
+            case "--password-file" -> Paths.get(passwordArgument);
+            default -> null;
+        };
+        BufferedReader reader = source == null
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(source, StandardCharsets.UTF_8);
+        try (reader) {
+            String line = reader.readLine();
+            return line == null ? null : line.toCharArray();
+        }
+    }
+
+    /**
+     * Expands files, directory trees and glob patterns into a sorted list without duplicates. Directory
+     * walks pick {@code .enc} files when decrypting and skip them (and checkpoints and chunk stores)
+     * when encrypting.
+     * With {@code archiveDirectories} a directory argument stays a single input.
+     */
+    static List<File> collectInputs(List<String> arguments, boolean encrypting, boolean archiveDirectories) throws IOException {
+        Set<Path> collected = new LinkedHashSet<>();
+        for (String argument : arguments) {
+            Path path = Paths.get(argument);
+            if (!isGlob(argument) && Files.isRegularFile(path)) {
+                collected.add(path.toAbsolutePath().normalize());
+            } else if (!isGlob(argument) && Files.isDirectory(path) && archiveDirectories) {
+                collected.add(path.toAbsolutePath().normalize());
+            } else if (!isGlob(argument) && Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    walk.filter(Files::isRegularFile).filter(p -> CryptoService.isCandidate(p, encrypting))
+                            .forEach(p -> collected.add(p.toAbsolutePath().normalize()));
+                }
+            } else if (isGlob(argument)) {
+                collectGlob(argument, collected);
+            } else {
+                throw new IllegalArgumentException("no such file or directory: " + argument);
+            }
+        }
+        List<File> files = new ArrayList<>(collected.size());
+        collected.stream().sorted().forEach(p -> files.add(p.toFile()));
+        return files;
+    }
+
+    /** Paths outputs keep their layout relative to: each argument, or the fixed directory a glob starts from. */
+    static List<File> inputRoots(List<String> arguments) {
+        List<File> roots = new ArrayList<>(arguments.size());
+        for (String argument : arguments) {
+            String normalized = argument.replace(File.separatorChar, '/');
+            if (isGlob(normalized)) {
+                int baseEnd = normalized.lastIndexOf('/', indexOfGlob(normalized));
+                roots.add(new File(baseEnd < 0 ? "" : baseEnd == 0 ? "/" : normalized.substring(0, baseEnd)).getAbsoluteFile());
+            } else {
+                roots.add(new File(argument).getAbsoluteFile());
+            }
+        }
+        return roots;
+    }
+
+    private static void collectGlob(String pattern, Set<Path> collected) throws IOException {
+        String normalized = pattern.replace(File.separatorChar, '/');
+        int firstGlob = indexOfGlob(normalized);
+        int baseEnd = normalized.lastIndexOf('/', firstGlob);
+        Path base = baseEnd < 0 ? Paths.get("") : Paths.get(baseEnd == 0 ? "/" : normalized.substring(0, baseEnd));
+        String relativePattern = normalized.substring(baseEnd + 1);
+        if (!Files.isDirectory(base.toAbsolutePath())) return;
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+        int maxDepth = relativePattern.contains("**") ? Integer.MAX_VALUE : relativePattern.split("/").length;
+        Path root = base.toAbsolutePath();
+        try (Stream<Path> walk = Files.walk(root, maxDepth)) {
+            walk.filter(Files::isRegularFile).filter(p -> matcher.matches(root.relativize(p)))
+                    .forEach(p -> collected.add(p.normalize()));
+        }
+    }
+
+    private static boolean isGlob(String argument) {
+        return indexOfGlob(argument) >= 0;
+    }
+
+    private static int indexOfGlob(String argument) {
+        for (int i = 0; i < argument.length(); i++) {
+            if ("*?[{".indexOf(argument.charAt(i)) >= 0) return i;
+        }
+        return -1;
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) throw new IllegalArgumentException(option + " needs a value");
+        return args[index];
+    }
+
+    private static String algorithm(String value, String option) {
+        return switch (value.toLowerCase(Locale.ROOT)) {
+            case "aes-gcm", "aes-256-gcm" -> CipherRegistry.AES_GCM;
+            case "chacha20-poly1305", "chacha20" -> CipherRegistry.CHACHA20_POLY1305;
+            case "auto" -> AppSettings.AUTO_ALGORITHM;
+            default -> throw new IllegalArgumentException(option + " must be aes-gcm, chacha20-poly1305 or auto");
+        };
+    }
+
+    private static int compressionLevel(String value, String option) {
+        int level = positiveOrZeroInt(value, option);
+        if (level > 9) throw new IllegalArgumentException(option + " must be between 0 and 9");
+        return level;
+    }
+
+    private static int positiveInt(String value, String option) {
+        int parsed = positiveOrZeroInt(value, option);
+        if (parsed < 1) throw new IllegalArgumentException(option + " must be at least 1");
+        return parsed;
+    }
+
+    private static int positiveOrZeroInt(String value, String option) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 0) throw new IllegalArgumentException(option + " must not be negative");
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " expects a number, got '" + value + "'");
+        }
+    }
+}
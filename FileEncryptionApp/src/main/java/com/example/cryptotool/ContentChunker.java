@@ -0,0 +1,43 @@
+package com.example.cryptotool;
+
+import java.util.SplittableRandom;
+
+/**
+ * Content-defined chunking with a gear rolling hash.
+ * <p>
+ * A cut is placed where the top bits of the rolling hash are all zero, so boundaries depend only on
+ * the last 64 bytes of content rather than on file offsets: inserting or removing data moves the
+ * chunks around the edit but leaves every other chunk byte-for-byte the same. The gear table is
+ * seeded per chunk store, so chunk boundaries do not reveal a fingerprint of the plaintext.
+ */
+public class ContentChunker {
+    public static final int MIN_CHUNK_SIZE = 256 * 1024;
+    public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    /** Twenty hash bits must be zero: about one cut per MiB past the minimum chunk size. */
+    private static final long CUT_MASK = 0xFFFFF000_00000000L;
+
+    private final long[] gear = new long[256];
+
+    public ContentChunker(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < gear.length; i++) {
+            gear[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Returns the length of the chunk starting at {@code offset}. The caller must supply at least
+     * {@link #MAX_CHUNK_SIZE} bytes unless the input ends within {@code available} bytes.
+     */
+    public int cut(byte[] data, int offset, int available) {
+        int limit = Math.min(available, MAX_CHUNK_SIZE);
+        if (limit <= MIN_CHUNK_SIZE) return limit;
+        long hash = 0;
+        // Only the last 64 bytes influence the hash, so start rolling just before the minimum size.
+        for (int i = offset + MIN_CHUNK_SIZE - Long.SIZE, end = offset + limit; i < end; i++) {
+            hash = (hash << 1) + gear[data[i] & 0xFF];
+            if ((hash & CUT_MASK) == 0 && i >= offset + MIN_CHUNK_SIZE) return i + 1 - offset;
+        }
+        return limit;
+    }
+}
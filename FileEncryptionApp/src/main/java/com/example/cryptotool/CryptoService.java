@@ -1,131 +1,962 @@
 package com.example.cryptotool;
 
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.GCMModeCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
-import java.security.spec.KeySpec;
+import java.security.Provider;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 public class CryptoService {
     private static final Logger logger = LoggerFactory.getLogger(CryptoService.class);
-    private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
-    private static final String TRANSFORMATION_STRING = "AES/GCM/NoPadding";
     private static final int SALT_LENGTH_BYTES = 16;
     private static final int IV_LENGTH_BYTES = 12;
-    private static final int KEY_LENGTH_BITS = 256;
-    private static final int ITERATION_COUNT = 65536;
     private static final int GCM_TAG_LENGTH_BITS = 128;
+    private static final int GCM_BLOCK_SIZE_BYTES = 16;
+    private static final int MIN_LEGACY_CHUNK_SIZE = 8 * 1024;
+    private static final int MAX_LEGACY_CHUNK_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final int MIN_SEGMENT_SIZE = 4 * 1024;
+    public static final long DEFAULT_BUFFER_BUDGET_BYTES = 64L * 1024 * 1024;
 
-    public void encrypt(char[] password, File keyFile, File inputFile, File outputFile, AtomicBoolean cancellationFlag, BiConsumer<Long, Long> progressUpdater) throws CryptoException {
-        process(Cipher.ENCRYPT_MODE, password, keyFile, inputFile, outputFile, cancellationFlag, progressUpdater);
+    private final int parallelism;
+    private final long bufferBudgetBytes;
+    private long checkpointIntervalBytes = JobCheckpoint.DEFAULT_INTERVAL_BYTES;
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private int algorithm = FileHeader.ALGORITHM_AES_256_GCM;
+    private final Map<Integer, Provider> cipherProviders = new ConcurrentHashMap<>();
+    private int compressionLevel = SegmentCompressor.NO_COMPRESSION;
+    private boolean incremental;
+    private final ExecutorService workers;
+    private final ExecutorService writerThreads;
+    private final BufferPool bufferPool;
+    private final PipelineStats pipelineStats = new PipelineStats();
+    private final EngineMetrics metrics = new EngineMetrics();
+    private final ThreadLocal<PipelineStats> fileStats = new ThreadLocal<>();
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final String STREAM_SOURCE = "<stream>";
+    private static final String BUFFER_SOURCE = "<buffer>";
+    /** One-shot payloads run to completion. */
+    private static final AtomicBoolean NOT_CANCELLED = new AtomicBoolean();
+
+    public CryptoService() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public CryptoService(int parallelism) {
+        this(parallelism, DEFAULT_BUFFER_BUDGET_BYTES);
     }
 
-    public void decrypt(char[] password, File keyFile, File inputFile, File outputFile, AtomicBoolean cancellationFlag, BiConsumer<Long, Long> progressUpdater) throws CryptoException {
-        process(Cipher.DECRYPT_MODE, password, keyFile, inputFile, outputFile, cancellationFlag, progressUpdater);
+    public CryptoService(int parallelism, long bufferBudgetBytes) {
+        this.parallelism = Math.max(1, parallelism);
+        this.bufferBudgetBytes = Math.max(MIN_LEGACY_CHUNK_SIZE, bufferBudgetBytes);
+        int bufferCapacity = DEFAULT_SEGMENT_SIZE + SegmentCompressor.FRAME_OVERHEAD + SegmentCipher.TAG_LENGTH_BYTES;
+        this.bufferPool = new BufferPool(bufferCapacity, (int) Math.max(4, this.bufferBudgetBytes / bufferCapacity));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(this.parallelism, r -> {
+            Thread thread = new Thread(r, "crypto-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger writerCount = new AtomicInteger();
+        this.writerThreads = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "crypto-writer-" + writerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
-    private void process(int mode, char[] password, File keyFile, File inputFile, File outputFile, AtomicBoolean cancellationFlag, BiConsumer<Long, Long> progressUpdater) throws CryptoException {
-        try (FileInputStream fis = new FileInputStream(inputFile);
-             FileOutputStream fos = new FileOutputStream(outputFile)) {
+    public void encrypt(char[] password, File keyFile, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        try (KeySession session = new KeySession(password, keyFile)) {
+            encrypt(session, inputFile, outputFile, cancellationFlag, progress);
+        }
+    }
 
-            byte[] salt;
-            byte[] iv;
-            SecretKey secretKey;
+    public void decrypt(char[] password, File keyFile, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        try (KeySession session = new KeySession(password, keyFile)) {
+            decrypt(session, inputFile, outputFile, cancellationFlag, progress);
+        }
+    }
 
-            if (mode == Cipher.ENCRYPT_MODE) {
-                salt = generateRandomBytes(SALT_LENGTH_BYTES);
-                iv = generateRandomBytes(IV_LENGTH_BYTES);
-                fos.write(salt);
-                fos.write(iv);
-                secretKey = deriveKey(password, salt, keyFile);
+    /**
+     * Encrypts one file of a batch; the session's master key is derived at most once per batch. A
+     * directory is packed into a single {@link EncryptedArchive}. In incremental mode a file goes
+     * into a {@link ChunkStore}, so re-encrypting it only writes the chunks that changed.
+     */
+    public void encrypt(KeySession session, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        measured("encrypt", inputFile, outputFile, cancellationFlag, () -> encryptFile(session, inputFile, outputFile, cancellationFlag, progress));
+    }
+
+    private void encryptFile(KeySession session, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        try {
+            if (inputFile.isDirectory()) {
+                encryptArchive(session, inputFile, outputFile, cancellationFlag, progress);
+            } else if (incremental) {
+                encryptIncremental(session, inputFile, outputFile, cancellationFlag, progress);
             } else {
-                salt = new byte[SALT_LENGTH_BYTES];
-                iv = new byte[IV_LENGTH_BYTES];
-                if (fis.read(salt) != SALT_LENGTH_BYTES || fis.read(iv) != IV_LENGTH_BYTES) {
-                    throw new CryptoException("Invalid file format: could not read salt/IV.");
-                }
-                secretKey = deriveKey(password, salt, keyFile);
-            }
-
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION_STRING);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH_BITS, iv);
-            cipher.init(mode, secretKey, parameterSpec);
-
-            long totalBytes = inputFile.length();
-            long bytesProcessed = (mode == Cipher.DECRYPT_MODE) ? (long)SALT_LENGTH_BYTES + IV_LENGTH_BYTES : 0;
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-
-            try (CipherInputStream cis = new CipherInputStream(fis, cipher)) {
-                while ((bytesRead = cis.read(buffer)) != -1) {
-                    if (cancellationFlag.get()) {
-                        logger.warn("Operation cancelled by user.");
-                        return;
-                    }
-                    fos.write(buffer, 0, bytesRead);
-                    bytesProcessed += bytesRead;
-                    progressUpdater.accept(bytesProcessed, totalBytes);
-                }
+                encryptSegmented(session, inputFile, outputFile, cancellationFlag, progress);
             }
+        } catch (CryptoException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Cryptographic operation failed.", e);
             throw new CryptoException("Operation failed: " + e.getMessage(), e);
         }
     }
 
-    public void secureDelete(File file) throws CryptoException {
+    /** Decrypts one file of a batch; an archive is extracted into a new directory named {@code outputFile}. */
+    public void decrypt(KeySession session, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        measured("decrypt", inputFile, outputFile, cancellationFlag, () -> decryptFile(session, inputFile, outputFile, cancellationFlag, progress));
+    }
+
+    private void decryptFile(KeySession session, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
         try {
-            if (file.exists()) {
-                try (FileOutputStream fos = new FileOutputStream(file)) {
-                    byte[] randomData = new byte[(int) file.length()];
-                    new SecureRandom().nextBytes(randomData);
-                    fos.write(randomData);
+            FileHeader header = isSegmented(inputFile) ? readHeader(inputFile) : null;
+            if (header != null && header.isArchive()) {
+                extractArchive(session, inputFile, outputFile, cancellationFlag, progress);
+            } else if (header != null && header.isChunked()) {
+                decryptChunked(session, inputFile, outputFile, cancellationFlag, progress);
+            } else if (header != null) {
+                decryptSegmented(session, inputFile, outputFile, cancellationFlag, progress);
+            } else {
+                decryptLegacy(session, inputFile, outputFile, cancellationFlag, progress);
+            }
+        } catch (CryptoException e) {
+            discardOutput(outputFile);
+            throw e;
+        } catch (Exception e) {
+            discardOutput(outputFile);
+            logger.error("Cryptographic operation failed.", e);
+            throw new CryptoException("Operation failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Authenticates every segment of a container (or the whole of a legacy file) without writing
+     * any plaintext. Throws if the file is corrupt or the key is wrong.
+     */
+    public void verify(KeySession session, File inputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        measured("verify", inputFile, null, cancellationFlag, () -> verifyFile(session, inputFile, cancellationFlag, progress));
+    }
+
+    private void verifyFile(KeySession session, File inputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        try {
+            if (isSegmented(inputFile) && readHeader(inputFile).isChunked()) {
+                decryptChunked(session, inputFile, null, cancellationFlag, progress);
+            } else if (isSegmented(inputFile)) {
+                decryptSegmented(session, inputFile, null, cancellationFlag, progress);
+            } else {
+                long totalBytes = inputFile.length();
+                try (FileInputStream in = new FileInputStream(inputFile)) {
+                    streamLegacyGcm(session, in, null, cancellationFlag, p -> progress.update(p, totalBytes));
                 }
-                Files.delete(file.toPath());
-                logger.info("Securely deleted file: {}", file.getAbsolutePath());
             }
+        } catch (CryptoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptoException("Verification failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Verifies many files, up to {@code concurrency} at a time, without writing plaintext. A failed
+     * file does not stop the others; files not started when the flag is set are reported as cancelled.
+     */
+    public VerificationReport verify(KeySession session, List<File> inputFiles, int concurrency, AtomicBoolean cancellationFlag,
+                                     ProgressChannel progressChannel) {
+        VerificationReport.FileResult[] results = new VerificationReport.FileResult[inputFiles.size()];
+        long[] started = new long[inputFiles.size()];
+        BatchExecutor executor = new BatchExecutor(concurrency);
+        executor.setStopOnFailure(false);
+        long batchStarted = System.nanoTime();
+        try {
+            executor.run(inputFiles, (file, flag, progress) -> verify(session, file, flag, progress), cancellationFlag, progressChannel,
+                    new BatchExecutor.Listener() {
+                        @Override
+                        public void onFileStarted(int index, File file) {
+                            started[index] = System.nanoTime();
+                        }
+
+                        @Override
+                        public void onFileFinished(int index, File file, BatchExecutor.Outcome outcome, Exception error) {
+                            VerificationReport.Status status = switch (outcome) {
+                                case SUCCESS -> VerificationReport.Status.PASSED;
+                                case FAILED -> VerificationReport.Status.FAILED;
+                                case CANCELLED -> VerificationReport.Status.CANCELLED;
+                            };
+                            long nanos = started[index] == 0 ? 0 : System.nanoTime() - started[index];
+                            results[index] = new VerificationReport.FileResult(file, status, file.length(), nanos,
+                                    error == null ? null : error.getMessage());
+                        }
+                    });
+        } catch (Exception e) {
+            // Only interruption gets here; files without a result are reported as cancelled.
+            logger.warn("Verification interrupted.", e);
+        }
+        long elapsedNanos = System.nanoTime() - batchStarted;
+        List<VerificationReport.FileResult> report = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++) {
+            report.add(results[i] != null ? results[i]
+                    : new VerificationReport.FileResult(inputFiles.get(i), VerificationReport.Status.CANCELLED, inputFiles.get(i).length(), 0, null));
+        }
+        return new VerificationReport(report, elapsedNanos);
+    }
+
+    @FunctionalInterface
+    private interface FileAction {
+        void run() throws CryptoException;
+    }
+
+    /**
+     * Runs one file's operation and records it in the engine metrics. The pipeline adds the file's
+     * stage times to {@link #fileStats} on the calling thread, so nothing is looked up per segment.
+     */
+    private void measured(String operation, File inputFile, File outputFile, AtomicBoolean cancellationFlag, FileAction action) throws CryptoException {
+        // A packed directory is measured by its archive, to avoid walking the tree again.
+        measured(operation, inputFile.getPath(), () -> !inputFile.isDirectory() ? inputFile.length() : outputFile != null ? outputFile.length() : 0,
+                cancellationFlag, action);
+    }
+
+    /** {@code bytes} is read once the operation has ended. */
+    private void measured(String operation, String source, LongSupplier bytes, AtomicBoolean cancellationFlag, FileAction action) throws CryptoException {
+        FileCryptoEvent event = new FileCryptoEvent();
+        event.begin();
+        PipelineStats stats = new PipelineStats();
+        fileStats.set(stats);
+        long keyNanos = KeySession.threadKeyNanos();
+        long started = System.nanoTime();
+        CryptoException failure = null;
+        boolean completed = false;
+        try {
+            action.run();
+            completed = true;
+        } catch (CryptoException e) {
+            failure = e;
+            throw e;
+        } finally {
+            fileStats.remove();
+            BatchExecutor.Outcome outcome = !completed ? BatchExecutor.Outcome.FAILED
+                    : cancellationFlag.get() ? BatchExecutor.Outcome.CANCELLED : BatchExecutor.Outcome.SUCCESS;
+            metrics.recordFile(operation, source, outcome, bytes.getAsLong(), System.nanoTime() - started,
+                    KeySession.threadKeyNanos() - keyNanos, stats, event, failure);
+        }
+    }
+
+    /**
+     * Encrypts everything {@code in} yields into a container written to {@code out}, in the same
+     * format as files. Neither channel is closed. Progress counts plaintext bytes against
+     * {@code expectedBytes}, or is reported only at the end if that is -1. If the flag is set the
+     * output ends without a final segment, so it never decrypts as complete. Sealing runs on the
+     * calling thread, and streams are not compressed, so {@link #decrypt(KeySession, ReadableByteChannel,
+     * WritableByteChannel, long, AtomicBoolean, ProgressChannel.FileProgress)} can read them without
+     * buffering them whole.
+     */
+    public void encrypt(KeySession session, ReadableByteChannel in, WritableByteChannel out, long expectedBytes,
+                        AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        AtomicLong consumed = new AtomicLong();
+        measured("encrypt", STREAM_SOURCE, consumed::get, cancellationFlag, () -> {
+            try {
+                consumed.set(encryptChannel(session, in, out, segmentSize, expectedBytes, cancellationFlag, progress));
+            } catch (CryptoException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CryptoException("Operation failed: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Decrypts a container read from {@code in} into {@code out}. Neither channel is closed.
+     * Progress counts container bytes against {@code expectedBytes}, or is reported only at the
+     * end if that is -1. Memory stays at about one segment; compressed containers, which only file
+     * encryption writes, are rejected, see {@link DecryptingChannel}.
+     */
+    public void decrypt(KeySession session, ReadableByteChannel in, WritableByteChannel out, long expectedBytes,
+                        AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        AtomicLong consumed = new AtomicLong();
+        measured("decrypt", STREAM_SOURCE, consumed::get, cancellationFlag, () -> {
+            try {
+                consumed.set(decryptChannel(session, in, out, expectedBytes, cancellationFlag, progress));
+            } catch (CryptoException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CryptoException("Operation failed: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /** Stream form of {@link #encrypt(KeySession, ReadableByteChannel, WritableByteChannel, long, AtomicBoolean, ProgressChannel.FileProgress)}. */
+    public void encrypt(KeySession session, InputStream in, OutputStream out, long expectedBytes,
+                        AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        encrypt(session, Channels.newChannel(in), Channels.newChannel(out), expectedBytes, cancellationFlag, progress);
+    }
+
+    /** Stream form of {@link #decrypt(KeySession, ReadableByteChannel, WritableByteChannel, long, AtomicBoolean, ProgressChannel.FileProgress)}. */
+    public void decrypt(KeySession session, InputStream in, OutputStream out, long expectedBytes,
+                        AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws CryptoException {
+        decrypt(session, Channels.newChannel(in), Channels.newChannel(out), expectedBytes, cancellationFlag, progress);
+    }
+
+    /**
+     * Encrypts a small payload in memory and returns the container, consuming {@code plaintext}.
+     * The segment size shrinks to the payload, so a short message does not allocate full segments.
+     */
+    public ByteBuffer encrypt(KeySession session, ByteBuffer plaintext) throws CryptoException {
+        int length = plaintext.remaining();
+        int payloadSegmentSize = Math.min(segmentSize, Math.max(MIN_SEGMENT_SIZE, length));
+        long segments = Math.max(1, (length + payloadSegmentSize - 1) / payloadSegmentSize);
+        long capacity = FileHeader.MAX_LENGTH + (long) length
+                + segments * SegmentCipher.TAG_LENGTH_BYTES + SegmentIndex.trailerLength(segments);
+        if (capacity > Integer.MAX_VALUE) throw new CryptoException("Payload too large for an in-memory container.");
+        BufferChannel out = new BufferChannel(ByteBuffer.allocate((int) capacity));
+        measured("encrypt", BUFFER_SOURCE, () -> length, NOT_CANCELLED, () -> {
+            try {
+                encryptChannel(session, new BufferChannel(plaintext), out, payloadSegmentSize, length, NOT_CANCELLED, null);
+            } catch (CryptoException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CryptoException("Operation failed: " + e.getMessage(), e);
+            }
+        });
+        return out.buffer().flip();
+    }
+
+    /** Decrypts a container held in memory and returns its plaintext, consuming {@code container}. */
+    public ByteBuffer decrypt(KeySession session, ByteBuffer container) throws CryptoException {
+        int length = container.remaining();
+        BufferChannel out = new BufferChannel(ByteBuffer.allocate(length));
+        measured("decrypt", BUFFER_SOURCE, () -> length, NOT_CANCELLED, () -> {
+            try {
+                decryptChannel(session, new BufferChannel(container), out, length, NOT_CANCELLED, null);
+            } catch (CryptoException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CryptoException("Operation failed: " + e.getMessage(), e);
+            }
+        });
+        return out.buffer().flip();
+    }
+
+    /** Returns the plaintext bytes taken from {@code in}. */
+    private long encryptChannel(KeySession session, ReadableByteChannel in, WritableByteChannel out, int segmentSize, long expectedBytes,
+                                AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception {
+        FileHeader header = new FileHeader(algorithm, FileHeader.KDF_KEY_FILE_DIGEST, FileHeader.FLAG_INDEX_TRAILER, segmentSize,
+                generateRandomBytes(FileHeader.NONCE_PREFIX_LENGTH), session.getBatchSalt(), generateRandomBytes(FileHeader.SALT_LENGTH));
+        EncryptingChannel sealing = new EncryptingChannel(new RetainedChannel(out), header, segmentCipher(session, header),
+                SegmentCompressor.NO_COMPRESSION);
+        if (transfer(in, sealing, sealing::position, expectedBytes, cancellationFlag, progress)) {
+            sealing.close();
+        } else {
+            sealing.abort();
+            logger.warn("Operation cancelled by user.");
+        }
+        return sealing.position();
+    }
+
+    /** Returns the container bytes taken from {@code in}. */
+    private long decryptChannel(KeySession session, ReadableByteChannel in, WritableByteChannel out, long expectedBytes,
+                                AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception {
+        FileHeader header = FileHeader.read(Channels.newInputStream(in));
+        DecryptingChannel opening = new DecryptingChannel(in, header, segmentCipher(session, header));
+        if (!transfer(opening, out, () -> header.length() + opening.bytesRead(), expectedBytes, cancellationFlag, progress)) {
+            logger.warn("Operation cancelled by user.");
+        }
+        return header.length() + opening.bytesRead();
+    }
+
+    /** Copies {@code in} to {@code out} until either ends or the flag is set; false if cancelled. */
+    private static boolean transfer(ReadableByteChannel in, WritableByteChannel out, LongSupplier consumed, long expectedBytes,
+                                    AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        while (!cancellationFlag.get()) {
+            if (in.read(buffer.clear()) < 0) {
+                if (progress != null) progress.update(consumed.getAsLong(), expectedBytes > 0 ? expectedBytes : consumed.getAsLong());
+                return true;
+            }
+            writeFully(out, buffer.flip());
+            if (progress != null && expectedBytes > 0) progress.update(consumed.getAsLong(), expectedBytes);
+        }
+        return false;
+    }
+
+    /** Lists an archive by decrypting only its table of contents. */
+    public List<EncryptedArchive.Entry> listArchive(KeySession session, File archiveFile) throws CryptoException {
+        try (EncryptedFileChannel archive = EncryptedFileChannel.open(session, archiveFile.toPath(), cipherProviders::get)) {
+            requireArchive(archive, archiveFile);
+            return EncryptedArchive.list(archive);
         } catch (IOException e) {
-            logger.error("Failed to securely delete file: {}", file.getAbsolutePath(), e);
-            throw new CryptoException("Could not securely delete original file.", e);
+            throw new CryptoException("Could not read archive: " + e.getMessage(), e);
+        }
+    }
+
+    /** Extracts the named entries of an archive below {@code targetDirectory}, decrypting only the segments they span. */
+    public void extractArchiveEntries(KeySession session, File archiveFile, List<String> entryPaths, File targetDirectory) throws CryptoException {
+        try (EncryptedFileChannel archive = EncryptedFileChannel.open(session, archiveFile.toPath(), cipherProviders::get)) {
+            requireArchive(archive, archiveFile);
+            List<EncryptedArchive.Entry> entries = EncryptedArchive.list(archive);
+            for (String entryPath : entryPaths) {
+                EncryptedArchive.Entry entry = entries.stream().filter(e -> e.path().equals(entryPath)).findFirst()
+                        .orElseThrow(() -> new CryptoException("No entry " + entryPath + " in " + archiveFile.getName()));
+                EncryptedArchive.extract(archive, entry, EncryptedArchive.resolve(targetDirectory.toPath(), entry));
+            }
+        } catch (IOException e) {
+            throw new CryptoException("Could not extract from archive: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Whether a file found in a folder is an input of an encrypt or decrypt batch: encrypted files
+     * only for decryption, and never the engine's own checkpoint and chunk store files.
+     */
+    public static boolean isCandidate(Path path, boolean encrypting) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".ckpt") || name.endsWith(".ckpt.tmp") || ChunkStore.isInsideStore(path)) return false;
+        return encrypting != name.endsWith(".enc");
+    }
+
+    /** Default output location: {@code name.enc} when encrypting, the name without {@code .enc} (or {@code name.dec}) when decrypting. */
+    public static File outputFileFor(File inputFile, boolean encrypting) {
+        String inputName = inputFile.getName();
+        String outputName = encrypting ? inputName + ".enc"
+                : (inputName.toLowerCase().endsWith(".enc") ? inputName.substring(0, inputName.length() - 4) : inputName + ".dec");
+        return new File(inputFile.getParent(), outputName);
+    }
+
+    /**
+     * Output of {@code inputFile} under {@code outputDirectory}, keeping its path relative to the
+     * parent of the selected root that contains it, so folders keep their layout and files with the
+     * same name from different folders do not collide. A null directory means next to the input.
+     */
+    public static File outputFileFor(File inputFile, boolean encrypting, File outputDirectory, List<File> roots) {
+        File sibling = outputFileFor(inputFile, encrypting);
+        if (outputDirectory == null) return sibling;
+        Path input = inputFile.toPath().toAbsolutePath().normalize();
+        for (File root : roots) {
+            Path rootPath = root.toPath().toAbsolutePath().normalize();
+            Path base = rootPath.getParent();
+            if (base != null && input.startsWith(rootPath)) {
+                Path relative = base.relativize(input.resolveSibling(sibling.getName()));
+                return outputDirectory.toPath().resolve(relative).toFile();
+            }
+        }
+        return new File(outputDirectory, sibling.getName());
+    }
+
+    /** Opens a seekable plaintext view of a container; only the segments that are read get decrypted. */
+    public SeekableByteChannel openDecryptingChannel(KeySession session, File inputFile) throws CryptoException {
+        try {
+            return EncryptedFileChannel.open(session, inputFile.toPath(), cipherProviders::get);
+        } catch (IOException e) {
+            throw new CryptoException("Could not open encrypted file: " + e.getMessage(), e);
+        }
+    }
+
+    private void encryptSegmented(KeySession session, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception {
+        // The output is about to be overwritten, so the store of an earlier incremental run is orphaned.
+        ChunkStore.delete(outputFile);
+        JobCheckpoint checkpoint = JobCheckpoint.load(outputFile);
+        if (checkpoint != null && !checkpoint.matchesInput(inputFile, segmentCompressionLevel(checkpoint.header().getFlags()))) {
+            logger.info("Discarding checkpoint for {}: the input file or the compression level has changed.", outputFile.getName());
+            checkpoint = null;
+        }
+        FileHeader header = checkpoint != null ? checkpoint.header() : newHeader(session, newFileFlags(inputFile));
+        SegmentCipher segmentCipher = segmentCipher(session, header);
+        int level = segmentCompressionLevel(header.getFlags());
+
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            CheckpointRecorder recorder;
+            // The resumed segments get a generation no earlier run used, saved before any of them is sealed.
+            JobCheckpoint resumed = checkpoint != null && (header.getFlags() & FileHeader.FLAG_INDEX_TRAILER) != 0 && checkpoint.verify(out, header, segmentCipher)
+                    ? checkpoint.nextGeneration() : null;
+            if (resumed != null) {
+                logger.info("Resuming {} from checkpoint at {} bytes.", inputFile.getName(), checkpoint.getPlaintextOffset());
+                resumed.save(outputFile);
+                out.truncate(checkpoint.getOutputOffset());
+                out.position(checkpoint.getOutputOffset());
+                recorder = new CheckpointRecorder(inputFile, outputFile, header, level, out, checkpointIntervalBytes, resumed);
+            } else {
+                if (checkpoint != null) {
+                    logger.info("Discarding checkpoint for {}: the partial output does not match or was resumed too often.", outputFile.getName());
+                    header = newHeader(session, header.getFlags());
+                    segmentCipher = segmentCipher(session, header);
+                }
+                out.truncate(0);
+                writeFully(out, ByteBuffer.wrap(header.encoded()));
+                recorder = new CheckpointRecorder(inputFile, outputFile, header, level, out, checkpointIntervalBytes);
+            }
+
+            long totalBytes = in.size();
+            int segmentSize = header.getSegmentSize();
+            long firstSegment = recorder.getFirstSegment();
+            long startOffset = firstSegment * segmentSize;
+            SegmentCipher cipher = segmentCipher.resumedAt(recorder.getResumes());
+            SegmentPipeline.Transform seal = !header.isCompressed()
+                    ? (index, last, input, output) -> cipher.seal(firstSegment + index, last, input, output)
+                    : (index, last, input, output) -> {
+                        ByteBuffer framed = SegmentCompressor.frameBuffer(segmentSize + SegmentCompressor.FRAME_OVERHEAD);
+                        SegmentCompressor.compress(input, framed, level);
+                        cipher.seal(firstSegment + index, last, framed.flip(), output);
+                    };
+            boolean completed = runPipeline(inputFile, in, startOffset, totalBytes - startOffset, segmentSize, header.maxSealedSegmentSize(), out,
+                    seal, cancellationFlag, done -> progress.update(startOffset + done, totalBytes), recorder);
+            if (completed && in.size() != totalBytes) {
+                throw new CryptoException("Input file changed while it was being encrypted: " + inputFile.getName());
+            }
+            if (completed) {
+                writeFully(out, recorder.trailer(totalBytes, segmentSize));
+                JobCheckpoint.delete(outputFile);
+                if (header.isCompressed()) logger.debug("Compressed {}: {} -> {} bytes.", inputFile.getName(), totalBytes, out.size());
+            }
+        }
+    }
+
+    private void encryptArchive(KeySession session, File directory, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception {
+        // Archives mix content types, so compression is decided per segment rather than by sampling.
+        int flags = FileHeader.FLAG_INDEX_TRAILER | FileHeader.FLAG_ARCHIVE
+                | (compressionLevel == SegmentCompressor.NO_COMPRESSION ? 0 : FileHeader.FLAG_COMPRESSED);
+        FileHeader header = newHeader(session, flags);
+        EncryptingChannel out = new EncryptingChannel(
+                FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+                header, segmentCipher(session, header), compressionLevel);
+        boolean completed = false;
+        try {
+            completed = EncryptedArchive.pack(directory, out, cancellationFlag, progress);
+        } catch (Exception e) {
+            out.abort();
+            discardOutput(outputFile);
+            throw e;
+        }
+        if (completed) {
+            out.close();
+        } else {
+            out.abort();
+            logger.warn("Operation cancelled by user.");
+        }
+    }
+
+    /**
+     * Reuses every chunk the store already holds; the chunking and the sealing of new chunks run on
+     * the calling thread, since a nightly run mostly hashes unchanged data.
+     */
+    private void encryptIncremental(KeySession session, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception {
+        int level = segmentCompressionLevel(newFileFlags(inputFile));
+        ChunkStore store = ChunkStore.openOrCreate(session, outputFile, algorithm, cipherProviders::get);
+        boolean completed;
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)) {
+            completed = store.encrypt(in, outputFile, level, cancellationFlag, progress);
+        }
+        if (completed) {
+            JobCheckpoint.delete(outputFile);
+        } else {
+            logger.warn("Operation cancelled by user.");
+        }
+    }
+
+    private void decryptChunked(KeySession session, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception {
+        ChunkStore store = ChunkStore.open(session, inputFile, cipherProviders::get);
+        try (EncryptedFileChannel manifest = EncryptedFileChannel.open(session, inputFile.toPath(), cipherProviders::get);
+             WritableByteChannel out = outputFile == null ? new DiscardingChannel()
+                     : FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            if (!store.restore(manifest, out, cancellationFlag, progress)) {
+                logger.warn("Operation cancelled by user.");
+            }
+        }
+    }
+
+    /** Extracts into a sibling staging directory and renames it at the end, so a failed run leaves no half-written tree. */
+    private void extractArchive(KeySession session, File inputFile, File outputDirectory, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception {
+        if (outputDirectory.exists()) {
+            throw new CryptoException("Cannot extract archive: " + outputDirectory.getName() + " already exists.");
+        }
+        Path staging = outputDirectory.toPath().resolveSibling(outputDirectory.getName() + ".partial");
+        deleteTree(staging);
+        boolean completed = false;
+        try (EncryptedFileChannel archive = EncryptedFileChannel.open(session, inputFile.toPath(), cipherProviders::get)) {
+            completed = EncryptedArchive.extractAll(archive, staging, cancellationFlag, progress);
+            if (completed) {
+                Files.move(staging, outputDirectory.toPath());
+            } else {
+                logger.warn("Operation cancelled by user.");
+            }
+        } finally {
+            if (!completed) deleteTree(staging);
+        }
+    }
+
+    private static void requireArchive(EncryptedFileChannel channel, File file) throws CryptoException {
+        if (!channel.header().isArchive()) throw new CryptoException(file.getName() + " is not an archive.");
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * True if an interrupted encryption left a resumable checkpoint for this output file. A chunk
+     * store counts as one: its previous manifest stays valid and the next run reuses every chunk.
+     */
+    public boolean hasCheckpoint(File outputFile) {
+        return JobCheckpoint.exists(outputFile) || ChunkStore.exists(outputFile);
+    }
+
+    /** Decrypts a segmented container; with a null output file the plaintext is only authenticated and discarded. */
+    private void decryptSegmented(KeySession session, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception {
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+             WritableByteChannel out = outputFile == null ? new DiscardingChannel()
+                     : FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            FileHeader header = FileHeader.read(Channels.newInputStream(in));
+
+            long totalBytes = in.size();
+            int sealedSegmentSize = header.getSegmentSize() + SegmentCipher.TAG_LENGTH_BYTES;
+            SegmentIndex index = SegmentIndex.load(in, header);
+            if (!header.isCompressed() && !index.isFixedLayout(sealedSegmentSize)) {
+                throw new CryptoException("Invalid file format: unexpected segment layout.");
+            }
+            SegmentCipher segmentCipher = segmentCipher(session, header).resumedAt(index.resumes());
+            SegmentPipeline.Transform open = !header.isCompressed() ? segmentCipher::open
+                    : (segment, last, input, output) -> {
+                        ByteBuffer framed = SegmentCompressor.frameBuffer(header.maxSealedSegmentSize());
+                        segmentCipher.open(segment, last, input, framed);
+                        SegmentCompressor.expand(framed.flip(), output);
+                        if (!last && output.position() != header.getSegmentSize()) {
+                            throw new CryptoException("Invalid file format: segment " + segment + " has the wrong plaintext length.");
+                        }
+                    };
+
+            runPipeline(inputFile, in, index.layout(), header.getSegmentSize(), out,
+                    open, cancellationFlag, done -> progress.update(header.length() + done, totalBytes), null);
+        }
+    }
+
+    private boolean runPipeline(File inputFile, FileChannel in, long offset, long length, int inputSegmentSize, int outputSegmentSize, WritableByteChannel out,
+                                SegmentPipeline.Transform transform, AtomicBoolean cancellationFlag, LongConsumer progress,
+                                SegmentPipeline.SegmentListener listener) throws Exception {
+        return runPipeline(inputFile, in, SegmentPipeline.Layout.fixed(offset, length, inputSegmentSize), outputSegmentSize, out,
+                transform, cancellationFlag, progress, listener);
+    }
+
+    private boolean runPipeline(File inputFile, FileChannel in, SegmentPipeline.Layout layout, int outputSegmentSize, WritableByteChannel out,
+                                SegmentPipeline.Transform transform, AtomicBoolean cancellationFlag, LongConsumer progress,
+                                SegmentPipeline.SegmentListener listener) throws Exception {
+        PipelineStats stats = new PipelineStats();
+        SegmentPipeline pipeline = new SegmentPipeline(workers, writerThreads, bufferPool, maxInFlight(layout.maxSize()), stats);
+        try {
+            boolean completed = pipeline.run(in, layout, outputSegmentSize, out, transform, cancellationFlag, progress, listener);
+            if (!completed) logger.warn("Operation cancelled by user.");
+            return completed;
+        } finally {
+            pipelineStats.add(stats);
+            PipelineStats file = fileStats.get();
+            if (file != null) file.add(stats);
+            logger.debug("Pipeline for {}: {}", inputFile.getName(), stats.summary());
+        }
+    }
+
+    /** Plaintext bytes between two checkpoints of a running encryption. */
+    public void setCheckpointIntervalBytes(long checkpointIntervalBytes) {
+        this.checkpointIntervalBytes = Math.max(DEFAULT_SEGMENT_SIZE, checkpointIntervalBytes);
+    }
+
+    /** Plaintext bytes per segment of newly encrypted files; decryption always follows the file's header. */
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > FileHeader.MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between " + MIN_SEGMENT_SIZE + " and " + FileHeader.MAX_SEGMENT_SIZE + " bytes.");
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * AEAD of newly encrypted files, a {@code FileHeader.ALGORITHM_*} id; decryption always follows
+     * the file's header.
+     */
+    public void setAlgorithm(int algorithm) {
+        SegmentCipher.transformation(algorithm);
+        this.algorithm = algorithm;
+    }
+
+    /** JCA provider for segments sealed with the given algorithm id, or null for the platform default. */
+    public void setCipherProvider(int algorithm, Provider cipherProvider) {
+        if (cipherProvider == null) {
+            cipherProviders.remove(algorithm);
+        } else {
+            cipherProviders.put(algorithm, cipherProvider);
+        }
+    }
+
+    private SegmentCipher segmentCipher(KeySession session, FileHeader header) throws GeneralSecurityException, IOException {
+        return new SegmentCipher(session.keyFor(header), header, cipherProviders.get(header.getAlgorithm()));
+    }
+
+    /**
+     * Deflate level for newly encrypted files, from 1 (fastest) to 9 (smallest), or
+     * {@link SegmentCompressor#NO_COMPRESSION} to store plaintext as is. Files whose first block
+     * looks already compressed are never deflated.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        SegmentCompressor.checkLevel(compressionLevel);
+        this.compressionLevel = compressionLevel;
+    }
+
+    /** Encrypts files into a {@link ChunkStore} next to the output, reusing unchanged chunks of the previous run. */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    private FileHeader newHeader(KeySession session, int flags) {
+        return new FileHeader(algorithm, FileHeader.KDF_KEY_FILE_DIGEST, flags, segmentSize,
+                generateRandomBytes(FileHeader.NONCE_PREFIX_LENGTH), session.getBatchSalt(), generateRandomBytes(FileHeader.SALT_LENGTH));
+    }
+
+    private int newFileFlags(File inputFile) throws IOException {
+        if (compressionLevel == SegmentCompressor.NO_COMPRESSION) return FileHeader.FLAG_INDEX_TRAILER;
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)) {
+            if (SegmentCompressor.looksCompressible(in)) return FileHeader.FLAG_INDEX_TRAILER | FileHeader.FLAG_COMPRESSED;
+        }
+        logger.debug("Not compressing {}: its content looks already compressed.", inputFile.getName());
+        return FileHeader.FLAG_INDEX_TRAILER;
+    }
+
+    /** Deflate level the segments of a container with these flags are sealed with. */
+    private int segmentCompressionLevel(int flags) {
+        return (flags & FileHeader.FLAG_COMPRESSED) != 0 ? Math.max(compressionLevel, Deflater.BEST_SPEED) : SegmentCompressor.NO_COMPRESSION;
+    }
+
+    /** Cumulative pipeline timings of every file processed by this service. */
+    public PipelineStats getPipelineStats() {
+        return pipelineStats;
+    }
+
+    public EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
     }
 
-    private SecretKey deriveKey(char[] password, byte[] salt, File keyFile) throws GeneralSecurityException, IOException {
-        byte[] passwordBytes = new String(password).getBytes();
-        byte[] keyFileBytes = new byte[0];
-        if (keyFile != null && keyFile.exists()) {
-            keyFileBytes = Files.readAllBytes(keyFile.toPath());
+    /**
+     * Decrypts a legacy single-GCM file in constant memory, reading it once. The plaintext comes out
+     * before the tag at the end has been checked, so it goes to a sibling staging file that replaces
+     * {@code outputFile} only once the whole file has authenticated.
+     */
+    private void decryptLegacy(KeySession session, File inputFile, File outputFile, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws Exception {
+        Path staging = outputFile.toPath().resolveSibling(outputFile.getName() + ".partial");
+        long totalBytes = inputFile.length();
+        boolean completed = false;
+        try {
+            try (FileInputStream in = new FileInputStream(inputFile);
+                 FileOutputStream out = new FileOutputStream(staging.toFile())) {
+                if (!streamLegacyGcm(session, in, out, cancellationFlag, p -> progress.update(p, totalBytes))) return;
+            }
+            Files.move(staging, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            completed = true;
+        } finally {
+            if (!completed) Files.deleteIfExists(staging);
         }
+    }
 
-        byte[] combinedSource = new byte[passwordBytes.length + keyFileBytes.length];
-        System.arraycopy(passwordBytes, 0, combinedSource, 0, passwordBytes.length);
-        System.arraycopy(keyFileBytes, 0, combinedSource, passwordBytes.length, keyFileBytes.length);
+    /** Reads the salt and IV at the start of {@code in}, then decrypts the rest into {@code out}, if any. */
+    private boolean streamLegacyGcm(KeySession session, InputStream in, OutputStream out, AtomicBoolean cancellationFlag, LongConsumer progress)
+            throws IOException, GeneralSecurityException, InvalidCipherTextException, CryptoException {
+        byte[] salt = new byte[SALT_LENGTH_BYTES];
+        byte[] iv = new byte[IV_LENGTH_BYTES];
+        if (in.readNBytes(salt, 0, SALT_LENGTH_BYTES) != SALT_LENGTH_BYTES || in.readNBytes(iv, 0, IV_LENGTH_BYTES) != IV_LENGTH_BYTES) {
+            throw new CryptoException("Invalid file format: could not read salt/IV.");
+        }
+        GCMModeCipher cipher = GCMBlockCipher.newInstance(AESEngine.newInstance());
+        cipher.init(false, new AEADParameters(new KeyParameter(session.legacyKey(salt).getEncoded()), GCM_TAG_LENGTH_BITS, iv));
 
-        SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM);
-        KeySpec spec = new PBEKeySpec(new String(combinedSource).toCharArray(), salt, ITERATION_COUNT, KEY_LENGTH_BITS);
-        SecretKey tmp = factory.generateSecret(spec);
-        return new SecretKeySpec(tmp.getEncoded(), "AES");
+        int chunkSize = legacyChunkSize();
+        byte[] buffer = new byte[chunkSize];
+        byte[] plaintext = new byte[chunkSize + 2 * GCM_BLOCK_SIZE_BYTES];
+        long bytesProcessed = (long) SALT_LENGTH_BYTES + IV_LENGTH_BYTES;
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            if (cancellationFlag.get()) {
+                logger.warn("Operation cancelled by user.");
+                return false;
+            }
+            int produced = cipher.processBytes(buffer, 0, bytesRead, plaintext, 0);
+            if (out != null) out.write(plaintext, 0, produced);
+            bytesProcessed += bytesRead;
+            progress.accept(bytesProcessed);
+        }
+        int produced = cipher.doFinal(plaintext, 0);
+        if (out != null) out.write(plaintext, 0, produced);
+        return true;
+    }
+
+    /** Leaves the caller's channel open when a container writer closes its target. */
+    private static final class RetainedChannel implements WritableByteChannel {
+        private final WritableByteChannel target;
+        private boolean open = true;
+
+        RetainedChannel(WritableByteChannel target) {
+            this.target = target;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return target.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    /** In-memory source or sink over one buffer; as a sink it grows the buffer when it fills up. */
+    private static final class BufferChannel implements ReadableByteChannel, WritableByteChannel {
+        private ByteBuffer buffer;
+        private boolean open = true;
+
+        BufferChannel(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(dst.remaining(), buffer.remaining());
+            dst.put(buffer.duplicate().limit(buffer.position() + count));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = src.remaining();
+            if (buffer.remaining() < count) {
+                int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(buffer.capacity() * 2L, (long) buffer.position() + count));
+                buffer = ByteBuffer.allocate(capacity).put(buffer.flip());
+            }
+            buffer.put(src);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    /** Sink for verification runs: accepts and drops every byte. */
+    private static final class DiscardingChannel implements WritableByteChannel {
+        private boolean open = true;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = src.remaining();
+            src.position(src.limit());
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    private void discardOutput(File outputFile) {
+        if (outputFile.isFile() && !outputFile.delete()) {
+            logger.warn("Could not remove incomplete output file: {}", outputFile.getAbsolutePath());
+        }
+    }
+
+    private static FileHeader readHeader(File inputFile) throws IOException, CryptoException {
+        try (InputStream in = new FileInputStream(inputFile)) {
+            return FileHeader.read(in);
+        }
+    }
+
+    private boolean isSegmented(File inputFile) throws IOException {
+        try (InputStream in = new FileInputStream(inputFile)) {
+            return FileHeader.hasMagic(in.readNBytes(FileHeader.MAGIC.length));
+        }
+    }
+
+    /** Number of segments kept in flight: enough to feed every worker, capped by the buffer budget. */
+    private int maxInFlight(int segmentSize) {
+        long perSegment = 2L * (segmentSize + SegmentCipher.TAG_LENGTH_BYTES);
+        return (int) Math.max(1, Math.min(parallelism * 2L, bufferBudgetBytes / perSegment));
+    }
+
+    private int legacyChunkSize() {
+        return (int) Math.max(MIN_LEGACY_CHUNK_SIZE, Math.min(MAX_LEGACY_CHUNK_SIZE, bufferBudgetBytes / 4));
+    }
+
+    /** Shreds a single file on the calling thread; batches use a {@link Shredder} so shredding overlaps encryption. */
+    public void secureDelete(File file) throws CryptoException {
+        try (Shredder shredder = new Shredder(1, Shredder.SINGLE_PASS)) {
+            shredder.shred(file);
+        }
     }
 
     private byte[] generateRandomBytes(int length) {
-        byte[] bytes = new byte[length];
-        new SecureRandom().nextBytes(bytes);
-        return bytes;
+        return KeySession.generateRandomBytes(length);
     }
 }
-
@@ -0,0 +1,190 @@
+package com.example.cryptotool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the plaintext of a segmented container arriving as a stream, such as a socket or a blob,
+ * the counterpart of {@link EncryptingChannel}.
+ * <p>
+ * The index trailer comes after the data, so the reader holds back just enough input to tell the
+ * final segment from the trailer: a full segment is opened once more bytes follow it than the
+ * final segment plus the trailer could take, so memory stays at about one segment. Compressed
+ * segments have no fixed size, so the end of the data could only be found by buffering the whole
+ * container; compressed containers, which only file encryption writes, are rejected.
+ * <p>
+ * The final segment is opened with the final flag, so a truncated stream fails authentication
+ * instead of ending early. A segment that fails under the current generation is tried under the
+ * newer ones, since a resumed encryption switched generation there; the resume points found that
+ * way must match the trailer, which the final segment authenticates. The source must be a blocking
+ * channel; its header must already have been read.
+ */
+public class DecryptingChannel implements ReadableByteChannel {
+    private static final int MIN_LOOKAHEAD = 64 * 1024;
+
+    private final ReadableByteChannel in;
+    private final FileHeader header;
+    private SegmentCipher cipher;
+    private final List<SegmentCipher.Resume> resumes = new ArrayList<>();
+    private int generation;
+    private final int sealedSegmentSize;
+    private final ByteBuffer plaintext;
+    /** Sealed input not opened yet; in write mode until the source ends, then in read mode. */
+    private ByteBuffer pending;
+    private SegmentIndex tail;
+    private long tailStart;
+    private long segment;
+    private long bytesRead;
+    private long plaintextLength;
+    private boolean finished;
+    private boolean open = true;
+
+    public DecryptingChannel(ReadableByteChannel in, FileHeader header, SegmentCipher cipher) throws CryptoException {
+        if (header.isArchive() || header.isChunked()) {
+            throw new CryptoException("Archives and chunk stores cannot be decrypted as a stream.");
+        }
+        if (header.isCompressed()) {
+            throw new CryptoException("Compressed containers cannot be decrypted as a stream; decrypt the file instead.");
+        }
+        this.in = in;
+        this.header = header;
+        this.cipher = cipher;
+        this.sealedSegmentSize = header.getSegmentSize() + SegmentCipher.TAG_LENGTH_BYTES;
+        this.plaintext = ByteBuffer.allocate(header.getSegmentSize()).flip();
+        this.pending = ByteBuffer.allocate(Math.max(MIN_LOOKAHEAD, sealedSegmentSize + MIN_LOOKAHEAD / 16));
+    }
+
+    public FileHeader header() {
+        return header;
+    }
+
+    /** Container bytes taken from the source after the header. */
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) throw new ClosedChannelException();
+        int total = 0;
+        while (dst.hasRemaining()) {
+            if (!plaintext.hasRemaining()) {
+                if (finished) break;
+                openNextSegment();
+                continue;
+            }
+            int count = Math.min(dst.remaining(), plaintext.remaining());
+            dst.put(plaintext.duplicate().limit(plaintext.position() + count));
+            plaintext.position(plaintext.position() + count);
+            total += count;
+        }
+        return total == 0 && finished && !plaintext.hasRemaining() ? -1 : total;
+    }
+
+    private void openNextSegment() throws IOException {
+        while (tail == null && !canOpenFullSegment()) fill();
+        ByteBuffer sealed;
+        boolean last;
+        if (tail == null) {
+            sealed = pending.duplicate().flip().limit(sealedSegmentSize);
+            last = false;
+        } else {
+            int local = (int) (segment - tailStart);
+            int offset = (int) tail.offset(local);
+            sealed = pending.duplicate().position(offset).limit(offset + tail.sealedLength(local));
+            last = local == tail.segmentCount() - 1;
+        }
+
+        plaintext.clear();
+        try {
+            if (tail == null) {
+                openSearching(sealed);
+            } else {
+                cipher.open(segment, last, sealed, plaintext);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Segment " + segment + " failed authentication: " + e.getMessage(), e);
+        }
+        if (!last && plaintext.position() != header.getSegmentSize()) {
+            throw new IOException("Invalid file format: segment " + segment + " has the wrong plaintext length.");
+        }
+        plaintext.flip();
+        plaintextLength += plaintext.remaining();
+        if (tail == null) pending.flip().position(sealedSegmentSize).compact();
+        segment++;
+        if (last) {
+            finished = true;
+            if (plaintextLength != tail.plaintextLength()) {
+                throw new IOException("Invalid file format: segment index does not match the encrypted data.");
+            }
+        }
+    }
+
+    /** Opens a segment that is not the final one, under the current generation or the first newer one that authenticates it. */
+    private void openSearching(ByteBuffer sealed) throws GeneralSecurityException {
+        GeneralSecurityException failure = null;
+        for (int candidate = generation; candidate <= SegmentCipher.MAX_GENERATION; candidate++) {
+            try {
+                cipher.open(segment, candidate, false, sealed.duplicate(), plaintext.clear());
+            } catch (GeneralSecurityException e) {
+                if (failure == null) failure = e;
+                continue;
+            }
+            if (candidate != generation) {
+                resumes.add(new SegmentCipher.Resume(segment, candidate));
+                generation = candidate;
+            }
+            return;
+        }
+        throw failure;
+    }
+
+    /** True once more input follows the next full segment than a final segment and trailer could take. */
+    private boolean canOpenFullSegment() {
+        long trailer = (header.getFlags() & FileHeader.FLAG_INDEX_TRAILER) != 0
+                ? SegmentIndex.trailerLength(segment + 1) + SegmentIndex.MAX_RESUME_TRAILER_LENGTH : 0;
+        return pending.position() > sealedSegmentSize + trailer;
+    }
+
+    private void fill() throws IOException {
+        if (!pending.hasRemaining()) {
+            if (pending.capacity() > Integer.MAX_VALUE / 2) {
+                throw new IOException("Container too large to decrypt as a stream.");
+            }
+            pending = ByteBuffer.allocate(pending.capacity() * 2).put(pending.flip());
+        }
+        int count = in.read(pending);
+        if (count > 0) bytesRead += count;
+        if (count < 0) {
+            pending.flip();
+            tailStart = segment;
+            try {
+                tail = SegmentIndex.loadTail(pending, segment, header);
+            } catch (CryptoException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            if (!resumes.equals(tail.resumes().stream().filter(resume -> resume.segment() < tailStart).toList())) {
+                throw new IOException("Invalid file format: segment index does not match the encrypted data.");
+            }
+            cipher = cipher.resumedAt(tail.resumes());
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /** Closes the source. */
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+        in.close();
+    }
+}
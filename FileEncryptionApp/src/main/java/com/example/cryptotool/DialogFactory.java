@@ -1,5 +1,6 @@
 package com.example.cryptotool;
 
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -11,8 +12,14 @@ import javafx.scene.text.Text;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
+import javafx.util.StringConverter;
 
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * A utility class for creating various dialog boxes used in the application.
@@ -66,9 +73,103 @@ public class DialogFactory {
         return Optional.ofNullable(passwordHolder[0]);
     }
 
+    /**
+     * Creates a non-modal settings window with the cipher algorithm policy and the cipher
+     * calibration of this host.
+     *
+     * @param owner The parent stage.
+     * @param settings The settings holding the cached calibration.
+     * @param recalibrate Starts a calibration in the background, or returns the one already running.
+     * @param running The calibration in progress when the window opens, or null.
+     */
+    public static void createSettingsDialog(Stage owner, AppSettings settings,
+                                            Supplier<CompletableFuture<CipherRegistry.Calibration>> recalibrate,
+                                            CompletableFuture<CipherRegistry.Calibration> running) {
+        Stage settingsStage = new Stage();
+        settingsStage.initOwner(owner);
+        settingsStage.setTitle("Settings");
+
+        VBox layout = new VBox(15);
+        layout.setPadding(new Insets(20));
+
+        GridPane results = new GridPane();
+        results.setHgap(15);
+        results.setVgap(5);
+        Label status = new Label();
+        Button recalibrateButton = new Button("Recalibrate");
+        Button closeButton = new Button("Close");
+        closeButton.setOnAction(e -> settingsStage.close());
+
+        showCalibration(results, status, settings.getCipherCalibration());
+        recalibrateButton.setOnAction(e -> awaitCalibration(recalibrate.get(), results, status, recalibrateButton));
+        if (running != null && !running.isDone()) awaitCalibration(running, results, status, recalibrateButton);
+
+        ChoiceBox<String> algorithmChoice = new ChoiceBox<>();
+        algorithmChoice.getItems().addAll(AppSettings.AUTO_ALGORITHM, CipherRegistry.AES_GCM, CipherRegistry.CHACHA20_POLY1305);
+        algorithmChoice.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(String algorithm) {
+                return algorithm == null ? "" : switch (algorithm) {
+                    case AppSettings.AUTO_ALGORITHM -> "Fastest on this computer";
+                    case CipherRegistry.AES_GCM -> "AES-256-GCM";
+                    default -> "ChaCha20-Poly1305";
+                };
+            }
+
+            @Override
+            public String fromString(String label) {
+                return null;
+            }
+        });
+        algorithmChoice.setValue(settings.getCipherAlgorithm());
+        algorithmChoice.setOnAction(e -> settings.setCipherAlgorithm(algorithmChoice.getValue()));
+        HBox algorithmBox = new HBox(10, new Label("Encrypt new files with"), algorithmChoice);
+        algorithmBox.setAlignment(Pos.CENTER_LEFT);
+
+        HBox buttonBox = new HBox(10, recalibrateButton, closeButton);
+        buttonBox.setAlignment(Pos.CENTER_RIGHT);
+        layout.getChildren().addAll(algorithmBox, new Label("Cipher throughput on this computer"), results, status, buttonBox);
+
+        settingsStage.setScene(new Scene(layout, 480, 320));
+        settingsStage.show();
+    }
+
+    private static void awaitCalibration(CompletableFuture<CipherRegistry.Calibration> calibration, GridPane results,
+                                         Label status, Button recalibrateButton) {
+        recalibrateButton.setDisable(true);
+        status.setText("Measuring cipher providers...");
+        calibration.whenComplete((result, error) -> Platform.runLater(() -> {
+            recalibrateButton.setDisable(false);
+            if (error != null) {
+                status.setText("Calibration failed: " + error.getMessage());
+            } else {
+                showCalibration(results, status, Optional.of(result));
+            }
+        }));
+    }
+
+    private static void showCalibration(GridPane results, Label status, Optional<CipherRegistry.Calibration> calibration) {
+        results.getChildren().clear();
+        if (calibration.isEmpty()) {
+            status.setText("Not measured yet; the platform default provider is used.");
+            return;
+        }
+        CipherRegistry.Calibration c = calibration.get();
+        results.addRow(0, new Label("Algorithm"), new Label("Provider"), new Label("MB/s"));
+        int row = 1;
+        for (CipherRegistry.Measurement m : c.measurements()) {
+            results.addRow(row++, new Label(m.algorithm()), new Label(m.provider()),
+                    new Label(String.format(Locale.ROOT, "%.0f", m.megabytesPerSecond())));
+        }
+        String provider = c.preferred(c.preferredAlgorithm()).map(CipherRegistry.Measurement::provider).orElse("default");
+        status.setText("Using: " + c.preferredAlgorithm() + " on " + provider
+                + System.lineSeparator() + "Measured " + DateFormat.getDateTimeInstance().format(new Date(c.measuredAtMillis()))
+                + (c.settled() ? "" : ", not settled; not remembered"));
+    }
+
     /**
      * Creates a generic, non-modal window to display information.
-     * Used for placeholder actions like Settings, Help, etc.
+     * Used for placeholder actions like Help, etc.
      *
      * @param owner The parent stage.
      * @param title The title of the window.
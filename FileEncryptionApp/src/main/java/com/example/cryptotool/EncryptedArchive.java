@@ -0,0 +1,234 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * A directory tree packed into a single container.
+ * <p>
+ * Plaintext layout: file contents back to back | table of contents | TOC length (8) | magic (8).
+ * The container header carries {@link FileHeader#FLAG_ARCHIVE}, and the table of contents is
+ * encrypted and authenticated like everything else. Since containers are seekable, listing reads
+ * only the segments that hold the table of contents, and extracting one entry decrypts only the
+ * segments it spans. A tree of many small files costs one header, one key derivation and one
+ * output file in total instead of one of each per file.
+ */
+public class EncryptedArchive {
+    private static final Logger logger = LoggerFactory.getLogger(EncryptedArchive.class);
+    private static final byte[] TOC_MAGIC = {'F', 'C', 'A', 'R', 'C', 'H', '0', '1'};
+    private static final int FOOTER_LENGTH = 8 + TOC_MAGIC.length;
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    /** One archived file or directory; {@code path} is relative to the archived directory and uses '/'. */
+    public record Entry(String path, boolean directory, long offset, long size, long lastModified) {}
+
+    private EncryptedArchive() {
+    }
+
+    /** Total size of the regular files below {@code directory}. */
+    public static long treeSize(File directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            return paths.filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    /**
+     * Streams every file and directory below {@code directory} into {@code out}, followed by the
+     * table of contents. Symbolic links and special files are skipped.
+     *
+     * @return false if the operation was cancelled; the caller must then abort the output.
+     */
+    public static boolean pack(File directory, WritableByteChannel out, AtomicBoolean cancellationFlag, ProgressChannel.FileProgress progress) throws IOException {
+        Path root = directory.toPath();
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = walk.filter(path -> !path.equals(root)).sorted().toList();
+        }
+        long totalBytes = 0;
+        for (Path path : paths) {
+            if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) totalBytes += Files.size(path);
+        }
+
+        List<Entry> entries = new ArrayList<>(paths.size());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+        long offset = 0;
+        for (Path path : paths) {
+            if (cancellationFlag.get()) return false;
+            String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+            long modified = Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toMillis();
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                entries.add(new Entry(name, true, offset, 0, modified));
+                continue;
+            }
+            if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                logger.info("Skipping {}: not a regular file.", path);
+                continue;
+            }
+            long size = 0;
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (in.read(buffer.clear()) >= 0) {
+                    buffer.flip();
+                    size += buffer.remaining();
+                    while (buffer.hasRemaining()) out.write(buffer);
+                    progress.update(offset + size, totalBytes);
+                }
+            }
+            entries.add(new Entry(name, false, offset, size, modified));
+            offset += size;
+        }
+
+        byte[] toc = encodeToc(entries);
+        out.write(ByteBuffer.wrap(toc));
+        out.write(ByteBuffer.allocate(FOOTER_LENGTH).putLong(toc.length).put(TOC_MAGIC).flip());
+        logger.debug("Packed {} entries, {} bytes of file data.", entries.size(), offset);
+        return true;
+    }
+
+    /** Reads the table of contents from the end of a decrypting channel. */
+    public static List<Entry> list(SeekableByteChannel archive) throws IOException, CryptoException {
+        long size = archive.size();
+        if (size < FOOTER_LENGTH) throw new CryptoException("Invalid archive: missing table of contents.");
+        ByteBuffer footer = readAt(archive, size - FOOTER_LENGTH, FOOTER_LENGTH);
+        long tocLength = footer.getLong();
+        byte[] magic = new byte[TOC_MAGIC.length];
+        footer.get(magic);
+        if (!Arrays.equals(magic, TOC_MAGIC) || tocLength < Integer.BYTES || tocLength > Math.min(Integer.MAX_VALUE, size - FOOTER_LENGTH)) {
+            throw new CryptoException("Invalid archive: corrupt table of contents.");
+        }
+        long dataEnd = size - FOOTER_LENGTH - tocLength;
+        ByteBuffer toc = readAt(archive, dataEnd, (int) tocLength);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(toc.array()))) {
+            int count = in.readInt();
+            if (count < 0) throw new CryptoException("Invalid archive: corrupt table of contents.");
+            List<Entry> entries = new ArrayList<>(Math.min(count, 1 << 16));
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readBoolean(), in.readLong(), in.readLong(), in.readLong());
+                if (entry.offset() < 0 || entry.size() < 0 || entry.offset() + entry.size() > dataEnd) {
+                    throw new CryptoException("Invalid archive: entry " + entry.path() + " lies outside the file data.");
+                }
+                entries.add(entry);
+            }
+            return Collections.unmodifiableList(entries);
+        }
+    }
+
+    /** Writes one file entry to {@code target}, decrypting only the segments it spans. */
+    public static void extract(SeekableByteChannel archive, Entry entry, Path target) throws IOException {
+        if (entry.directory()) {
+            Files.createDirectories(target);
+        } else {
+            if (target.getParent() != null) Files.createDirectories(target.getParent());
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE, Math.max(1, entry.size())));
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                copy(archive, entry.offset(), entry.size(), out, buffer);
+            }
+        }
+        Files.setLastModifiedTime(target, FileTime.fromMillis(entry.lastModified()));
+    }
+
+    /**
+     * Extracts every entry below {@code targetDirectory}.
+     *
+     * @return false if the operation was cancelled before all entries were written.
+     */
+    public static boolean extractAll(SeekableByteChannel archive, Path targetDirectory, AtomicBoolean cancellationFlag,
+                                     ProgressChannel.FileProgress progress) throws IOException, CryptoException {
+        List<Entry> entries = list(archive);
+        long totalBytes = 0;
+        for (Entry entry : entries) totalBytes += entry.size();
+
+        Files.createDirectories(targetDirectory);
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long done = 0;
+        for (Entry entry : entries) {
+            if (cancellationFlag.get()) return false;
+            Path target = resolve(targetDirectory, entry);
+            if (entry.directory()) {
+                Files.createDirectories(target);
+                continue;
+            }
+            Files.createDirectories(target.getParent());
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                copy(archive, entry.offset(), entry.size(), out, buffer);
+            }
+            Files.setLastModifiedTime(target, FileTime.fromMillis(entry.lastModified()));
+            done += entry.size();
+            progress.update(done, totalBytes);
+        }
+        // Directory times last, since creating their children touched them.
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            if (entry.directory()) Files.setLastModifiedTime(resolve(targetDirectory, entry), FileTime.fromMillis(entry.lastModified()));
+        }
+        return true;
+    }
+
+    /** Maps an entry below the target directory, rejecting names that would escape it. */
+    public static Path resolve(Path targetDirectory, Entry entry) throws CryptoException {
+        Path base = targetDirectory.toAbsolutePath().normalize();
+        Path target = base.resolve(entry.path()).normalize();
+        if (entry.path().isEmpty() || !target.startsWith(base) || target.equals(base)) {
+            throw new CryptoException("Invalid archive: entry name " + entry.path() + " points outside the target directory.");
+        }
+        return target;
+    }
+
+    private static void copy(SeekableByteChannel archive, long offset, long length, FileChannel out, ByteBuffer buffer) throws IOException {
+        archive.position(offset);
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+            int read = archive.read(buffer);
+            if (read < 0) throw new IOException("Archive ended inside an entry.");
+            buffer.flip();
+            while (buffer.hasRemaining()) out.write(buffer);
+            remaining -= read;
+        }
+    }
+
+    private static byte[] encodeToc(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.path());
+                out.writeBoolean(entry.directory());
+                out.writeLong(entry.offset());
+                out.writeLong(entry.size());
+                out.writeLong(entry.lastModified());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ByteBuffer readAt(SeekableByteChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        channel.position(position);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Unexpected end of archive at offset " + (position + buffer.position()));
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.cryptotool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.Provider;
+import java.util.function.IntFunction;
+import java.util.zip.DataFormatException;
+
+/**
+ * Read-only, seekable view of the plaintext inside a segmented container.
+ * <p>
+ * Reads decrypt and authenticate only the segments they touch, located through the container's
+ * {@link SegmentIndex}. The most recently opened segment is kept, so sequential reads open each
+ * segment once. The final segment is authenticated when the channel is opened, which makes
+ * {@link #size()} trustworthy before any data is read. Compressed segments are inflated as they are
+ * opened; plaintext segment boundaries are the same as without compression. Legacy single-GCM files
+ * are not seekable.
+ */
+public class EncryptedFileChannel implements SeekableByteChannel {
+    private final FileChannel channel;
+    private final FileHeader header;
+    private final SegmentIndex index;
+    private final SegmentCipher segmentCipher;
+    private final long size;
+    private final ByteBuffer sealed;
+    private final ByteBuffer plaintext;
+    private final ByteBuffer framed;
+    private long cachedSegment = -1;
+    private long position;
+
+    private EncryptedFileChannel(FileChannel channel, FileHeader header, SegmentIndex index, SegmentCipher segmentCipher) throws IOException, CryptoException {
+        this.channel = channel;
+        this.header = header;
+        this.index = index;
+        this.segmentCipher = segmentCipher;
+        this.sealed = ByteBuffer.allocate(header.maxSealedSegmentSize());
+        this.plaintext = ByteBuffer.allocate(header.getSegmentSize());
+        this.framed = header.isCompressed() ? ByteBuffer.allocate(header.getSegmentSize() + SegmentCompressor.FRAME_OVERHEAD) : null;
+
+        long lastSegment = index.segmentCount() - 1;
+        loadSegment(lastSegment);
+        this.size = lastSegment * header.getSegmentSize() + plaintext.limit();
+        if (size != index.plaintextLength()) {
+            throw new CryptoException("Invalid file format: segment index does not match the encrypted data.");
+        }
+    }
+
+    /** {@code providers} maps an algorithm id to its JCA provider, or null for the default. */
+    public static EncryptedFileChannel open(KeySession session, Path path, IntFunction<Provider> providers) throws IOException, CryptoException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            FileHeader header = FileHeader.read(Channels.newInputStream(channel));
+            SegmentIndex index = SegmentIndex.load(channel, header);
+            if (!header.isCompressed() && !index.isFixedLayout(header.getSegmentSize() + SegmentCipher.TAG_LENGTH_BYTES)) {
+                throw new CryptoException("Invalid file format: unexpected segment layout.");
+            }
+            SegmentCipher segmentCipher = new SegmentCipher(session.keyFor(header), header, providers.apply(header.getAlgorithm()))
+                    .resumedAt(index.resumes());
+            return new EncryptedFileChannel(channel, header, index, segmentCipher);
+        } catch (IOException | CryptoException | RuntimeException e) {
+            channel.close();
+            throw e;
+        } catch (Exception e) {
+            channel.close();
+            throw new CryptoException("Could not open encrypted file: " + e.getMessage(), e);
+        }
+    }
+
+    public FileHeader header() {
+        return header;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) return -1;
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            long segment = position / header.getSegmentSize();
+            try {
+                loadSegment(segment);
+            } catch (CryptoException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            int offsetInSegment = (int) (position - segment * header.getSegmentSize());
+            int count = Math.min(dst.remaining(), plaintext.limit() - offsetInSegment);
+            dst.put(plaintext.duplicate().position(offsetInSegment).limit(offsetInSegment + count));
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    private void loadSegment(long segment) throws IOException, CryptoException {
+        if (segment == cachedSegment) return;
+        cachedSegment = -1;
+        sealed.clear().limit(index.sealedLength(segment));
+        long offset = index.offset(segment);
+        while (sealed.hasRemaining()) {
+            if (channel.read(sealed, offset + sealed.position()) < 0) {
+                throw new CryptoException("Invalid file format: truncated segment data.");
+            }
+        }
+        sealed.flip();
+        plaintext.clear();
+        boolean last = segment == index.segmentCount() - 1;
+        try {
+            if (framed == null) {
+                segmentCipher.open(segment, last, sealed, plaintext);
+            } else {
+                segmentCipher.open(segment, last, sealed, framed.clear());
+            }
+        } catch (Exception e) {
+            throw new CryptoException("Segment " + segment + " failed authentication: " + e.getMessage(), e);
+        }
+        if (framed != null) {
+            try {
+                SegmentCompressor.expand(framed.flip(), plaintext);
+            } catch (DataFormatException e) {
+                throw new CryptoException("Segment " + segment + " could not be decompressed: " + e.getMessage(), e);
+            }
+            if (!last && plaintext.position() != header.getSegmentSize()) {
+                throw new CryptoException("Invalid file format: segment " + segment + " has the wrong plaintext length.");
+            }
+        }
+        plaintext.flip();
+        cachedSegment = segment;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("Negative position: " + newPosition);
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!channel.isOpen()) throw new ClosedChannelException();
+    }
+}
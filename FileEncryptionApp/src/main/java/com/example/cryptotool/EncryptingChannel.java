@@ -0,0 +1,113 @@
+package com.example.cryptotool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Writes a segmented container from plaintext of unknown length, such as a stream of many files.
+ * <p>
+ * The header goes out on creation. Plaintext collects in one segment buffer, and a full segment is
+ * sealed only once more data arrives, so the final segment can carry the final flag. Closing seals
+ * the last segment, appends the index trailer and closes the target. Sealing happens on the calling
+ * thread; {@link CryptoService} uses its parallel pipeline whenever the input is a file.
+ */
+public class EncryptingChannel implements WritableByteChannel {
+    private final WritableByteChannel out;
+    private final SegmentCipher cipher;
+    private final int compressionLevel;
+    private final ByteBuffer pending;
+    private final ByteBuffer framed;
+    private final ByteBuffer sealed;
+    private int[] sealedLengths = new int[16];
+    private long segments;
+    private long plaintextLength;
+    private boolean open = true;
+
+    /** Compresses with {@code compressionLevel} if the header has {@link FileHeader#FLAG_COMPRESSED}. */
+    public EncryptingChannel(WritableByteChannel out, FileHeader header, SegmentCipher cipher, int compressionLevel) throws IOException {
+        if ((header.getFlags() & FileHeader.FLAG_INDEX_TRAILER) == 0) {
+            throw new IllegalArgumentException("Streamed containers need an index trailer.");
+        }
+        this.out = out;
+        this.cipher = cipher;
+        this.compressionLevel = header.isCompressed() ? Math.max(1, compressionLevel) : SegmentCompressor.NO_COMPRESSION;
+        this.pending = ByteBuffer.allocateDirect(header.getSegmentSize());
+        this.framed = header.isCompressed() ? ByteBuffer.allocateDirect(header.getSegmentSize() + SegmentCompressor.FRAME_OVERHEAD) : null;
+        this.sealed = ByteBuffer.allocateDirect(header.maxSealedSegmentSize());
+        writeFully(ByteBuffer.wrap(header.encoded()));
+    }
+
+    /** Plaintext bytes written so far. */
+    public long position() {
+        return plaintextLength;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) throw new ClosedChannelException();
+        int count = src.remaining();
+        while (src.hasRemaining()) {
+            if (!pending.hasRemaining()) sealPending(false);
+            int chunk = Math.min(pending.remaining(), src.remaining());
+            pending.put(src.duplicate().limit(src.position() + chunk));
+            src.position(src.position() + chunk);
+        }
+        plaintextLength += count;
+        return count;
+    }
+
+    private void sealPending(boolean last) throws IOException {
+        pending.flip();
+        sealed.clear();
+        try {
+            if (framed == null) {
+                cipher.seal(segments, last, pending, sealed);
+            } else {
+                SegmentCompressor.compress(pending, framed.clear(), compressionLevel);
+                cipher.seal(segments, last, framed.flip(), sealed);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not seal segment " + segments + ": " + e.getMessage(), e);
+        }
+        sealed.flip();
+        if (segments == sealedLengths.length) sealedLengths = Arrays.copyOf(sealedLengths, sealedLengths.length * 2);
+        sealedLengths[(int) segments++] = sealed.remaining();
+        writeFully(sealed);
+        pending.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /** Closes the target without sealing a final segment; the partial output never authenticates as complete. */
+    public void abort() throws IOException {
+        if (!open) return;
+        open = false;
+        out.close();
+    }
+
+    /** Seals the final segment, writes the index trailer and closes the target channel. */
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+        try {
+            sealPending(true);
+            writeFully(SegmentIndex.encodeTrailer(sealedLengths, (int) segments, plaintextLength));
+        } finally {
+            out.close();
+        }
+    }
+}
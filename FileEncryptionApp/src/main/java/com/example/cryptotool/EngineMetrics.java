@@ -0,0 +1,180 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-file instrumentation of a {@link CryptoService}: counts, bytes, key derivation and pipeline
+ * stage times, and histograms of file time, key derivation time and file throughput.
+ * <p>
+ * Files are recorded once, when they finish. The segment loop keeps adding to the
+ * {@link PipelineStats} it already had, so the instrumentation costs nothing per segment. Each file
+ * is also emitted as a {@link FileCryptoEvent} when Flight Recorder is on. The totals can be
+ * registered as an MXBean and logged periodically.
+ */
+public class EngineMetrics implements EngineMetricsMXBean, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(EngineMetrics.class);
+    private static final String DOMAIN = "com.example.cryptotool";
+    /** Smaller files are dominated by open and key setup, so their throughput says little about the engine. */
+    private static final long MIN_THROUGHPUT_BYTES = 1_000_000;
+
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder kdfNanos = new LongAdder();
+    private final LongAdder fileNanos = new LongAdder();
+    private volatile PipelineStats pipeline = new PipelineStats();
+    private final Histogram fileMillis = new Histogram();
+    private final Histogram kdfMillis = new Histogram();
+    private final Histogram fileKilobytesPerSecond = new Histogram();
+    private ScheduledExecutorService summaryLog;
+    private ObjectName objectName;
+
+    /**
+     * Records a finished file, or a stream or buffer given by a placeholder {@code source}.
+     *
+     * @param kdfNanos time the file's thread spent deriving or waiting for keys
+     * @param stats    pipeline stages of this file alone; empty for archives and chunk stores
+     * @param event    the file's Flight Recorder event, begun when the file started
+     */
+    void recordFile(String operation, String source, BatchExecutor.Outcome outcome, long fileBytes, long nanos, long kdfNanos,
+                    PipelineStats stats, FileCryptoEvent event, Exception error) {
+        switch (outcome) {
+            case SUCCESS -> succeeded.increment();
+            case CANCELLED -> cancelled.increment();
+            case FAILED -> failed.increment();
+        }
+        if (outcome == BatchExecutor.Outcome.SUCCESS) bytes.add(fileBytes);
+        this.kdfNanos.add(kdfNanos);
+        fileNanos.add(nanos);
+        pipeline.add(stats);
+        fileMillis.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+        kdfMillis.record(TimeUnit.NANOSECONDS.toMillis(kdfNanos));
+        if (outcome == BatchExecutor.Outcome.SUCCESS && fileBytes >= MIN_THROUGHPUT_BYTES) {
+            fileKilobytesPerSecond.record((long) (fileBytes * 1e6 / Math.max(1, nanos)));
+        }
+
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.path = source;
+            event.outcome = outcome.name();
+            event.bytes = fileBytes;
+            event.kdfTime = kdfNanos;
+            event.readTime = stats.getReadNanos();
+            event.cipherTime = stats.getCipherNanos();
+            event.writeTime = stats.getWriteNanos();
+            event.error = error == null ? null : error.getMessage();
+            event.commit();
+        }
+    }
+
+    /** Registers the totals as {@code com.example.cryptotool:type=EngineMetrics,name=NAME}; failures are only logged. */
+    public synchronized void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName candidate = new ObjectName(DOMAIN + ":type=EngineMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, candidate);
+            objectName = candidate;
+        } catch (JMException e) {
+            logger.warn("Could not register engine metrics MBean '{}': {}", name, e.getMessage());
+        }
+    }
+
+    /** Logs the summary at info level every {@code interval}, skipping intervals in which no file finished. */
+    public synchronized void startSummaryLog(Duration interval) {
+        if (summaryLog != null) return;
+        summaryLog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "engine-metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] lastFiles = {0};
+        summaryLog.scheduleAtFixedRate(() -> {
+            long files = getFilesSucceeded() + getFilesFailed() + getFilesCancelled();
+            if (files == lastFiles[0]) return;
+            lastFiles[0] = files;
+            logger.info("Engine metrics: {}", getSummary());
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops the summary log and unregisters the MBean. */
+    @Override
+    public synchronized void close() {
+        if (summaryLog != null) summaryLog.shutdownNow();
+        summaryLog = null;
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.debug("Could not unregister {}: {}", objectName, e.getMessage());
+            }
+            objectName = null;
+        }
+    }
+
+    @Override public long getFilesSucceeded() { return succeeded.sum(); }
+    @Override public long getFilesFailed() { return failed.sum(); }
+    @Override public long getFilesCancelled() { return cancelled.sum(); }
+    @Override public long getBytesProcessed() { return bytes.sum(); }
+
+    @Override public double getKdfSeconds() { return kdfNanos.sum() / 1e9; }
+    @Override public double getReadSeconds() { return pipeline.getReadNanos() / 1e9; }
+    @Override public double getCipherSeconds() { return pipeline.getCipherNanos() / 1e9; }
+    @Override public double getWriteSeconds() { return pipeline.getWriteNanos() / 1e9; }
+    @Override public double getFileSeconds() { return fileNanos.sum() / 1e9; }
+
+    @Override
+    public double getMegabytesPerSecond() {
+        return getBytesProcessed() / 1e6 / Math.max(getFileSeconds(), 1e-9);
+    }
+
+    @Override public long getFileMillisP50() { return fileMillis.percentile(0.50); }
+    @Override public long getFileMillisP95() { return fileMillis.percentile(0.95); }
+    @Override public long getFileMillisP99() { return fileMillis.percentile(0.99); }
+    @Override public long getFileMillisMax() { return fileMillis.getMax(); }
+    @Override public long getKdfMillisP50() { return kdfMillis.percentile(0.50); }
+    @Override public long getKdfMillisP99() { return kdfMillis.percentile(0.99); }
+    @Override public long getFileMegabytesPerSecondP5() { return fileKilobytesPerSecond.percentile(0.05) / 1000; }
+    @Override public long getFileMegabytesPerSecondP50() { return fileKilobytesPerSecond.percentile(0.50) / 1000; }
+
+    @Override
+    public String getBottleneck() {
+        return pipeline.getSegments() == 0 ? "unknown" : pipeline.bottleneck();
+    }
+
+    @Override
+    public String getSummary() {
+        return String.format(Locale.ROOT,
+                "%d files (%d failed, %d cancelled), %.1f MB at %.1f MB/s per file; file p50/p95/p99 %d/%d/%d ms; "
+                        + "kdf %.2fs (p99 %d ms); read %.2fs, cipher %.2fs, write %.2fs; %s",
+                getFilesSucceeded() + getFilesFailed() + getFilesCancelled(), getFilesFailed(), getFilesCancelled(),
+                getBytesProcessed() / 1e6, getMegabytesPerSecond(), getFileMillisP50(), getFileMillisP95(), getFileMillisP99(),
+                getKdfSeconds(), getKdfMillisP99(), getReadSeconds(), getCipherSeconds(), getWriteSeconds(), getBottleneck());
+    }
+
+    @Override
+    public void reset() {
+        succeeded.reset();
+        failed.reset();
+        cancelled.reset();
+        bytes.reset();
+        kdfNanos.reset();
+        fileNanos.reset();
+        pipeline = new PipelineStats();
+        fileMillis.reset();
+        kdfMillis.reset();
+        fileKilobytesPerSecond.reset();
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.cryptotool;
+
+/**
+ * Management view of {@link EngineMetrics}. Durations are in milliseconds unless named otherwise;
+ * percentiles are within 25% of the true value.
+ */
+public interface EngineMetricsMXBean {
+    long getFilesSucceeded();
+    long getFilesFailed();
+    long getFilesCancelled();
+    long getBytesProcessed();
+
+    double getKdfSeconds();
+    double getReadSeconds();
+    double getCipherSeconds();
+    double getWriteSeconds();
+    double getFileSeconds();
+
+    /** Bytes over the summed time of the files, so concurrent files do not inflate it. */
+    double getMegabytesPerSecond();
+
+    long getFileMillisP50();
+    long getFileMillisP95();
+    long getFileMillisP99();
+    long getFileMillisMax();
+    long getKdfMillisP50();
+    long getKdfMillisP99();
+    /** Throughput of the slowest files; files under 1 MB are left out, as their time is mostly setup. */
+    long getFileMegabytesPerSecondP5();
+    long getFileMegabytesPerSecondP50();
+
+    String getBottleneck();
+    String getSummary();
+
+    void reset();
+}
@@ -0,0 +1,165 @@
+package com.example.cryptotool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar store of the files in a batch, sized for millions of rows.
+ * <p>
+ * A row is a parent directory index, a file name kept in one shared character array, a size and a
+ * one-byte status. Nothing is looked up when rows are added: sizes are read the first time a row is
+ * asked for one, which in the UI means only for the rows on screen. Parent directories are stored
+ * once, so a row costs about two bytes per name character plus 17 bytes, whatever the path depth.
+ * Rows are added and removed on one thread; statuses may be set from any thread.
+ */
+public class FileBatch {
+    private static final long UNKNOWN_SIZE = -1;
+    private static final long DIRECTORY = -2;
+    private static final int INITIAL_ROWS = 64;
+
+    public enum Status {
+        READY("Ready"), ENCRYPTING("Encrypting..."), DECRYPTING("Decrypting..."), SUCCESS("Success"),
+        CANCELLED("Cancelled"), FAILED("Failed"), SHRED_FAILED("Failed (shred)");
+
+        private final String label;
+
+        Status(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private static final Status[] STATUSES = Status.values();
+
+    private final List<String> directories = new ArrayList<>();
+    private final Map<String, Integer> directoryIndex = new HashMap<>();
+    private int[] parents = new int[INITIAL_ROWS];
+    private int[] nameEnds = new int[INITIAL_ROWS];
+    private long[] sizes = new long[INITIAL_ROWS];
+    private byte[] statuses = new byte[INITIAL_ROWS];
+    private char[] names = new char[INITIAL_ROWS * 16];
+    private int nameLength;
+    private int rows;
+
+    public synchronized int size() {
+        return rows;
+    }
+
+    /** Appends a row; pass {@code directory} for a folder added as a whole. */
+    public synchronized void add(File file, boolean directory) {
+        if (rows == parents.length) {
+            int capacity = rows * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            nameEnds = Arrays.copyOf(nameEnds, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            statuses = Arrays.copyOf(statuses, capacity);
+        }
+        String name = file.getName();
+        if (nameLength + name.length() > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, nameLength + name.length()));
+        }
+        name.getChars(0, name.length(), names, nameLength);
+        nameLength += name.length();
+
+        String parent = file.getAbsoluteFile().getParent();
+        Integer index = directoryIndex.get(parent);
+        if (index == null) {
+            index = directories.size();
+            directories.add(parent);
+            directoryIndex.put(parent, index);
+        }
+        parents[rows] = index;
+        nameEnds[rows] = nameLength;
+        sizes[rows] = directory ? DIRECTORY : UNKNOWN_SIZE;
+        statuses[rows] = (byte) Status.READY.ordinal();
+        rows++;
+    }
+
+    public synchronized String name(int row) {
+        int start = row == 0 ? 0 : nameEnds[row - 1];
+        return new String(names, start, nameEnds[row] - start);
+    }
+
+    public synchronized File file(int row) {
+        return new File(directories.get(parents[row]), name(row));
+    }
+
+    public synchronized boolean isDirectory(int row) {
+        return sizes[row] == DIRECTORY;
+    }
+
+    /** Size in bytes, read from the file system on first use and cached. */
+    public long length(int row) {
+        File file;
+        synchronized (this) {
+            if (sizes[row] != UNKNOWN_SIZE) return Math.max(0, sizes[row]);
+            file = file(row);
+        }
+        long length = file.length();
+        synchronized (this) {
+            // The row may have moved while the file was read; then the next call reads it again.
+            if (row < rows && sizes[row] == UNKNOWN_SIZE && file.equals(file(row))) sizes[row] = length;
+        }
+        return length;
+    }
+
+    public synchronized Status status(int row) {
+        return STATUSES[statuses[row]];
+    }
+
+    public synchronized void setStatus(int row, Status status) {
+        if (row < rows) statuses[row] = (byte) status.ordinal();
+    }
+
+    /** Index of the row holding {@code file}, or -1. A linear scan, meant for rare lookups. */
+    public synchronized int indexOf(File file) {
+        File absolute = file.getAbsoluteFile();
+        for (int row = 0; row < rows; row++) {
+            if (absolute.equals(file(row))) return row;
+        }
+        return -1;
+    }
+
+    /** Removes the given rows, which must be sorted ascending; later rows move up. */
+    public synchronized void remove(int[] sortedRows) {
+        int write = 0;
+        int writeName = 0;
+        int next = 0;
+        for (int row = 0; row < rows; row++) {
+            int start = row == 0 ? 0 : nameEnds[row - 1];
+            int end = nameEnds[row];
+            if (next < sortedRows.length && sortedRows[next] == row) {
+                next++;
+                continue;
+            }
+            System.arraycopy(names, start, names, writeName, end - start);
+            writeName += end - start;
+            parents[write] = parents[row];
+            nameEnds[write] = writeName;
+            sizes[write] = sizes[row];
+            statuses[write] = statuses[row];
+            write++;
+        }
+        rows = write;
+        nameLength = writeName;
+    }
+
+    public synchronized void clear() {
+        directories.clear();
+        directoryIndex.clear();
+        parents = new int[INITIAL_ROWS];
+        nameEnds = new int[INITIAL_ROWS];
+        sizes = new long[INITIAL_ROWS];
+        statuses = new byte[INITIAL_ROWS];
+        names = new char[INITIAL_ROWS * 16];
+        nameLength = 0;
+        rows = 0;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.cryptotool;
+
+import javafx.collections.ObservableListBase;
+
+import java.io.File;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Observable list over a {@link FileBatch} for the file table. Rows are materialized only when the
+ * table asks for them, and status changes are shown by refreshing the visible cells rather than by
+ * one change event per file. Mutations must happen on the JavaFX application thread.
+ */
+public class FileBatchList extends ObservableListBase<FileStatusItem> {
+    private final FileBatch batch;
+
+    public FileBatchList(FileBatch batch) {
+        this.batch = batch;
+    }
+
+    public FileBatch batch() {
+        return batch;
+    }
+
+    @Override
+    public FileStatusItem get(int index) {
+        if (index < 0 || index >= batch.size()) throw new IndexOutOfBoundsException(index);
+        return new FileStatusItem(batch, index);
+    }
+
+    @Override
+    public int size() {
+        return batch.size();
+    }
+
+    /** Appends files; a directory becomes a single row for an archive. */
+    public void addFiles(List<File> files, boolean mayContainDirectories) {
+        if (files.isEmpty()) return;
+        int from = batch.size();
+        for (File file : files) {
+            batch.add(file, mayContainDirectories && file.isDirectory());
+        }
+        beginChange();
+        nextAdd(from, batch.size());
+        endChange();
+    }
+
+    /** Removes the given rows, which must be sorted ascending. */
+    public void removeRows(int[] sortedRows) {
+        if (sortedRows.length == 0) return;
+        batch.remove(sortedRows);
+        beginChange();
+        for (int i = 0; i < sortedRows.length; i++) {
+            nextRemove(sortedRows[i] - i, new FileStatusItem(batch, sortedRows[i]));
+        }
+        endChange();
+    }
+
+    @Override
+    public void clear() {
+        int removed = batch.size();
+        if (removed == 0) return;
+        batch.clear();
+        beginChange();
+        nextRemove(0, new AbstractList<FileStatusItem>() {
+            @Override
+            public FileStatusItem get(int index) {
+                return new FileStatusItem(batch, index);
+            }
+
+            @Override
+            public int size() {
+                return removed;
+            }
+        });
+        endChange();
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.cryptotool;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one encrypted, decrypted or verified file. The event's duration is the
+ * whole operation; the timespans split it the way {@link PipelineStats} does.
+ */
+@Name("com.example.cryptotool.FileOperation")
+@Label("File Crypto Operation")
+@Category("File Crypter Pro")
+@Description("One file processed by the crypto engine")
+@StackTrace(false)
+public class FileCryptoEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String path;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Key Derivation Time")
+    @Description("Time spent deriving or waiting for the key, including waits on another thread's derivation")
+    @Timespan
+    long kdfTime;
+
+    @Label("Read Time")
+    @Timespan
+    long readTime;
+
+    @Label("Cipher Time")
+    @Description("Cipher time summed over the worker threads")
+    @Timespan
+    long cipherTime;
+
+    @Label("Write Time")
+    @Timespan
+    long writeTime;
+
+    @Label("Error")
+    String error;
+}
@@ -0,0 +1,70 @@
+package com.example.cryptotool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Inputs of a batch that may still be growing, for instance while a {@link FileTreeWalker} is
+ * discovering them. Producers add files and close the feed once nothing more will come; the
+ * {@link BatchExecutor} takes files as they arrive.
+ */
+public class FileFeed {
+    private static final long POLL_MILLIS = 100;
+
+    private final LinkedBlockingQueue<File> queue = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    /** A feed that already holds every file and is closed. */
+    public static FileFeed of(Collection<File> files) {
+        FileFeed feed = new FileFeed();
+        feed.addAll(files);
+        feed.close();
+        return feed;
+    }
+
+    public void addAll(Collection<File> files) {
+        if (closed) throw new IllegalStateException("File feed is closed.");
+        queue.addAll(files);
+    }
+
+    /** Signals that no more files will be added. */
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /** Removes and returns the files not taken yet, for instance after the consumer was cancelled. */
+    public List<File> drain() {
+        List<File> left = new ArrayList<>();
+        queue.drainTo(left);
+        return left;
+    }
+
+    /** Files added but not yet taken. */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the next file, waiting for one if the feed is still open. Returns null once the feed
+     * is closed and drained, or as soon as the cancellation flag is set.
+     */
+    public File next(AtomicBoolean cancellationFlag) throws InterruptedException {
+        while (!cancellationFlag.get()) {
+            // Read before polling, so a file added just before close() is never missed.
+            boolean drained = closed;
+            File file = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (file != null) return file;
+            if (drained) return null;
+        }
+        return null;
+    }
+}
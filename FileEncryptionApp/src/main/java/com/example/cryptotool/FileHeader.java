@@ -0,0 +1,162 @@
+package com.example.cryptotool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Header of the segmented container format.
+ * <p>
+ * Layout: magic (6) | version (1) | header length (2) | algorithm (1) | kdf (1) | flags (1) |
+ * segment size (4) | nonce prefix (7) | salt (16) | file salt (16, for every kdf but {@link #KDF_PBKDF2}).
+ * The complete header is bound to every segment as associated data, so any modification fails
+ * authentication.
+ * <p>
+ * With {@link #KDF_PBKDF2} the salt feeds PBKDF2 directly. With the HKDF schemes the salt is the
+ * batch salt of the stretched master key and the file salt selects this file's key via HKDF.
+ * {@link #KDF_PBKDF2_HKDF} stretches the password and the key file's bytes together;
+ * {@link #KDF_KEY_FILE_DIGEST} stretches the password alone and mixes in a digest of the key file.
+ */
+public class FileHeader {
+    public static final byte[] MAGIC = {'F', 'C', 'R', 'Y', 'P', 'T'};
+    public static final int VERSION = 1;
+
+    public static final int ALGORITHM_AES_256_GCM = 1;
+    /** For hosts without AES instructions, where it runs several times faster than software AES-GCM. */
+    public static final int ALGORITHM_CHACHA20_POLY1305 = 2;
+    public static final int KDF_PBKDF2 = 1;
+    public static final int KDF_PBKDF2_HKDF = 2;
+    public static final int KDF_KEY_FILE_DIGEST = 3;
+
+    /** The file ends with a {@link SegmentIndex} trailer after the final segment. */
+    public static final int FLAG_INDEX_TRAILER = 0x01;
+    /** Every segment holds a {@link SegmentCompressor} frame instead of raw plaintext; requires the trailer. */
+    public static final int FLAG_COMPRESSED = 0x02;
+    /** The plaintext is an {@link EncryptedArchive} of a directory tree rather than a single file. */
+    public static final int FLAG_ARCHIVE = 0x04;
+    /** The plaintext is the manifest of a {@link ChunkStore} next to the file rather than the file content. */
+    public static final int FLAG_CHUNKED = 0x08;
+
+    public static final int NONCE_PREFIX_LENGTH = 7;
+    public static final int SALT_LENGTH = 16;
+    public static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int FIXED_LENGTH = MAGIC.length + 1 + 2 + 1 + 1 + 1 + 4 + NONCE_PREFIX_LENGTH + SALT_LENGTH;
+    /** Length of a header with a file salt, the longest there is. */
+    public static final int MAX_LENGTH = FIXED_LENGTH + SALT_LENGTH;
+
+    private final int algorithm;
+    private final int kdf;
+    private final int flags;
+    private final int segmentSize;
+    private final byte[] noncePrefix;
+    private final byte[] salt;
+    private final byte[] fileSalt;
+    private final byte[] encoded;
+
+    public FileHeader(int algorithm, int kdf, int flags, int segmentSize, byte[] noncePrefix, byte[] salt) {
+        this(algorithm, kdf, flags, segmentSize, noncePrefix, salt, null);
+    }
+
+    public FileHeader(int algorithm, int kdf, int flags, int segmentSize, byte[] noncePrefix, byte[] salt, byte[] fileSalt) {
+        if ((kdf != KDF_PBKDF2) != (fileSalt != null)) {
+            throw new IllegalArgumentException("A file salt is required exactly when an HKDF scheme is used.");
+        }
+        this.algorithm = algorithm;
+        this.kdf = kdf;
+        this.flags = flags;
+        this.segmentSize = segmentSize;
+        this.noncePrefix = noncePrefix.clone();
+        this.salt = salt.clone();
+        this.fileSalt = fileSalt == null ? null : fileSalt.clone();
+        this.encoded = encode();
+    }
+
+    public int getAlgorithm() { return algorithm; }
+    public int getKdf() { return kdf; }
+    public int getFlags() { return flags; }
+    public int getSegmentSize() { return segmentSize; }
+    public byte[] getNoncePrefix() { return noncePrefix.clone(); }
+    public byte[] getSalt() { return salt.clone(); }
+    public byte[] getFileSalt() { return fileSalt == null ? null : fileSalt.clone(); }
+    public int length() { return encoded.length; }
+    public boolean isCompressed() { return (flags & FLAG_COMPRESSED) != 0; }
+    public boolean isArchive() { return (flags & FLAG_ARCHIVE) != 0; }
+    public boolean isChunked() { return (flags & FLAG_CHUNKED) != 0; }
+
+    /** Upper bound of a sealed segment: the plaintext segment, its compression frame if any, and the tag. */
+    public int maxSealedSegmentSize() {
+        return segmentSize + (isCompressed() ? SegmentCompressor.FRAME_OVERHEAD : 0) + SegmentCipher.TAG_LENGTH_BYTES;
+    }
+
+    /** Returns the serialized header; callers must not modify the array. */
+    byte[] encoded() { return encoded; }
+
+    public byte[] toBytes() { return encoded.clone(); }
+
+    private byte[] encode() {
+        int headerLength = FIXED_LENGTH + (fileSalt == null ? 0 : SALT_LENGTH);
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength);
+        buffer.put(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.putShort((short) headerLength);
+        buffer.put((byte) algorithm);
+        buffer.put((byte) kdf);
+        buffer.put((byte) flags);
+        buffer.putInt(segmentSize);
+        buffer.put(noncePrefix);
+        buffer.put(salt);
+        if (fileSalt != null) buffer.put(fileSalt);
+        return buffer.array();
+    }
+
+    /** Returns true if the given leading bytes carry the container magic. */
+    public static boolean hasMagic(byte[] prefix) {
+        return prefix.length >= MAGIC.length && Arrays.equals(prefix, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    public static FileHeader read(InputStream in) throws IOException, CryptoException {
+        byte[] fixed = in.readNBytes(FIXED_LENGTH);
+        if (fixed.length != FIXED_LENGTH || !hasMagic(fixed)) {
+            throw new CryptoException("Invalid file format: missing container header.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(fixed, MAGIC.length, FIXED_LENGTH - MAGIC.length);
+        int version = buffer.get() & 0xFF;
+        int headerLength = buffer.getShort() & 0xFFFF;
+        if (version != VERSION || headerLength < FIXED_LENGTH) {
+            throw new CryptoException("Unsupported container version: " + version);
+        }
+        int algorithm = buffer.get() & 0xFF;
+        int kdf = buffer.get() & 0xFF;
+        int flags = buffer.get() & 0xFF;
+        int segmentSize = buffer.getInt();
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        buffer.get(noncePrefix);
+        byte[] salt = new byte[SALT_LENGTH];
+        buffer.get(salt);
+
+        if (algorithm != ALGORITHM_AES_256_GCM && algorithm != ALGORITHM_CHACHA20_POLY1305) {
+            throw new CryptoException("Unsupported algorithm id: " + algorithm);
+        }
+        if (kdf != KDF_PBKDF2 && kdf != KDF_PBKDF2_HKDF && kdf != KDF_KEY_FILE_DIGEST) {
+            throw new CryptoException("Unsupported key derivation id: " + kdf);
+        }
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new CryptoException("Invalid segment size: " + segmentSize);
+        }
+        if ((flags & FLAG_COMPRESSED) != 0 && (flags & FLAG_INDEX_TRAILER) == 0) {
+            throw new CryptoException("Invalid file format: compressed container without segment index.");
+        }
+
+        byte[] fileSalt = null;
+        if (kdf != KDF_PBKDF2) {
+            fileSalt = in.readNBytes(SALT_LENGTH);
+            if (fileSalt.length != SALT_LENGTH || headerLength != FIXED_LENGTH + SALT_LENGTH) {
+                throw new CryptoException("Invalid file format: truncated container header.");
+            }
+        } else if (headerLength != FIXED_LENGTH) {
+            throw new CryptoException("Invalid file format: unexpected header length " + headerLength);
+        }
+        return new FileHeader(algorithm, kdf, flags, segmentSize, noncePrefix, salt, fileSalt);
+    }
+}
@@ -1,33 +1,38 @@
 package com.example.cryptotool;
 
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.property.StringProperty;
-
 import java.io.File;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
+import java.util.Objects;
 
+/**
+ * View of one row of a {@link FileBatch}. Items are created on demand for the rows a table shows
+ * and hold no data of their own, so they are cheap to create and never need updating.
+ */
 public class FileStatusItem {
-    private final File file;
-    private final StringProperty fileName;
-    private final StringProperty fileSize;
-    private final StringProperty status;
+    private final FileBatch batch;
+    private final int row;
 
-    public FileStatusItem(File file) {
-        this.file = file;
-        this.fileName = new SimpleStringProperty(file.getName());
-        this.fileSize = new SimpleStringProperty(formatFileSize(file.length()));
-        this.status = new SimpleStringProperty("Ready");
+    public FileStatusItem(FileBatch batch, int row) {
+        this.batch = batch;
+        this.row = row;
     }
 
-    public File getFile() { return file; }
-    public String getFileName() { return fileName.get(); }
-    public StringProperty fileNameProperty() { return fileName; }
-    public String getFileSize() { return fileSize.get(); }
-    public StringProperty fileSizeProperty() { return fileSize; }
-    public String getStatus() { return status.get(); }
-    public void setStatus(String status) { this.status.set(status); }
-    public StringProperty statusProperty() { return status; }
+    public int getRow() { return row; }
+    public File getFile() { return batch.file(row); }
+    public String getFileName() { return batch.name(row); }
+    public String getFileSize() { return batch.isDirectory(row) ? "Folder" : formatFileSize(batch.length(row)); }
+    public String getStatus() { return batch.status(row).label(); }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FileStatusItem item && item.batch == batch && item.row == row;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(System.identityHashCode(batch), row);
+    }
 
     // Helper to format file size into KB, MB, etc.
     private static String formatFileSize(long bytes) {
@@ -0,0 +1,111 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Discovers the regular files below a set of directories on a background thread.
+ * <p>
+ * Files are handed to the listener in batches, at most every {@link #BATCH_INTERVAL_MILLIS} or
+ * {@link #BATCH_SIZE} files, so a consumer such as a table or a running batch can start on the
+ * first files while the walk goes on. Unreadable directories are skipped, symbolic links are not
+ * followed and chunk stores are never descended into. The walker has no UI dependencies; JavaFX
+ * callers hop to the application thread themselves.
+ */
+public class FileTreeWalker {
+    private static final Logger logger = LoggerFactory.getLogger(FileTreeWalker.class);
+    private static final int BATCH_SIZE = 1000;
+    private static final long BATCH_INTERVAL_MILLIS = 100;
+
+    public interface Listener {
+        /** Called from the walker thread with the files found since the previous batch. */
+        void onFilesFound(List<File> batch, long discovered);
+
+        /** Called once from the walker thread after the last batch. */
+        void onFinished(long discovered, boolean cancelled);
+    }
+
+    private final List<Path> roots;
+    private final Listener listener;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final Thread thread;
+    private List<File> batch = new ArrayList<>();
+    private long discovered;
+    private long lastFlush;
+
+    public FileTreeWalker(List<File> roots, Listener listener) {
+        this.roots = roots.stream().map(File::toPath).toList();
+        this.listener = listener;
+        this.thread = new Thread(this::walk, "file-walker");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /** Stops the walk at the next file; the listener still receives {@link Listener#onFinished}. */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    private void walk() {
+        lastFlush = System.nanoTime();
+        try {
+            for (Path root : roots) {
+                if (cancelled.get()) break;
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                        if (cancelled.get()) return FileVisitResult.TERMINATE;
+                        return ChunkStore.isStoreDirectory(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if (cancelled.get()) return FileVisitResult.TERMINATE;
+                        if (attributes.isRegularFile()) found(file.toFile());
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        logger.debug("Skipping {}: {}", file, e.toString());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Folder scan stopped early.", e);
+        } finally {
+            flush();
+            logger.info("Folder scan {}: {} files found.", cancelled.get() ? "cancelled" : "finished", discovered);
+            listener.onFinished(discovered, cancelled.get());
+        }
+    }
+
+    private void found(File file) {
+        batch.add(file);
+        discovered++;
+        if (batch.size() >= BATCH_SIZE || System.nanoTime() - lastFlush >= BATCH_INTERVAL_MILLIS * 1_000_000) flush();
+    }
+
+    private void flush() {
+        lastFlush = System.nanoTime();
+        if (batch.isEmpty()) return;
+        List<File> full = batch;
+        batch = new ArrayList<>();
+        listener.onFilesFound(full, discovered);
+    }
+}
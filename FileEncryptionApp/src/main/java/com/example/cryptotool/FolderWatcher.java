@@ -0,0 +1,362 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encrypts files as they arrive in a landing directory tree.
+ * <p>
+ * One thread takes {@link WatchService} events and keeps every file that was created or modified
+ * in a pending map; a file is only queued once it has gone {@link #setQuietMillis quiet} and its
+ * size and modification time are unchanged since the last look, so bursts of events and files
+ * still being copied in cost a map update each. Queued files go to a {@link FileFeed} that a
+ * single {@link BatchExecutor} run drains with the configured concurrency, all under one
+ * {@link KeySession}; the batch closes once nothing has arrived for the quiet period, and the next
+ * arrival opens a new one. Thread count is fixed whatever the arrival rate. Files whose encrypted
+ * output is already newer than they are are left alone, so restarting the watcher is idempotent.
+ */
+public class FolderWatcher implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FolderWatcher.class);
+    public static final long DEFAULT_QUIET_MILLIS = 2000;
+    private static final long TICK_MILLIS = 250;
+
+    /** Files waiting to become stable, queued for a worker, and being encrypted right now. */
+    public record Status(int pending, int queued, int active, long encrypted, long failed, int batches) {
+        public int queueDepth() {
+            return pending + queued + active;
+        }
+    }
+
+    public interface Listener {
+        default void onFileEncrypted(File file) {}
+
+        default void onFileFailed(File file, Exception error) {}
+
+        /** Called from the batch thread once a batch has drained and its key session is closed. */
+        default void onBatchFinished(int batch, int succeeded, int failed, long bytes, double seconds, Status status) {}
+    }
+
+    /** Size and modification time of a pending file when it was last looked at. */
+    private record Observation(long size, long modifiedMillis, long seenNanos) {}
+
+    private final Path root;
+    private final CryptoService cryptoService;
+    private final char[] password;
+    private final File keyFile;
+    private final int concurrency;
+    private final Shredder shredder;
+    private final Listener listener;
+    private final AtomicBoolean cancellationFlag;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Thread watcherThread;
+    private final ExecutorService batchRunner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "watch-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Owned by the watcher thread.
+    private final Map<Path, Observation> pending = new HashMap<>();
+    private FileFeed feed;
+    private long lastQueuedNanos;
+    // Shared with the batch threads. In-flight files map to their size when queued, as a shredded original reads as empty once done.
+    private final Map<Path, Long> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong encrypted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger batches = new AtomicInteger();
+    private volatile long quietMillis = DEFAULT_QUIET_MILLIS;
+    private volatile boolean stopping;
+
+    /**
+     * @param shredder         shredder for encrypted originals, or null to keep them
+     * @param cancellationFlag set to stop files in flight at their next segment boundary
+     */
+    public FolderWatcher(Path root, CryptoService cryptoService, char[] password, File keyFile, int concurrency,
+                         Shredder shredder, AtomicBoolean cancellationFlag, Listener listener) throws IOException {
+        if (!Files.isDirectory(root)) throw new NoSuchFileException(root.toString(), null, "not a directory");
+        this.root = root.toAbsolutePath().normalize();
+        this.cryptoService = cryptoService;
+        this.password = password.clone();
+        this.keyFile = keyFile;
+        this.concurrency = Math.max(1, concurrency);
+        this.shredder = shredder;
+        this.cancellationFlag = cancellationFlag;
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.watcherThread = new Thread(this::watch, "folder-watcher");
+        watcherThread.setDaemon(true);
+    }
+
+    /** How long a file must go without events and without changing before it is encrypted. */
+    public void setQuietMillis(long quietMillis) {
+        this.quietMillis = Math.max(TICK_MILLIS, quietMillis);
+    }
+
+    /** Registers the directory tree, picks up files already present, and starts watching. */
+    public void start() throws IOException {
+        register(root);
+        watcherThread.start();
+        logger.info("Watching {} for new files.", root);
+    }
+
+    public Status status() {
+        return new Status(pendingCount.get(), queuedCount.get(), activeCount.get(), encrypted.get(), failed.get(), batches.get());
+    }
+
+    /**
+     * Stops watching, lets queued files finish (or stop early if the cancellation flag is set) and
+     * waits for the last batch. Files still waiting to become stable are left for the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        stopping = true;
+        watchService.close();
+        try {
+            watcherThread.join();
+            batchRunner.shutdown();
+            while (!batchRunner.awaitTermination(1, TimeUnit.SECONDS)) {
+                logger.debug("Waiting for the last watch batch: {}", status());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    private void watch() {
+        try {
+            while (!stopping) {
+                WatchKey key = watchService.poll(TICK_MILLIS, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+                promoteStableFiles();
+                closeIdleBatch();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // close() was called.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Folder watcher stopped.", e);
+        } finally {
+            if (feed != null) feed.close();
+            pendingCount.set(0);
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were dropped; look at everything again rather than miss a file.
+                logger.warn("Watch events overflowed; rescanning {}.", root);
+                rescan(root);
+                continue;
+            }
+            if (directory == null) continue;
+            Path path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) rescan(path);
+            } else {
+                observe(path);
+            }
+        }
+        if (!key.reset()) watchedDirectories.remove(key);
+    }
+
+    /** Registers new directories below {@code start} and observes the files in them. */
+    private void rescan(Path start) {
+        try {
+            register(start);
+        } catch (IOException e) {
+            logger.warn("Could not watch {}: {}", start, e.toString());
+        }
+    }
+
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                if (ChunkStore.isStoreDirectory(dir)) return FileVisitResult.SKIP_SUBTREE;
+                if (!watchedDirectories.containsValue(dir)) {
+                    WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    watchedDirectories.put(key, dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) observe(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                logger.debug("Skipping {}: {}", file, e.toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void observe(Path path) {
+        if (!CryptoService.isCandidate(path, true)) return;
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return;
+        }
+        if (!attributes.isRegularFile()) return;
+        Observation observation = new Observation(attributes.size(), attributes.lastModifiedTime().toMillis(), System.nanoTime());
+        if (pending.put(path, observation) == null) pendingCount.incrementAndGet();
+    }
+
+    private void promoteStableFiles() {
+        long now = System.nanoTime();
+        long quietNanos = quietMillis * 1_000_000;
+        List<File> stable = new ArrayList<>();
+        Map<File, Long> sizes = new HashMap<>();
+        for (Iterator<Map.Entry<Path, Observation>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, Observation> entry = it.next();
+            Observation seen = entry.getValue();
+            if (now - seen.seenNanos() < quietNanos || inFlight.containsKey(entry.getKey())) continue;
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+            } catch (IOException e) {
+                it.remove();
+                continue;
+            }
+            if (!attributes.isRegularFile()) {
+                it.remove();
+                continue;
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (attributes.size() != seen.size() || modified != seen.modifiedMillis()) {
+                // Changed without an event reaching us yet: look again after another quiet period.
+                entry.setValue(new Observation(attributes.size(), modified, now));
+                continue;
+            }
+            it.remove();
+            File file = entry.getKey().toFile();
+            if (CryptoService.outputFileFor(file, true).lastModified() >= modified) continue;
+            stable.add(file);
+            sizes.put(file, attributes.size());
+        }
+        pendingCount.set(pending.size());
+        if (stable.isEmpty()) return;
+
+        if (feed == null) startBatch();
+        stable.forEach(file -> inFlight.put(file.toPath(), sizes.get(file)));
+        queuedCount.addAndGet(stable.size());
+        feed.addAll(stable);
+        lastQueuedNanos = now;
+    }
+
+    /** Closes the running batch once nothing new has been queued for a quiet period. */
+    private void closeIdleBatch() {
+        if (feed == null || feed.size() > 0 || !pending.isEmpty()) return;
+        if (System.nanoTime() - lastQueuedNanos < quietMillis * 1_000_000) return;
+        feed.close();
+        feed = null;
+    }
+
+    private void startBatch() {
+        FileFeed batchFeed = new FileFeed();
+        int batch = batches.incrementAndGet();
+        feed = batchFeed;
+        batchRunner.execute(() -> runBatch(batch, batchFeed));
+    }
+
+    private void runBatch(int batch, FileFeed batchFeed) {
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger batchFailed = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        Set<Integer> startedFiles = ConcurrentHashMap.newKeySet();
+        long started = System.nanoTime();
+        try (KeySession session = new KeySession(password, keyFile)) {
+            BatchJob job = new BatchJob(cryptoService, session, BatchJob.Mode.ENCRYPT, null, shredder);
+            BatchExecutor executor = new BatchExecutor(concurrency);
+            executor.setStopOnFailure(false);
+            executor.run(batchFeed, job, cancellationFlag, new ProgressChannel(), new BatchExecutor.Listener() {
+                @Override
+                public void onFileStarted(int index, File file) {
+                    startedFiles.add(index);
+                    queuedCount.decrementAndGet();
+                    activeCount.incrementAndGet();
+                }
+
+                @Override
+                public void onFileFinished(int index, File file, BatchExecutor.Outcome outcome, Exception error) {
+                    // Files skipped after cancellation finish without having started.
+                    if (startedFiles.remove(index)) {
+                        activeCount.decrementAndGet();
+                    } else {
+                        queuedCount.decrementAndGet();
+                    }
+                    Long size = inFlight.remove(file.toPath());
+                    if (outcome == BatchExecutor.Outcome.SUCCESS) {
+                        succeeded.incrementAndGet();
+                        encrypted.incrementAndGet();
+                        if (size != null) bytes.addAndGet(size);
+                        listener.onFileEncrypted(file);
+                    } else if (outcome == BatchExecutor.Outcome.FAILED) {
+                        batchFailed.incrementAndGet();
+                        failed.incrementAndGet();
+                        listener.onFileFailed(file, error);
+                    }
+                }
+            });
+            job.awaitShredding();
+        } catch (Exception e) {
+            logger.error("Watch batch {} stopped.", batch, e);
+        } finally {
+            // Files the batch never took, after cancellation, are no longer queued.
+            for (File left : batchFeed.drain()) {
+                queuedCount.decrementAndGet();
+                inFlight.remove(left.toPath());
+            }
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        logger.info("Watch batch {} finished: {} encrypted, {} failed in {} s.", batch, succeeded.get(), batchFailed.get(),
+                String.format(Locale.ROOT, "%.1f", seconds));
+        listener.onBatchFinished(batch, succeeded.get(), batchFailed.get(), bytes.get(), seconds, status());
+    }
+}
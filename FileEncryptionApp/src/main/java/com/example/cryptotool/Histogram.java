@@ -0,0 +1,85 @@
+package com.example.cryptotool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative longs with log-linear buckets.
+ * <p>
+ * Values below 8 are counted exactly; above, each power of two is split into four buckets, so a
+ * percentile is reported within 25% of the true value. The bucket array is fixed, so recording
+ * never allocates and any thread may record while another reads.
+ */
+public class Histogram {
+    private static final int EXACT = 8;
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = EXACT + (63 - 3) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /** Upper bound of the bucket holding the given quantile, 0 to 1; 0 if nothing was recorded. */
+    public long percentile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < EXACT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return EXACT + (exponent - 3) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < EXACT) return bucket;
+        int exponent = (bucket - EXACT) / SUB_BUCKETS + 3;
+        int sub = (bucket - EXACT) % SUB_BUCKETS;
+        long width = 1L << (exponent - 2);
+        long lower = (SUB_BUCKETS + sub) * width;
+        return lower + width - 1;
+    }
+}
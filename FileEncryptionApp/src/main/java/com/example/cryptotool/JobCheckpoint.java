@@ -0,0 +1,284 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Progress marker of a partially written container, stored next to the output as {@code <output>.ckpt}.
+ * <p>
+ * A checkpoint records the container header, how many segments are durable on disk, the matching
+ * plaintext and output offsets, and a chain hash over the header and the authentication tag of
+ * every completed segment. Because each tag authenticates its segment, the tag chain identifies the
+ * partial output without re-hashing every byte, and it can be extended one segment at a time.
+ * <p>
+ * A resumed job seals the rest of the file under the checkpointed header but a new generation, so
+ * it never reuses a nonce the interrupted run may already have used, whatever the input now holds.
+ * The checkpoint records the last generation handed out, and a resumed job saves the next one
+ * before it seals anything, so a job interrupted again before its first checkpoint does not hand
+ * out the same generation twice. It also records the resume points of the completed segments and
+ * the deflate level; compressed containers also record the sealed length of every completed
+ * segment, which the trailer of the finished file needs.
+ */
+public class JobCheckpoint {
+    private static final Logger logger = LoggerFactory.getLogger(JobCheckpoint.class);
+    private static final String SUFFIX = ".ckpt";
+    private static final String FORMAT_VERSION = "3";
+    public static final long DEFAULT_INTERVAL_BYTES = 256L * 1024 * 1024;
+
+    private final String inputPath;
+    private final long inputSize;
+    private final long inputModified;
+    private final byte[] header;
+    private final int compressionLevel;
+    private final long segments;
+    private final long plaintextOffset;
+    private final long outputOffset;
+    private final byte[] chainHash;
+    private final int generation;
+    private final List<SegmentCipher.Resume> resumes;
+    private final int[] sealedLengths;
+
+    /**
+     * @param compressionLevel deflate level the segments were sealed with, or {@link SegmentCompressor#NO_COMPRESSION}
+     * @param generation    highest generation any run of this job has sealed under
+     * @param resumes       resume points of the completed segments
+     * @param sealedLengths sealed length of every completed segment, or null for a fixed segment layout */
+    public JobCheckpoint(File inputFile, byte[] header, int compressionLevel, long segments, long plaintextOffset, long outputOffset,
+                         byte[] chainHash, int generation, List<SegmentCipher.Resume> resumes, int[] sealedLengths) {
+        this(inputFile.getAbsolutePath(), inputFile.length(), inputFile.lastModified(), header, compressionLevel, segments, plaintextOffset,
+                outputOffset, chainHash, generation, resumes, sealedLengths);
+    }
+
+    private JobCheckpoint(String inputPath, long inputSize, long inputModified, byte[] header, int compressionLevel, long segments,
+                          long plaintextOffset, long outputOffset, byte[] chainHash, int generation, List<SegmentCipher.Resume> resumes,
+                          int[] sealedLengths) {
+        this.inputPath = inputPath;
+        this.inputSize = inputSize;
+        this.inputModified = inputModified;
+        this.header = header.clone();
+        this.compressionLevel = compressionLevel;
+        this.segments = segments;
+        this.plaintextOffset = plaintextOffset;
+        this.outputOffset = outputOffset;
+        this.chainHash = chainHash.clone();
+        this.generation = generation;
+        this.resumes = List.copyOf(resumes);
+        this.sealedLengths = sealedLengths == null ? null : sealedLengths.clone();
+    }
+
+    public long getSegments() { return segments; }
+    public long getPlaintextOffset() { return plaintextOffset; }
+    public long getOutputOffset() { return outputOffset; }
+    public byte[] getChainHash() { return chainHash.clone(); }
+    public int getGeneration() { return generation; }
+    public List<SegmentCipher.Resume> getResumes() { return resumes; }
+    public int[] getSealedLengths() { return sealedLengths == null ? null : sealedLengths.clone(); }
+
+    public FileHeader header() throws IOException, CryptoException {
+        return FileHeader.read(new ByteArrayInputStream(header));
+    }
+
+    public static File fileFor(File outputFile) {
+        return new File(outputFile.getPath() + SUFFIX);
+    }
+
+    public static boolean exists(File outputFile) {
+        return fileFor(outputFile).isFile();
+    }
+
+    public static void delete(File outputFile) {
+        try {
+            Files.deleteIfExists(fileFor(outputFile).toPath());
+        } catch (IOException e) {
+            logger.warn("Could not remove checkpoint for {}", outputFile.getAbsolutePath(), e);
+        }
+    }
+
+    /** Returns the checkpoint stored for the given output, or null if there is none or it is unreadable. */
+    public static JobCheckpoint load(File outputFile) {
+        File file = fileFor(outputFile);
+        if (!file.isFile()) return null;
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+            if (!FORMAT_VERSION.equals(properties.getProperty("version"))) return null;
+            return new JobCheckpoint(
+                    properties.getProperty("input.path"),
+                    Long.parseLong(properties.getProperty("input.size")),
+                    Long.parseLong(properties.getProperty("input.modified")),
+                    Base64.getDecoder().decode(properties.getProperty("header")),
+                    Integer.parseInt(properties.getProperty("compression.level")),
+                    Long.parseLong(properties.getProperty("segments")),
+                    Long.parseLong(properties.getProperty("plaintext.offset")),
+                    Long.parseLong(properties.getProperty("output.offset")),
+                    HexFormat.of().parseHex(properties.getProperty("chain.sha256")),
+                    Integer.parseInt(properties.getProperty("generation")),
+                    decodeResumes(properties.getProperty("resumes")),
+                    decodeLengths(properties.getProperty("sealed.lengths")));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable checkpoint {}", file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /** Writes the checkpoint atomically, so a crash leaves either the previous or the new one. */
+    public void save(File outputFile) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("version", FORMAT_VERSION);
+        properties.setProperty("input.path", inputPath);
+        properties.setProperty("input.size", Long.toString(inputSize));
+        properties.setProperty("input.modified", Long.toString(inputModified));
+        properties.setProperty("header", Base64.getEncoder().encodeToString(header));
+        properties.setProperty("compression.level", Integer.toString(compressionLevel));
+        properties.setProperty("segments", Long.toString(segments));
+        properties.setProperty("plaintext.offset", Long.toString(plaintextOffset));
+        properties.setProperty("output.offset", Long.toString(outputOffset));
+        properties.setProperty("chain.sha256", HexFormat.of().formatHex(chainHash));
+        properties.setProperty("generation", Integer.toString(generation));
+        properties.setProperty("resumes", encodeResumes(resumes));
+        if (sealedLengths != null) properties.setProperty("sealed.lengths", encodeLengths(sealedLengths));
+
+        Path target = fileFor(outputFile).toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "file-crypter-pro encryption checkpoint");
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * True if the checkpoint was taken for this input file (path, size and modification time) and
+     * the rest of it would be sealed at the same deflate level.
+     */
+    public boolean matchesInput(File inputFile, int compressionLevel) {
+        return inputPath.equals(inputFile.getAbsolutePath())
+                && inputSize == inputFile.length()
+                && inputModified == inputFile.lastModified()
+                && this.compressionLevel == compressionLevel;
+    }
+
+    /**
+     * The checkpoint a resumed run saves before it seals anything: the same progress, with the
+     * next generation handed out. Returns null once the nonce has no room for another generation.
+     */
+    public JobCheckpoint nextGeneration() {
+        if (generation >= SegmentCipher.MAX_GENERATION) return null;
+        return new JobCheckpoint(inputPath, inputSize, inputModified, header, compressionLevel, segments, plaintextOffset, outputOffset,
+                chainHash, generation + 1, resumes, sealedLengths);
+    }
+
+    /** Resume points of a run that continues this checkpoint under its generation. */
+    public List<SegmentCipher.Resume> resumesFrom() {
+        List<SegmentCipher.Resume> next = new ArrayList<>(resumes);
+        next.add(new SegmentCipher.Resume(segments, generation));
+        return next;
+    }
+
+    /**
+     * Checks the partial output against this checkpoint: same header, an identical tag chain, and a
+     * last completed segment that authenticates under the session key.
+     */
+    public boolean verify(FileChannel output, FileHeader fileHeader, SegmentCipher segmentCipher) throws IOException {
+        if (segments < 1 || output.size() < outputOffset) return false;
+        ByteBuffer onDiskHeader = readAt(output, 0, header.length);
+        if (!Arrays.equals(onDiskHeader.array(), header)) return false;
+
+        int sealedSegmentSize = fileHeader.getSegmentSize() + SegmentCipher.TAG_LENGTH_BYTES;
+        if (fileHeader.isCompressed() != (sealedLengths != null)) return false;
+        if (sealedLengths != null && sealedLengths.length != segments) return false;
+        long segmentEnd = header.length;
+        byte[] chain = chainStart(header);
+        for (int i = 0; i < segments; i++) {
+            int sealedLength = sealedLengths != null ? sealedLengths[i] : sealedSegmentSize;
+            if (sealedLength < SegmentCipher.TAG_LENGTH_BYTES || sealedLength > fileHeader.maxSealedSegmentSize()) return false;
+            segmentEnd += sealedLength;
+            chain = chainNext(chain, readAt(output, segmentEnd - SegmentCipher.TAG_LENGTH_BYTES, SegmentCipher.TAG_LENGTH_BYTES));
+        }
+        if (segmentEnd != outputOffset || !MessageDigest.isEqual(chain, chainHash)) return false;
+
+        int lastLength = sealedLengths != null ? sealedLengths[(int) segments - 1] : sealedSegmentSize;
+        ByteBuffer lastSegment = readAt(output, outputOffset - lastLength, lastLength);
+        try {
+            segmentCipher.resumedAt(resumes).open(segments - 1, false, lastSegment, ByteBuffer.allocate(fileHeader.maxSealedSegmentSize()));
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    public static byte[] chainStart(byte[] header) {
+        return sha256().digest(header);
+    }
+
+    /** Extends the chain with the authentication tag at the end of a sealed segment. */
+    public static byte[] chainNext(byte[] chain, ByteBuffer sealedSegment) {
+        MessageDigest digest = sha256();
+        digest.update(chain);
+        ByteBuffer tag = sealedSegment.duplicate();
+        tag.position(tag.limit() - SegmentCipher.TAG_LENGTH_BYTES);
+        digest.update(tag);
+        return digest.digest();
+    }
+
+    private static String encodeResumes(List<SegmentCipher.Resume> resumes) {
+        return Base64.getEncoder().encodeToString(SegmentCipher.encodeResumes(resumes).array());
+    }
+
+    private static List<SegmentCipher.Resume> decodeResumes(String encoded) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(encoded));
+        List<SegmentCipher.Resume> resumes = new ArrayList<>();
+        while (buffer.remaining() >= SegmentCipher.RESUME_LENGTH) {
+            resumes.add(new SegmentCipher.Resume(Integer.toUnsignedLong(buffer.getInt()), buffer.getInt()));
+        }
+        return resumes;
+    }
+
+    private static String encodeLengths(int[] lengths) {
+        ByteBuffer buffer = ByteBuffer.allocate(lengths.length * Integer.BYTES);
+        buffer.asIntBuffer().put(lengths);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    private static int[] decodeLengths(String encoded) {
+        if (encoded == null) return null;
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(encoded));
+        int[] lengths = new int[buffer.remaining() / Integer.BYTES];
+        buffer.asIntBuffer().get(lengths);
+        return lengths;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) break;
+        }
+        return buffer.flip();
+    }
+}
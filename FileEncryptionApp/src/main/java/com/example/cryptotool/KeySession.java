@@ -0,0 +1,264 @@
+package com.example.cryptotool;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Key material for one batch of files.
+ * <p>
+ * The password (and optional key file) is stretched with PBKDF2 once per batch salt into a master
+ * key. Every file encrypted in the session gets its own key from the master key and a per-file salt
+ * through a single HKDF-SHA256 step, so a batch of many small files pays for PBKDF2 only once.
+ * When decrypting, master keys are cached per batch salt and key file digest, so files written by
+ * the same batch are also opened with a single PBKDF2 run, while a key file edited during the
+ * session is never matched with a key stretched from its old content. Different salts are derived in parallel; threads that need
+ * a salt already being derived wait for that one run. Call {@link #close()} to wipe the cached key material.
+ * <p>
+ * New files use {@link FileHeader#KDF_KEY_FILE_DIGEST}: the key file is read as a stream into a
+ * SHA-256 digest, once per session and again only if its size or modification time change, so key
+ * files of any size cost constant memory. Files written with the older schemes, which stretch the
+ * key file's bytes together with the password, still need the whole key file in memory.
+ */
+public class KeySession implements AutoCloseable {
+    private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH_BITS = 256;
+    private static final int ITERATION_COUNT = 65536;
+    private static final byte[] FILE_KEY_INFO = "file-crypter-pro file key".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_FILE_INFO = "file-crypter-pro key file".getBytes(StandardCharsets.US_ASCII);
+    private static final int KEY_FILE_BUFFER_SIZE = 64 * 1024;
+    /** Per thread, so a file's share can be told apart from that of files derived concurrently. */
+    private static final ThreadLocal<long[]> threadKeyNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    /** Digest of the key file as it was when read; reused while the file's size and mtime are unchanged. */
+    private record KeyFileDigest(Path path, long size, FileTime modified, byte[] digest) {}
+
+    private final char[] password;
+    private final File keyFile;
+    private final byte[] batchSalt;
+    private final Map<String, CompletableFuture<byte[]>> masterKeys = new ConcurrentHashMap<>();
+    private KeyFileDigest keyFileDigest;
+    private final LongAdder kdfNanos = new LongAdder();
+    private final LongAdder kdfRuns = new LongAdder();
+    private volatile boolean closed;
+
+    public KeySession(char[] password, File keyFile) {
+        this.password = password.clone();
+        this.keyFile = keyFile;
+        this.batchSalt = generateRandomBytes(FileHeader.SALT_LENGTH);
+    }
+
+    /** Salt of the master key used for files encrypted in this session. */
+    public byte[] getBatchSalt() {
+        return batchSalt.clone();
+    }
+
+    /** Time spent in PBKDF2 by this session, summed over every thread. */
+    public long getKdfNanos() {
+        return kdfNanos.sum();
+    }
+
+    public long getKdfRuns() {
+        return kdfRuns.sum();
+    }
+
+    /**
+     * Time the calling thread has spent obtaining keys from any session, including waits for a
+     * derivation another thread was running; the difference around one file is that file's cost.
+     */
+    public static long threadKeyNanos() {
+        return threadKeyNanos.get()[0];
+    }
+
+    /** Returns the key that seals the segments of a container with the given header. */
+    public SecretKey keyFor(FileHeader header) throws GeneralSecurityException, IOException {
+        long started = System.nanoTime();
+        try {
+            if (header.getKdf() == FileHeader.KDF_PBKDF2) {
+                return new SecretKeySpec(stretch(FileHeader.KDF_PBKDF2, header.getSalt(), null), SegmentCipher.keyAlgorithm(header.getAlgorithm()));
+            }
+            byte[] info = Arrays.copyOf(FILE_KEY_INFO, FILE_KEY_INFO.length + 1);
+            info[FILE_KEY_INFO.length] = (byte) header.getAlgorithm();
+            return new SecretKeySpec(hkdf(masterKey(header.getKdf(), header.getSalt()), header.getFileSalt(), info),
+                    SegmentCipher.keyAlgorithm(header.getAlgorithm()));
+        } finally {
+            threadKeyNanos.get()[0] += System.nanoTime() - started;
+        }
+    }
+
+    /** Returns the key of a legacy single-GCM file, derived directly from its salt. */
+    public SecretKey legacyKey(byte[] salt) throws GeneralSecurityException, IOException {
+        long started = System.nanoTime();
+        try {
+            return new SecretKeySpec(stretch(FileHeader.KDF_PBKDF2, salt, null), "AES");
+        } finally {
+            threadKeyNanos.get()[0] += System.nanoTime() - started;
+        }
+    }
+
+    /** The first caller for a salt derives its key outside any lock, rather than in computeIfAbsent, which would block its map bin. */
+    private byte[] masterKey(int kdf, byte[] salt) throws GeneralSecurityException, IOException {
+        checkOpen();
+        // The older scheme treats a missing key file as empty, so there is nothing to digest.
+        byte[] keyFileDigest = keyFile == null || (kdf != FileHeader.KDF_KEY_FILE_DIGEST && !keyFile.exists()) ? null : keyFileDigest();
+        String cacheKey = kdf + ":" + HexFormat.of().formatHex(salt) + (keyFileDigest == null ? "" : ":" + HexFormat.of().formatHex(keyFileDigest));
+        CompletableFuture<byte[]> derivation = new CompletableFuture<>();
+        CompletableFuture<byte[]> cached = masterKeys.putIfAbsent(cacheKey, derivation);
+        if (cached == null) {
+            try {
+                derivation.complete(stretch(kdf, salt, keyFileDigest));
+            } catch (GeneralSecurityException | IOException | RuntimeException e) {
+                masterKeys.remove(cacheKey, derivation);
+                derivation.completeExceptionally(e);
+                throw e;
+            }
+            cached = derivation;
+        }
+        byte[] masterKey;
+        try {
+            masterKey = cached.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralSecurityException securityException) throw securityException;
+            if (cause instanceof IOException ioException) throw ioException;
+            throw e;
+        }
+        // A derivation that finished after close() must not leave key material behind.
+        if (closed) {
+            Arrays.fill(masterKey, (byte) 0);
+            checkOpen();
+        }
+        return masterKey;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Key session has been closed.");
+        }
+    }
+
+    /** {@code keyFileDigest} is the digest the result is cached under, or null for an uncached key. */
+    private byte[] stretch(int kdf, byte[] salt, byte[] keyFileDigest) throws GeneralSecurityException, IOException {
+        long started = System.nanoTime();
+        try {
+            return kdf == FileHeader.KDF_KEY_FILE_DIGEST ? withKeyFileDigest(salt, keyFileDigest) : pbkdf2(salt, keyFileDigest);
+        } finally {
+            kdfNanos.add(System.nanoTime() - started);
+            kdfRuns.increment();
+        }
+    }
+
+    /** PBKDF2 over the password alone, then the key file's digest mixed in with HMAC-SHA256. */
+    private byte[] withKeyFileDigest(byte[] salt, byte[] keyFileDigest) throws GeneralSecurityException {
+        SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM);
+        PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATION_COUNT, KEY_LENGTH_BITS);
+        byte[] stretched = factory.generateSecret(spec).getEncoded();
+        spec.clearPassword();
+        if (keyFileDigest == null) return stretched;
+
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(new SecretKeySpec(stretched, HMAC_ALGORITHM));
+        Arrays.fill(stretched, (byte) 0);
+        mac.update(KEY_FILE_INFO);
+        mac.update(keyFileDigest);
+        return mac.doFinal();
+    }
+
+    private synchronized byte[] keyFileDigest() throws GeneralSecurityException, IOException {
+        Path path = keyFile.toPath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        KeyFileDigest cached = keyFileDigest;
+        if (cached != null && cached.path().equals(path) && cached.size() == attributes.size()
+                && cached.modified().equals(attributes.lastModifiedTime())) {
+            return cached.digest();
+        }
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        ByteBuffer buffer = ByteBuffer.allocate(KEY_FILE_BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (in.read(buffer.clear()) >= 0) {
+                digest.update(buffer.flip());
+            }
+        }
+        keyFileDigest = new KeyFileDigest(path, attributes.size(), attributes.lastModifiedTime(), digest.digest());
+        return keyFileDigest.digest();
+    }
+
+    /**
+     * The original scheme: PBKDF2 over the password and the key file's bytes, joined as a string.
+     * A key cached under {@code keyFileDigest} must come from exactly the bytes it digests.
+     */
+    private byte[] pbkdf2(byte[] salt, byte[] keyFileDigest) throws GeneralSecurityException, IOException {
+        byte[] passwordBytes = new String(password).getBytes();
+        byte[] keyFileBytes = new byte[0];
+        if (keyFile != null && keyFile.exists()) {
+            keyFileBytes = Files.readAllBytes(keyFile.toPath());
+        }
+        if (keyFileDigest != null && !MessageDigest.isEqual(keyFileDigest, MessageDigest.getInstance("SHA-256").digest(keyFileBytes))) {
+            throw new IOException("Key file changed while it was being read.");
+        }
+
+        byte[] combinedSource = new byte[passwordBytes.length + keyFileBytes.length];
+        System.arraycopy(passwordBytes, 0, combinedSource, 0, passwordBytes.length);
+        System.arraycopy(keyFileBytes, 0, combinedSource, passwordBytes.length, keyFileBytes.length);
+
+        SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM);
+        KeySpec spec = new PBEKeySpec(new String(combinedSource).toCharArray(), salt, ITERATION_COUNT, KEY_LENGTH_BITS);
+        return factory.generateSecret(spec).getEncoded();
+    }
+
+    /** HKDF-SHA256 (RFC 5869) producing a single 32-byte output block. */
+    static byte[] hkdf(byte[] inputKey, byte[] salt, byte[] info) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(new SecretKeySpec(salt, HMAC_ALGORITHM));
+        byte[] pseudoRandomKey = mac.doFinal(inputKey);
+
+        mac.init(new SecretKeySpec(pseudoRandomKey, HMAC_ALGORITHM));
+        mac.update(info);
+        mac.update((byte) 1);
+        byte[] output = mac.doFinal();
+        Arrays.fill(pseudoRandomKey, (byte) 0);
+        return output;
+    }
+
+    static byte[] generateRandomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new SecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        Arrays.fill(password, '\0');
+        masterKeys.values().forEach(key -> {
+            if (key.isDone() && !key.isCompletedExceptionally()) Arrays.fill(key.join(), (byte) 0);
+        });
+        masterKeys.clear();
+        if (keyFileDigest != null) Arrays.fill(keyFileDigest.digest(), (byte) 0);
+        keyFileDigest = null;
+    }
+}
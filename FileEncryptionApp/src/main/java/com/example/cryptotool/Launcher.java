@@ -2,6 +2,11 @@ package com.example.cryptotool;
 
 public class Launcher {
     public static void main(String[] args) {
-        Main.main(args);
+        // Command-line runs must not load any JavaFX class, so Main is only touched for the UI.
+        if (CommandLine.isCommand(args)) {
+            CommandLine.main(args);
+        } else {
+            Main.main(args);
+        }
     }
 }
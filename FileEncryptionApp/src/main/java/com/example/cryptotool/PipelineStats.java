@@ -0,0 +1,87 @@
+package com.example.cryptotool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Busy and stall times of the read/cipher/write pipeline.
+ * <p>
+ * The reader stalls when every ring buffer is still owned by the cipher or writer stage, the cipher
+ * stage "stalls" while segments wait in the worker queue for a free core, and the writer stalls
+ * while it waits for the next segment in order. Comparing the three tells whether a host is
+ * limited by reads, by the cipher or by writes.
+ */
+public class PipelineStats {
+    private final LongAdder segments = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder wallNanos = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder readStallNanos = new LongAdder();
+    private final LongAdder cipherNanos = new LongAdder();
+    private final LongAdder cipherQueueNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder writeStallNanos = new LongAdder();
+
+    void recordRead(long nanos, long stallNanos) {
+        readNanos.add(nanos);
+        readStallNanos.add(stallNanos);
+    }
+
+    void recordCipher(long nanos, long queuedNanos) {
+        cipherNanos.add(nanos);
+        cipherQueueNanos.add(queuedNanos);
+    }
+
+    void recordWrite(long nanos, long stallNanos, int segmentBytes) {
+        writeNanos.add(nanos);
+        writeStallNanos.add(stallNanos);
+        bytes.add(segmentBytes);
+        segments.increment();
+    }
+
+    void recordRun(long nanos) {
+        wallNanos.add(nanos);
+    }
+
+    public void add(PipelineStats other) {
+        segments.add(other.segments.sum());
+        bytes.add(other.bytes.sum());
+        wallNanos.add(other.wallNanos.sum());
+        readNanos.add(other.readNanos.sum());
+        readStallNanos.add(other.readStallNanos.sum());
+        cipherNanos.add(other.cipherNanos.sum());
+        cipherQueueNanos.add(other.cipherQueueNanos.sum());
+        writeNanos.add(other.writeNanos.sum());
+        writeStallNanos.add(other.writeStallNanos.sum());
+    }
+
+    public long getSegments() { return segments.sum(); }
+    public long getBytes() { return bytes.sum(); }
+    public long getWallNanos() { return wallNanos.sum(); }
+    public long getReadNanos() { return readNanos.sum(); }
+    public long getReadStallNanos() { return readStallNanos.sum(); }
+    public long getCipherNanos() { return cipherNanos.sum(); }
+    public long getCipherQueueNanos() { return cipherQueueNanos.sum(); }
+    public long getWriteNanos() { return writeNanos.sum(); }
+    public long getWriteStallNanos() { return writeStallNanos.sum(); }
+
+    /** Names the stage that limited throughput, based on which side of the ring was waiting. */
+    public String bottleneck() {
+        long wall = Math.max(1, getWallNanos());
+        boolean readerBlocked = getReadStallNanos() > wall / 5;
+        boolean writerBlocked = getWriteStallNanos() > wall / 5;
+        if (!readerBlocked) return "read-bound (I/O)";
+        return writerBlocked ? "cipher-bound (CPU)" : "write-bound (I/O)";
+    }
+
+    public String summary() {
+        return String.format("%d segments, %.1f MB in %.2fs; read %.2fs (stalled %.2fs), cipher %.2fs (queued %.2fs), write %.2fs (stalled %.2fs); %s",
+                getSegments(), getBytes() / 1e6, seconds(getWallNanos()),
+                seconds(getReadNanos()), seconds(getReadStallNanos()),
+                seconds(getCipherNanos()), seconds(getCipherQueueNanos()),
+                seconds(getWriteNanos()), seconds(getWriteStallNanos()), bottleneck());
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
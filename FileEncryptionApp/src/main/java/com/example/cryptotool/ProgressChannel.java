@@ -0,0 +1,210 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Progress of a batch, sampled at a fixed rate instead of pushed on every segment.
+ * <p>
+ * Each file reports through its own {@link FileProgress}, a plain volatile counter that the engine
+ * overwrites without locks or allocation. A single sampler thread reads the counters every
+ * {@code intervalMillis}, derives per-file and aggregate throughput and an ETA, and hands one
+ * immutable {@link Snapshot} to the subscriber. A 10 GB file therefore costs the UI twenty updates
+ * per second, however small the segments are.
+ */
+public class ProgressChannel implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ProgressChannel.class);
+    public static final long DEFAULT_INTERVAL_MILLIS = 50;
+    private static final double RATE_TIME_CONSTANT_NANOS = 2e9;
+
+    /** Immutable view of one file in flight. */
+    public record FileSnapshot(File file, long bytesDone, long bytesTotal, double bytesPerSecond) {}
+
+    /** Immutable view of the whole batch at one sampling instant; {@code etaMillis} is -1 while the rate is unknown. */
+    public record Snapshot(long bytesDone, long bytesTotal, int filesDone, int filesTotal,
+                           double bytesPerSecond, long etaMillis, List<FileSnapshot> activeFiles) {
+        public double megabytesPerSecond() { return bytesPerSecond / 1e6; }
+    }
+
+    /** Lock-free progress counter of a single file, scaled to the file's weight in bytes. */
+    public static final class FileProgress {
+        private static final VarHandle DONE;
+
+        static {
+            try {
+                DONE = MethodHandles.lookup().findVarHandle(FileProgress.class, "done", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final ProgressChannel channel;
+        private final File file;
+        private final long weight;
+        @SuppressWarnings("unused") // accessed through DONE
+        private long done;
+        private boolean finished;
+        // Owned by the sampler thread.
+        private long sampledDone;
+        private double bytesPerSecond;
+
+        private FileProgress(ProgressChannel channel, File file, long weight) {
+            this.channel = channel;
+            this.file = file;
+            this.weight = weight;
+        }
+
+        /** Reports {@code done} out of {@code total} in whatever unit the operation uses. */
+        public void update(long done, long total) {
+            long scaled = total <= 0 ? weight : (long) (weight * Math.min(1.0, (double) done / total));
+            DONE.setRelease(this, scaled);
+        }
+
+        /** Marks the file as finished; a completed file counts in full towards the batch. */
+        public void finish(boolean completed) {
+            synchronized (this) {
+                if (finished) return;
+                finished = true;
+            }
+            if (channel != null) channel.retire(this, completed ? weight : bytesDone());
+        }
+
+        public long bytesDone() {
+            return (long) DONE.getAcquire(this);
+        }
+
+        public long weight() {
+            return weight;
+        }
+    }
+
+    private final Set<FileProgress> active = ConcurrentHashMap.newKeySet();
+    private final LongAdder retiredBytes = new LongAdder();
+    private final LongAdder expectedBytes = new LongAdder();
+    private final AtomicInteger expectedFiles = new AtomicInteger();
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final Consumer<Snapshot> subscriber;
+    private final ScheduledExecutorService sampler;
+    // Owned by the sampler thread.
+    private long lastSampleNanos = System.nanoTime();
+    private long lastBytesDone;
+    private double bytesPerSecond;
+
+    /** A channel nobody samples; counters are kept, but snapshots are only produced on request. */
+    public ProgressChannel() {
+        this.subscriber = null;
+        this.sampler = null;
+    }
+
+    public ProgressChannel(Consumer<Snapshot> subscriber) {
+        this(DEFAULT_INTERVAL_MILLIS, subscriber);
+    }
+
+    public ProgressChannel(long intervalMillis, Consumer<Snapshot> subscriber) {
+        this.subscriber = subscriber;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "progress-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::publish, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Announces work that will be registered later, so totals and the ETA cover the whole batch. */
+    public void expect(long bytes, int files) {
+        expectedBytes.add(bytes);
+        expectedFiles.addAndGet(files);
+    }
+
+    /** Starts tracking a file that was announced through {@link #expect}. */
+    public FileProgress register(File file, long weight) {
+        FileProgress progress = new FileProgress(this, file, weight);
+        active.add(progress);
+        return progress;
+    }
+
+    /** A counter that belongs to no channel, for single-file callers that do not report progress. */
+    public static FileProgress detached(File file) {
+        return new FileProgress(null, file, Math.max(1, file.length()));
+    }
+
+    private synchronized void retire(FileProgress progress, long bytes) {
+        retiredBytes.add(bytes);
+        active.remove(progress);
+        filesDone.incrementAndGet();
+    }
+
+    /** Takes a snapshot now; throughput figures are only maintained by the sampler. */
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    private synchronized Snapshot snapshot(boolean sample) {
+        long now = System.nanoTime();
+        double elapsedNanos = Math.max(1, now - lastSampleNanos);
+        double decay = Math.exp(-elapsedNanos / RATE_TIME_CONSTANT_NANOS);
+
+        List<FileSnapshot> files = new ArrayList<>(active.size());
+        long activeBytes = 0;
+        for (FileProgress progress : active) {
+            long done = progress.bytesDone();
+            activeBytes += done;
+            if (sample) {
+                double instantRate = (done - progress.sampledDone) * 1e9 / elapsedNanos;
+                progress.bytesPerSecond = progress.sampledDone == 0 && progress.bytesPerSecond == 0
+                        ? instantRate : decay * progress.bytesPerSecond + (1 - decay) * instantRate;
+                progress.sampledDone = done;
+            }
+            files.add(new FileSnapshot(progress.file, done, progress.weight, progress.bytesPerSecond));
+        }
+
+        long bytesDone = retiredBytes.sum() + activeBytes;
+        if (sample) {
+            double instantRate = Math.max(0, bytesDone - lastBytesDone) * 1e9 / elapsedNanos;
+            bytesPerSecond = lastBytesDone == 0 && bytesPerSecond == 0 ? instantRate : decay * bytesPerSecond + (1 - decay) * instantRate;
+            lastBytesDone = bytesDone;
+            lastSampleNanos = now;
+        }
+        long bytesTotal = Math.max(expectedBytes.sum(), bytesDone);
+        long etaMillis = bytesPerSecond > 0 ? (long) ((bytesTotal - bytesDone) * 1000 / bytesPerSecond) : -1;
+        return new Snapshot(bytesDone, bytesTotal, filesDone.get(), expectedFiles.get(), bytesPerSecond, etaMillis,
+                Collections.unmodifiableList(files));
+    }
+
+    private void publish() {
+        try {
+            subscriber.accept(snapshot(true));
+        } catch (RuntimeException e) {
+            // A failing subscriber must not cancel the sampler's schedule.
+            logger.warn("Progress subscriber failed.", e);
+        }
+    }
+
+    /** Stops sampling and delivers one final snapshot, so the subscriber always sees the end state. */
+    @Override
+    public void close() {
+        if (sampler == null) return;
+        sampler.shutdownNow();
+        try {
+            sampler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        publish();
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.cryptotool;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Seals and opens individual segments of the container format.
+ * <p>
+ * Each segment uses its own nonce built from the file's nonce prefix, the segment counter and a
+ * final-segment flag, so segments can be processed independently and in any order, while
+ * reordering, truncation or extension of the file is still detected. The AEAD is the one named by
+ * the header's algorithm id; both use a 96-bit nonce and a 128-bit tag, so the layout is the same.
+ * <p>
+ * A resumed encryption seals the rest of the file under a new generation, which goes into the
+ * nonce next to the final-segment flag, so segments written again after an interruption never
+ * reuse the nonce of a segment the interrupted run may already have written. The generation of
+ * each segment follows from the file's {@link Resume} list, which the final segment authenticates.
+ */
+public class SegmentCipher {
+    public static final int TAG_LENGTH_BYTES = 16;
+    private static final int NONCE_LENGTH_BYTES = 12;
+    private static final long MAX_SEGMENTS = 0xFFFFFFFFL;
+    /** Highest generation the nonce has room for; a file interrupted more often is encrypted again from the start. */
+    public static final int MAX_GENERATION = 15;
+    /** Encoded size of one {@link Resume}: segment (4) | generation (4). */
+    public static final int RESUME_LENGTH = 8;
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = ThreadLocal.withInitial(HashMap::new);
+
+    private final SecretKey key;
+    private final FileHeader header;
+    private final Provider provider;
+    private final String transformation;
+    private final String cacheKey;
+    private final List<Resume> resumes;
+
+    /** Segment from which a resumed encryption sealed under {@code generation}. */
+    public record Resume(long segment, int generation) {}
+
+    public SegmentCipher(SecretKey key, FileHeader header) {
+        this(key, header, null);
+    }
+
+    /** Uses the given JCA provider, or the highest-priority one if {@code provider} is null. */
+    public SegmentCipher(SecretKey key, FileHeader header, Provider provider) {
+        this.transformation = transformation(header.getAlgorithm());
+        String keyAlgorithm = keyAlgorithm(header.getAlgorithm());
+        this.key = key.getAlgorithm().equals(keyAlgorithm) ? key : new SecretKeySpec(key.getEncoded(), keyAlgorithm);
+        this.header = header;
+        this.provider = provider;
+        this.cacheKey = transformation + (provider == null ? "" : "@" + provider.getName());
+        this.resumes = List.of();
+    }
+
+    private SegmentCipher(SegmentCipher cipher, List<Resume> resumes) {
+        this.transformation = cipher.transformation;
+        this.key = cipher.key;
+        this.header = cipher.header;
+        this.provider = cipher.provider;
+        this.cacheKey = cipher.cacheKey;
+        this.resumes = List.copyOf(resumes);
+    }
+
+    /** The same cipher for a file resumed at the given points, in segment order. */
+    public SegmentCipher resumedAt(List<Resume> resumes) {
+        return new SegmentCipher(this, resumes);
+    }
+
+    public List<Resume> resumes() {
+        return resumes;
+    }
+
+    /** Generation the given segment was sealed under. */
+    public int generation(long index) {
+        int generation = 0;
+        for (Resume resume : resumes) {
+            if (resume.segment() <= index) generation = resume.generation();
+        }
+        return generation;
+    }
+
+    /** Resume points as stored in the index trailer and authenticated by the final segment. */
+    public static ByteBuffer encodeResumes(List<Resume> resumes) {
+        ByteBuffer encoded = ByteBuffer.allocate(resumes.size() * RESUME_LENGTH);
+        for (Resume resume : resumes) {
+            encoded.putInt((int) resume.segment()).putInt(resume.generation());
+        }
+        return encoded.flip();
+    }
+
+    /** JCA transformation of a header algorithm id. */
+    public static String transformation(int algorithm) {
+        return switch (algorithm) {
+            case FileHeader.ALGORITHM_AES_256_GCM -> CipherRegistry.AES_GCM;
+            case FileHeader.ALGORITHM_CHACHA20_POLY1305 -> CipherRegistry.CHACHA20_POLY1305;
+            default -> throw new IllegalArgumentException("Unsupported algorithm id: " + algorithm);
+        };
+    }
+
+    /** Header algorithm id of a JCA transformation, as named by {@link CipherRegistry}. */
+    public static int algorithmId(String transformation) {
+        return switch (transformation) {
+            case CipherRegistry.AES_GCM -> FileHeader.ALGORITHM_AES_256_GCM;
+            case CipherRegistry.CHACHA20_POLY1305 -> FileHeader.ALGORITHM_CHACHA20_POLY1305;
+            default -> throw new IllegalArgumentException("Unsupported algorithm: " + transformation);
+        };
+    }
+
+    /** Algorithm name the JCA expects on keys for the given header algorithm id. */
+    public static String keyAlgorithm(int algorithm) {
+        return algorithm == FileHeader.ALGORITHM_CHACHA20_POLY1305 ? "ChaCha20" : "AES";
+    }
+
+    /** Seals the remaining bytes of {@code plaintext} into {@code ciphertext}, advancing both buffers. */
+    public void seal(long index, boolean last, ByteBuffer plaintext, ByteBuffer ciphertext) throws GeneralSecurityException {
+        init(Cipher.ENCRYPT_MODE, index, generation(index), last).doFinal(plaintext, ciphertext);
+    }
+
+    /** Authenticates and opens the remaining bytes of {@code ciphertext} into {@code plaintext}. */
+    public void open(long index, boolean last, ByteBuffer ciphertext, ByteBuffer plaintext) throws GeneralSecurityException {
+        open(index, generation(index), last, ciphertext, plaintext);
+    }
+
+    /**
+     * Opens a segment sealed under the given generation, for readers that find the resume points
+     * as they go; a final segment still needs this cipher's resume points.
+     */
+    public void open(long index, int generation, boolean last, ByteBuffer ciphertext, ByteBuffer plaintext) throws GeneralSecurityException {
+        init(Cipher.DECRYPT_MODE, index, generation, last).doFinal(ciphertext, plaintext);
+    }
+
+    private Cipher init(int mode, long index, int generation, boolean last) throws GeneralSecurityException {
+        byte[] nonce = nonce(index, generation, last);
+        Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get(cacheKey);
+        // ChaCha20-Poly1305 refuses the key and nonce it was last initialized with, even to open
+        // the segment it just sealed, so that case gets a fresh instance.
+        if (cipher == null || (header.getAlgorithm() == FileHeader.ALGORITHM_CHACHA20_POLY1305 && Arrays.equals(cipher.getIV(), nonce))) {
+            cipher = provider == null ? Cipher.getInstance(transformation) : Cipher.getInstance(transformation, provider);
+            ciphers.put(cacheKey, cipher);
+        }
+        AlgorithmParameterSpec parameters = header.getAlgorithm() == FileHeader.ALGORITHM_AES_256_GCM
+                ? new GCMParameterSpec(TAG_LENGTH_BYTES * 8, nonce) : new IvParameterSpec(nonce);
+        cipher.init(mode, key, parameters);
+        cipher.updateAAD(header.encoded());
+        if (last && !resumes.isEmpty()) cipher.updateAAD(encodeResumes(resumes));
+        return cipher;
+    }
+
+    private byte[] nonce(long index, int generation, boolean last) throws GeneralSecurityException {
+        if (index < 0 || index > MAX_SEGMENTS) {
+            throw new GeneralSecurityException("Segment counter out of range: " + index);
+        }
+        if (generation < 0 || generation > MAX_GENERATION) {
+            throw new GeneralSecurityException("Generation out of range: " + generation);
+        }
+        byte[] nonce = new byte[NONCE_LENGTH_BYTES];
+        System.arraycopy(header.getNoncePrefix(), 0, nonce, 0, FileHeader.NONCE_PREFIX_LENGTH);
+        nonce[7] = (byte) (index >>> 24);
+        nonce[8] = (byte) (index >>> 16);
+        nonce[9] = (byte) (index >>> 8);
+        nonce[10] = (byte) index;
+        nonce[11] = (byte) (generation << 1 | (last ? 1 : 0));
+        return nonce;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.cryptotool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate framing of individual segments, applied before sealing in containers with
+ * {@link FileHeader#FLAG_COMPRESSED}.
+ * <p>
+ * Frame: mode (1) | data. Each segment is compressed on its own, so segments stay independent and
+ * plaintext segment boundaries do not move; only the sealed lengths vary, and the segment index
+ * records them. A segment that deflate would not shrink is stored as is. Whether a file is worth
+ * compressing at all is decided up front from the byte entropy of its first block, so archives,
+ * media and other already-compressed inputs skip the deflate work entirely.
+ */
+public final class SegmentCompressor {
+    public static final int FRAME_OVERHEAD = 1;
+    public static final int NO_COMPRESSION = Deflater.NO_COMPRESSION;
+    private static final byte MODE_STORED = 0;
+    private static final byte MODE_DEFLATE = 1;
+    private static final int ENTROPY_SAMPLE_BYTES = 64 * 1024;
+    /** Deflate rarely gains anything above this many bits of entropy per byte. */
+    private static final double MAX_COMPRESSIBLE_ENTROPY = 7.5;
+
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[Deflater.BEST_COMPRESSION + 1]);
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<ByteBuffer> FRAME_BUFFERS = new ThreadLocal<>();
+
+    private SegmentCompressor() {
+    }
+
+    public static void checkLevel(int level) {
+        if (level < NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 0 (off) and 9.");
+        }
+    }
+
+    /** Estimates from the entropy of the first block whether deflate will shrink the file noticeably. */
+    public static boolean looksCompressible(FileChannel channel) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(ENTROPY_SAMPLE_BYTES, channel.size()));
+        while (sample.hasRemaining() && channel.read(sample, sample.position()) >= 0) {
+            // Fill the sample from the start of the file.
+        }
+        sample.flip();
+        if (!sample.hasRemaining()) return false;
+        return entropy(sample) < MAX_COMPRESSIBLE_ENTROPY;
+    }
+
+    /** Shannon entropy of the remaining bytes, in bits per byte. */
+    static double entropy(ByteBuffer data) {
+        int[] counts = new int[256];
+        for (int i = data.position(); i < data.limit(); i++) {
+            counts[data.get(i) & 0xFF]++;
+        }
+        double length = data.remaining();
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = count / length;
+            entropy -= p * Math.log(p);
+        }
+        return entropy / Math.log(2);
+    }
+
+    /** Returns this thread's frame buffer, cleared, with room for at least {@code capacity} bytes. */
+    public static ByteBuffer frameBuffer(int capacity) {
+        ByteBuffer buffer = FRAME_BUFFERS.get();
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+            FRAME_BUFFERS.set(buffer);
+        }
+        return buffer.clear();
+    }
+
+    /** Frames the remaining bytes of {@code plaintext} into {@code framed}, advancing both buffers. */
+    public static void compress(ByteBuffer plaintext, ByteBuffer framed, int level) {
+        int start = framed.position();
+        int plainLength = plaintext.remaining();
+        Deflater deflater = deflater(level);
+        try {
+            deflater.setInput(plaintext.duplicate());
+            deflater.finish();
+            framed.put(MODE_DEFLATE);
+            // Output is capped at the plaintext length: a frame that does not shrink is stored instead.
+            ByteBuffer body = framed.slice().limit(Math.min(framed.remaining(), plainLength));
+            while (!deflater.finished() && body.hasRemaining()) {
+                deflater.deflate(body);
+            }
+            if (deflater.finished() && body.position() < plainLength) {
+                framed.position(framed.position() + body.position());
+            } else {
+                framed.put(start, MODE_STORED).position(start + FRAME_OVERHEAD);
+                framed.put(plaintext.duplicate());
+            }
+            plaintext.position(plaintext.limit());
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /** Unpacks the frame in {@code framed} into {@code plaintext}, advancing both buffers. */
+    public static void expand(ByteBuffer framed, ByteBuffer plaintext) throws DataFormatException {
+        if (!framed.hasRemaining()) throw new DataFormatException("Empty segment frame.");
+        byte mode = framed.get();
+        if (mode == MODE_STORED) {
+            if (framed.remaining() > plaintext.remaining()) throw new DataFormatException("Stored segment exceeds the segment size.");
+            plaintext.put(framed);
+            return;
+        }
+        if (mode != MODE_DEFLATE) throw new DataFormatException("Unknown segment frame mode: " + mode);
+
+        Inflater inflater = INFLATERS.get();
+        try {
+            inflater.setInput(framed);
+            while (!inflater.finished()) {
+                if (inflater.inflate(plaintext) == 0 && (inflater.needsInput() || inflater.needsDictionary() || !plaintext.hasRemaining())) {
+                    throw new DataFormatException("Compressed segment is truncated or exceeds the segment size.");
+                }
+            }
+            framed.position(framed.limit());
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    private static Deflater deflater(int level) {
+        Deflater[] deflaters = DEFLATERS.get();
+        if (deflaters[level] == null) {
+            deflaters[level] = new Deflater(level);
+        }
+        return deflaters[level];
+    }
+}
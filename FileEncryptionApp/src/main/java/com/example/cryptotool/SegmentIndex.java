@@ -0,0 +1,276 @@
+package com.example.cryptotool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Location of every sealed segment inside a container file.
+ * <p>
+ * Containers written with {@link FileHeader#FLAG_INDEX_TRAILER} end with a trailer holding the
+ * sealed length of each segment followed by a fixed footer: segment count (8) | plaintext length (8)
+ * | magic (8). The trailer is not authenticated by itself; a wrong entry only makes the affected
+ * segment fail authentication, and the final-segment flag still pins the segment count. Containers
+ * without a trailer are indexed from the fixed segment size. Compressed containers always carry a
+ * trailer, since their sealed lengths vary from segment to segment.
+ * <p>
+ * A file whose encryption was resumed lists its {@link SegmentCipher.Resume} points between the
+ * lengths and a longer footer: resume count (4) | segment count (8) | plaintext length (8) | magic.
+ * The final segment authenticates that list.
+ */
+public class SegmentIndex {
+    private static final byte[] TRAILER_MAGIC = {'F', 'C', 'I', 'N', 'D', 'E', 'X', '1'};
+    private static final byte[] RESUMED_TRAILER_MAGIC = {'F', 'C', 'I', 'N', 'D', 'E', 'X', '2'};
+    private static final int FOOTER_LENGTH = 8 + 8 + TRAILER_MAGIC.length;
+    /** Most bytes the resume points of a trailer can add. */
+    public static final int MAX_RESUME_TRAILER_LENGTH = Integer.BYTES + SegmentCipher.MAX_GENERATION * SegmentCipher.RESUME_LENGTH;
+
+    private final long[] offsets;
+    private final long plaintextLength;
+    private final List<SegmentCipher.Resume> resumes;
+
+    private SegmentIndex(long[] offsets, long plaintextLength) {
+        this(offsets, plaintextLength, List.of());
+    }
+
+    private SegmentIndex(long[] offsets, long plaintextLength, List<SegmentCipher.Resume> resumes) {
+        this.offsets = offsets;
+        this.plaintextLength = plaintextLength;
+        this.resumes = resumes;
+    }
+
+    public int segmentCount() { return offsets.length - 1; }
+    public long offset(long index) { return offsets[(int) index]; }
+    public int sealedLength(long index) { return (int) (offsets[(int) index + 1] - offsets[(int) index]); }
+    public long dataStart() { return offsets[0]; }
+    public long dataEnd() { return offsets[offsets.length - 1]; }
+    public long plaintextLength() { return plaintextLength; }
+    /** Points where an interrupted encryption was resumed, for {@link SegmentCipher#resumedAt}. */
+    public List<SegmentCipher.Resume> resumes() { return resumes; }
+
+    /** True if every segment but the last has the full sealed size, so offsets follow from the index. */
+    public boolean isFixedLayout(int sealedSegmentSize) {
+        for (int i = 0; i < segmentCount() - 1; i++) {
+            if (sealedLength(i) != sealedSegmentSize) return false;
+        }
+        int lastLength = sealedLength(segmentCount() - 1);
+        return lastLength >= SegmentCipher.TAG_LENGTH_BYTES && lastLength <= sealedSegmentSize;
+    }
+
+    /** Pipeline layout over every sealed segment of the container. */
+    public SegmentPipeline.Layout layout() {
+        int maxSealedLength = 0;
+        for (int i = 0; i < segmentCount(); i++) {
+            maxSealedLength = Math.max(maxSealedLength, sealedLength(i));
+        }
+        int maxSize = maxSealedLength;
+        return new SegmentPipeline.Layout() {
+            public long segmentCount() { return SegmentIndex.this.segmentCount(); }
+            public long position(long index) { return offset(index); }
+            public int size(long index) { return sealedLength(index); }
+            public int maxSize() { return maxSize; }
+        };
+    }
+
+    public static SegmentIndex load(FileChannel channel, FileHeader header) throws IOException, CryptoException {
+        long fileSize = channel.size();
+        int sealedSegmentSize = header.getSegmentSize() + SegmentCipher.TAG_LENGTH_BYTES;
+        int maxSealedLength = header.maxSealedSegmentSize();
+        if ((header.getFlags() & FileHeader.FLAG_INDEX_TRAILER) == 0) {
+            long payloadBytes = fileSize - header.length();
+            long segmentCount = (payloadBytes + sealedSegmentSize - 1) / sealedSegmentSize;
+            if (segmentCount == 0 || payloadBytes - (segmentCount - 1) * sealedSegmentSize < SegmentCipher.TAG_LENGTH_BYTES) {
+                throw new CryptoException("Invalid file format: truncated segment data.");
+            }
+            long[] offsets = new long[(int) segmentCount + 1];
+            for (int i = 0; i < segmentCount; i++) {
+                offsets[i] = header.length() + (long) i * sealedSegmentSize;
+            }
+            offsets[(int) segmentCount] = fileSize;
+            long lastPlaintext = fileSize - offsets[(int) segmentCount - 1] - SegmentCipher.TAG_LENGTH_BYTES;
+            return new SegmentIndex(offsets, (segmentCount - 1) * header.getSegmentSize() + lastPlaintext);
+        }
+
+        if (fileSize < header.length() + FOOTER_LENGTH) {
+            throw new CryptoException("Invalid file format: missing segment index.");
+        }
+        ByteBuffer footer = readAt(channel, fileSize - FOOTER_LENGTH, FOOTER_LENGTH);
+        long segmentCount = footer.getLong();
+        long plaintextLength = footer.getLong();
+        byte[] magic = new byte[TRAILER_MAGIC.length];
+        footer.get(magic);
+        boolean resumed = Arrays.equals(magic, RESUMED_TRAILER_MAGIC);
+        if (!resumed && !Arrays.equals(magic, TRAILER_MAGIC) || segmentCount < 1 || segmentCount > Integer.MAX_VALUE - 1) {
+            throw new CryptoException("Invalid file format: corrupt segment index.");
+        }
+        long resumesEnd = fileSize - FOOTER_LENGTH;
+        List<SegmentCipher.Resume> resumes = List.of();
+        if (resumed) {
+            if (resumesEnd - Integer.BYTES < header.length()) throw new CryptoException("Invalid file format: corrupt segment index.");
+            int resumeCount = readAt(channel, resumesEnd - Integer.BYTES, Integer.BYTES).getInt();
+            if (resumeCount < 1 || resumeCount > SegmentCipher.MAX_GENERATION
+                    || resumesEnd - Integer.BYTES - (long) resumeCount * SegmentCipher.RESUME_LENGTH < header.length()) {
+                throw new CryptoException("Invalid file format: corrupt segment index.");
+            }
+            resumesEnd -= Integer.BYTES + (long) resumeCount * SegmentCipher.RESUME_LENGTH;
+            resumes = decodeResumes(readAt(channel, resumesEnd, resumeCount * SegmentCipher.RESUME_LENGTH), segmentCount);
+        }
+        long indexLength = segmentCount * Integer.BYTES;
+        if (indexLength > resumesEnd - header.length()) {
+            throw new CryptoException("Invalid file format: corrupt segment index.");
+        }
+
+        long indexStart = resumesEnd - indexLength;
+        long[] offsets = new long[(int) segmentCount + 1];
+        offsets[0] = header.length();
+        ByteBuffer entries = readAt(channel, indexStart, (int) indexLength);
+        for (int i = 0; i < segmentCount; i++) {
+            int sealedLength = entries.getInt();
+            if (sealedLength < SegmentCipher.TAG_LENGTH_BYTES || sealedLength > maxSealedLength) {
+                throw new CryptoException("Invalid file format: corrupt segment index.");
+            }
+            offsets[i + 1] = offsets[i] + sealedLength;
+        }
+        if (offsets[(int) segmentCount] != indexStart) {
+            throw new CryptoException("Invalid file format: segment index does not match file size.");
+        }
+        return new SegmentIndex(offsets, plaintextLength, resumes);
+    }
+
+    /** Bytes of the trailer of a container with {@code segmentCount} segments that was never resumed. */
+    public static long trailerLength(long segmentCount) {
+        return segmentCount * Integer.BYTES + FOOTER_LENGTH;
+    }
+
+    /**
+     * Indexes the end of a container read as a stream: {@code tail} holds the sealed segments from
+     * {@code firstSegment} on, followed by the trailer if the header has one. Offsets are relative
+     * to the tail's position, and segment 0 of the result is segment {@code firstSegment} of the
+     * container.
+     */
+    public static SegmentIndex loadTail(ByteBuffer tail, long firstSegment, FileHeader header) throws CryptoException {
+        int start = tail.position();
+        int length = tail.remaining();
+        int sealedSegmentSize = header.getSegmentSize() + SegmentCipher.TAG_LENGTH_BYTES;
+        if ((header.getFlags() & FileHeader.FLAG_INDEX_TRAILER) == 0) {
+            long segmentCount = Math.max(1, (length + sealedSegmentSize - 1) / sealedSegmentSize);
+            if (length - (segmentCount - 1) * sealedSegmentSize < SegmentCipher.TAG_LENGTH_BYTES) {
+                throw new CryptoException("Invalid file format: truncated segment data.");
+            }
+            long[] offsets = new long[(int) segmentCount + 1];
+            for (int i = 0; i < segmentCount; i++) {
+                offsets[i] = (long) i * sealedSegmentSize;
+            }
+            offsets[(int) segmentCount] = length;
+            long plaintextLength = (firstSegment + segmentCount) * header.getSegmentSize()
+                    - (sealedSegmentSize - (length - offsets[(int) segmentCount - 1]));
+            return new SegmentIndex(offsets, plaintextLength);
+        }
+
+        if (length < FOOTER_LENGTH) {
+            throw new CryptoException("Invalid file format: missing segment index.");
+        }
+        int footer = tail.limit() - FOOTER_LENGTH;
+        long segmentCount = tail.getLong(footer);
+        long plaintextLength = tail.getLong(footer + 8);
+        byte[] magic = new byte[TRAILER_MAGIC.length];
+        tail.get(footer + 16, magic);
+        long remaining = segmentCount - firstSegment;
+        boolean resumed = Arrays.equals(magic, RESUMED_TRAILER_MAGIC);
+        if (!resumed && !Arrays.equals(magic, TRAILER_MAGIC) || remaining < 1 || segmentCount > Integer.MAX_VALUE - 1) {
+            throw new CryptoException("Invalid file format: corrupt segment index.");
+        }
+        int resumesStart = footer;
+        List<SegmentCipher.Resume> resumes = List.of();
+        if (resumed) {
+            int resumeCount = footer - start < Integer.BYTES ? -1 : tail.getInt(footer - Integer.BYTES);
+            if (resumeCount < 1 || resumeCount > SegmentCipher.MAX_GENERATION
+                    || footer - start - Integer.BYTES < resumeCount * SegmentCipher.RESUME_LENGTH) {
+                throw new CryptoException("Invalid file format: corrupt segment index.");
+            }
+            resumesStart = footer - Integer.BYTES - resumeCount * SegmentCipher.RESUME_LENGTH;
+            resumes = decodeResumes(tail.duplicate().position(resumesStart).limit(footer - Integer.BYTES), segmentCount);
+        }
+        if (segmentCount * Integer.BYTES > resumesStart - start) {
+            throw new CryptoException("Invalid file format: corrupt segment index.");
+        }
+
+        int entries = resumesStart - (int) segmentCount * Integer.BYTES;
+        long[] offsets = new long[(int) remaining + 1];
+        for (int i = 0; i < remaining; i++) {
+            int sealedLength = tail.getInt(entries + (int) (firstSegment + i) * Integer.BYTES);
+            if (sealedLength < SegmentCipher.TAG_LENGTH_BYTES || sealedLength > header.maxSealedSegmentSize()) {
+                throw new CryptoException("Invalid file format: corrupt segment index.");
+            }
+            offsets[i + 1] = offsets[i] + sealedLength;
+        }
+        if (offsets[(int) remaining] != entries - start) {
+            throw new CryptoException("Invalid file format: segment index does not match the encrypted data.");
+        }
+        return new SegmentIndex(offsets, plaintextLength, resumes);
+    }
+
+    /** Resume points in segment order, each under a newer generation, none at the first segment or past the last. */
+    private static List<SegmentCipher.Resume> decodeResumes(ByteBuffer encoded, long segmentCount) throws CryptoException {
+        List<SegmentCipher.Resume> resumes = new ArrayList<>();
+        long previousSegment = 0;
+        int previousGeneration = 0;
+        while (encoded.hasRemaining()) {
+            long segment = Integer.toUnsignedLong(encoded.getInt());
+            int generation = encoded.getInt();
+            if (segment <= previousSegment || segment >= segmentCount
+                    || generation <= previousGeneration || generation > SegmentCipher.MAX_GENERATION) {
+                throw new CryptoException("Invalid file format: corrupt segment index.");
+            }
+            resumes.add(new SegmentCipher.Resume(segment, generation));
+            previousSegment = segment;
+            previousGeneration = generation;
+        }
+        return List.copyOf(resumes);
+    }
+
+    /** Builds the trailer for segments of the given sealed lengths. */
+    public static ByteBuffer encodeTrailer(int[] sealedLengths, int segmentCount, long plaintextLength) {
+        return encodeTrailer(sealedLengths, segmentCount, plaintextLength, List.of());
+    }
+
+    /** Builds the trailer for segments of the given sealed lengths, of a file resumed at the given points. */
+    public static ByteBuffer encodeTrailer(int[] sealedLengths, int segmentCount, long plaintextLength, List<SegmentCipher.Resume> resumes) {
+        int resumeLength = resumes.isEmpty() ? 0 : Integer.BYTES + resumes.size() * SegmentCipher.RESUME_LENGTH;
+        ByteBuffer trailer = ByteBuffer.allocate(segmentCount * Integer.BYTES + resumeLength + FOOTER_LENGTH);
+        for (int i = 0; i < segmentCount; i++) {
+            trailer.putInt(sealedLengths[i]);
+        }
+        if (!resumes.isEmpty()) {
+            trailer.put(SegmentCipher.encodeResumes(resumes));
+            trailer.putInt(resumes.size());
+        }
+        trailer.putLong(segmentCount);
+        trailer.putLong(plaintextLength);
+        trailer.put(resumes.isEmpty() ? TRAILER_MAGIC : RESUMED_TRAILER_MAGIC);
+        return trailer.flip();
+    }
+
+    /** Builds the trailer for a plaintext of the given length cut into fixed-size segments. */
+    public static ByteBuffer encodeFixedTrailer(long plaintextLength, int segmentSize, List<SegmentCipher.Resume> resumes) {
+        int segmentCount = (int) Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+        int[] sealedLengths = new int[segmentCount];
+        Arrays.fill(sealedLengths, segmentSize + SegmentCipher.TAG_LENGTH_BYTES);
+        sealedLengths[segmentCount - 1] = (int) (plaintextLength - (long) (segmentCount - 1) * segmentSize) + SegmentCipher.TAG_LENGTH_BYTES;
+        return encodeTrailer(sealedLengths, segmentCount, plaintextLength, resumes);
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at offset " + (position + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.cryptotool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+/**
+ * Three-stage read/cipher/write pipeline over a region of a file.
+ * <p>
+ * The calling thread reads segments into a small ring of reusable buffers, the cipher stage
+ * transforms them on the shared worker pool, and a dedicated writer thread appends the results in
+ * order and hands each buffer back to the reader. Disk reads, cipher work and disk writes therefore
+ * overlap instead of alternating. Inputs of {@link #MMAP_THRESHOLD_BYTES} or more are read through
+ * memory-mapped windows instead of the ring's input buffers. Input segments are either cut at a
+ * fixed size or, for containers with variable sealed lengths, located through a {@link Layout}.
+ */
+public class SegmentPipeline {
+    public static final long MMAP_THRESHOLD_BYTES = 256L * 1024 * 1024;
+    private static final int MMAP_WINDOW_SEGMENTS = 64;
+    private static final long POLL_INTERVAL_MILLIS = 50;
+
+    @FunctionalInterface
+    public interface Transform {
+        void apply(long index, boolean last, ByteBuffer input, ByteBuffer output) throws Exception;
+    }
+
+    /** Observes each segment right after the writer stage has appended it to the output. */
+    @FunctionalInterface
+    public interface SegmentListener {
+        void onSegmentWritten(long index, boolean last, ByteBuffer sealed, int inputBytes) throws IOException;
+    }
+
+    /** Position and size of every input segment. */
+    public interface Layout {
+        long segmentCount();
+        long position(long index);
+        int size(long index);
+        int maxSize();
+
+        /** {@code length} bytes from {@code offset}, cut into segments of {@code segmentSize}; always at least one segment. */
+        static Layout fixed(long offset, long length, int segmentSize) {
+            long segmentCount = Math.max(1, (length + segmentSize - 1) / segmentSize);
+            return new Layout() {
+                public long segmentCount() { return segmentCount; }
+                public long position(long index) { return offset + index * segmentSize; }
+                public int size(long index) { return (int) Math.min(segmentSize, offset + length - position(index)); }
+                public int maxSize() { return segmentSize; }
+            };
+        }
+    }
+
+    private static final class Slot {
+        long index;
+        boolean last;
+        ByteBuffer input;
+        ByteBuffer output;
+        ByteBuffer source;
+        int inputBytes;
+        Future<?> cipherDone;
+    }
+
+    private static final Slot END = new Slot();
+
+    private final ExecutorService cipherWorkers;
+    private final ExecutorService writerThreads;
+    private final BufferPool bufferPool;
+    private final int depth;
+    private final PipelineStats stats;
+
+    public SegmentPipeline(ExecutorService cipherWorkers, ExecutorService writerThreads, BufferPool bufferPool, int depth, PipelineStats stats) {
+        this.cipherWorkers = cipherWorkers;
+        this.writerThreads = writerThreads;
+        this.bufferPool = bufferPool;
+        this.depth = Math.max(2, depth);
+        this.stats = stats;
+    }
+
+    /**
+     * Runs {@code length} bytes starting at {@code offset} through the transform, one segment at a
+     * time, and appends the results to {@code out} in order.
+     *
+     * @return false if the operation was cancelled before all segments were written.
+     */
+    public boolean run(FileChannel in, long offset, long length, int inputSegmentSize, int outputSegmentSize, WritableByteChannel out,
+                       Transform transform, AtomicBoolean cancellationFlag, LongConsumer progress) throws Exception {
+        return run(in, offset, length, inputSegmentSize, outputSegmentSize, out, transform, cancellationFlag, progress, null);
+    }
+
+    public boolean run(FileChannel in, long offset, long length, int inputSegmentSize, int outputSegmentSize, WritableByteChannel out,
+                       Transform transform, AtomicBoolean cancellationFlag, LongConsumer progress, SegmentListener listener) throws Exception {
+        return run(in, Layout.fixed(offset, length, inputSegmentSize), outputSegmentSize, out, transform, cancellationFlag, progress, listener);
+    }
+
+    /** Runs every segment of {@code layout} through the transform and appends the results to {@code out} in order. */
+    public boolean run(FileChannel in, Layout layout, int outputSegmentSize, WritableByteChannel out,
+                       Transform transform, AtomicBoolean cancellationFlag, LongConsumer progress, SegmentListener listener) throws Exception {
+        long started = System.nanoTime();
+        long segmentCount = layout.segmentCount();
+        int inputSegmentSize = layout.maxSize();
+        long end = layout.position(segmentCount - 1) + layout.size(segmentCount - 1);
+        boolean mapped = end - layout.position(0) >= MMAP_THRESHOLD_BYTES;
+        long windowBytes = (long) inputSegmentSize * MMAP_WINDOW_SEGMENTS;
+
+        Slot[] ring = new Slot[(int) Math.min(depth, segmentCount)];
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<>(ring.length);
+        BlockingQueue<Slot> ordered = new ArrayBlockingQueue<>(ring.length + 1);
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Slot();
+            if (!mapped) ring[i].input = bufferPool.acquire(inputSegmentSize);
+            ring[i].output = bufferPool.acquire(outputSegmentSize);
+            free.add(ring[i]);
+        }
+
+        Future<?> writer = writerThreads.submit(() -> {
+            writeInOrder(ordered, free, out, progress, listener);
+            return null;
+        });
+
+        boolean completed = false;
+        boolean endQueued = false;
+        try {
+            MappedByteBuffer mapping = null;
+            long mappingStart = 0;
+            for (long i = 0; i < segmentCount; i++) {
+                if (cancellationFlag.get()) {
+                    break;
+                }
+                long waitStarted = System.nanoTime();
+                Slot slot = takeFree(free, writer);
+                long readStarted = System.nanoTime();
+
+                long position = layout.position(i);
+                int size = layout.size(i);
+                if (mapped) {
+                    if (mapping == null || position + size > mappingStart + mapping.capacity()) {
+                        mappingStart = position;
+                        mapping = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowBytes, end - position));
+                    }
+                    slot.source = mapping.slice((int) (position - mappingStart), size);
+                } else {
+                    readFully(in, position, size, slot.input);
+                    slot.source = slot.input;
+                }
+                slot.inputBytes = size;
+                stats.recordRead(System.nanoTime() - readStarted, readStarted - waitStarted);
+
+                long index = i;
+                boolean last = i == segmentCount - 1;
+                slot.index = index;
+                slot.last = last;
+                long submitted = System.nanoTime();
+                slot.cipherDone = cipherWorkers.submit(() -> {
+                    long cipherStarted = System.nanoTime();
+                    slot.output.clear();
+                    transform.apply(index, last, slot.source, slot.output);
+                    slot.output.flip();
+                    stats.recordCipher(System.nanoTime() - cipherStarted, cipherStarted - submitted);
+                    return null;
+                });
+                ordered.put(slot);
+                completed = last;
+            }
+            ordered.put(END);
+            endQueued = true;
+            await(writer);
+        } finally {
+            if (!endQueued) ordered.offer(END);
+            awaitQuietly(writer);
+            for (Slot slot : ring) {
+                awaitQuietly(slot.cipherDone);
+                bufferPool.release(slot.input);
+                bufferPool.release(slot.output);
+            }
+            stats.recordRun(System.nanoTime() - started);
+        }
+        return completed;
+    }
+
+    private void writeInOrder(BlockingQueue<Slot> ordered, BlockingQueue<Slot> free, WritableByteChannel out, LongConsumer progress,
+                              SegmentListener listener) throws Exception {
+        long bytesProcessed = 0;
+        Slot slot;
+        while ((slot = ordered.take()) != END) {
+            long waitStarted = System.nanoTime();
+            await(slot.cipherDone);
+            long writeStarted = System.nanoTime();
+            while (slot.output.hasRemaining()) {
+                out.write(slot.output);
+            }
+            stats.recordWrite(System.nanoTime() - writeStarted, writeStarted - waitStarted, slot.inputBytes);
+            if (listener != null) listener.onSegmentWritten(slot.index, slot.last, slot.output.rewind(), slot.inputBytes);
+            bytesProcessed += slot.inputBytes;
+            progress.accept(bytesProcessed);
+            free.put(slot);
+        }
+    }
+
+    /** Waits for a free ring slot, failing fast if the writer has already stopped with an error. */
+    private static Slot takeFree(BlockingQueue<Slot> free, Future<?> writer) throws Exception {
+        Slot slot;
+        while ((slot = free.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            if (writer.isDone()) {
+                await(writer);
+                throw new IllegalStateException("Writer stage stopped unexpectedly.");
+            }
+        }
+        return slot;
+    }
+
+    private static void readFully(FileChannel channel, long position, int size, ByteBuffer buffer) throws IOException {
+        buffer.clear().limit(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at offset " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+    }
+
+    /** Waits until a stage no longer touches the ring buffers, so they can go back to the pool. */
+    private static void awaitQuietly(Future<?> future) {
+        if (future == null) return;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (CancellationException | ExecutionException e) {
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static void await(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+}
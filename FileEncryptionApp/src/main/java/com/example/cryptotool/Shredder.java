@@ -0,0 +1,227 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Overwrites files in place before deleting them, in constant memory.
+ * <p>
+ * Every pass streams one fixed-size direct buffer over the whole file and forces it to the device
+ * before the next pass starts. Random passes use an AES-CTR keystream under a fresh random key,
+ * which is unpredictable and runs at AES-NI speed. After the last pass the file is truncated,
+ * renamed to a random name and deleted, so neither its contents, size nor name are left behind.
+ * {@link #submit(File)} runs shredding on a separate small pool, so it overlaps with encryption.
+ * The source directory of an archive is shredded from the archive's table of contents: only the
+ * files it holds, and only while they still have the archived size and modification time, so files
+ * that arrived or changed after packing survive. Directories are removed once they are empty.
+ * Journaling and copy-on-write file systems and SSD wear levelling may still keep old blocks.
+ */
+public class Shredder implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(Shredder.class);
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(BUFFER_SIZE).asReadOnlyBuffer();
+
+    public enum Pass { ZEROS, ONES, RANDOM }
+
+    public static final List<Pass> SINGLE_PASS = List.of(Pass.RANDOM);
+    public static final List<Pass> THREE_PASS = List.of(Pass.ZEROS, Pass.ONES, Pass.RANDOM);
+
+    private final List<Pass> passes;
+    private final BufferPool bufferPool;
+    private final ExecutorService shredThreads;
+
+    public Shredder(int concurrency, List<Pass> passes) {
+        if (passes.isEmpty()) throw new IllegalArgumentException("At least one overwrite pass is required.");
+        this.passes = List.copyOf(passes);
+        int threads = Math.max(1, concurrency);
+        this.bufferPool = new BufferPool(BUFFER_SIZE, threads + 1);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.shredThreads = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "shred-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Parses a comma-separated pass list such as {@code "zeros,ones,random"}. */
+    public static List<Pass> parsePasses(String spec) {
+        List<Pass> passes = new ArrayList<>();
+        for (String name : spec.split(",")) {
+            if (name.isBlank()) continue;
+            try {
+                passes.add(Pass.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown shred pass '" + name.trim() + "' (expected zeros, ones or random).");
+            }
+        }
+        if (passes.isEmpty()) throw new IllegalArgumentException("At least one overwrite pass is required.");
+        return passes;
+    }
+
+    public static String formatPasses(List<Pass> passes) {
+        List<String> names = new ArrayList<>(passes.size());
+        passes.forEach(pass -> names.add(pass.name().toLowerCase(Locale.ROOT)));
+        return String.join(",", names);
+    }
+
+    public List<Pass> getPasses() {
+        return passes;
+    }
+
+    /** Queues a file for shredding on the shredder's own threads. */
+    public CompletableFuture<Void> submit(File file) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                shred(file);
+            } catch (CryptoException e) {
+                throw new CompletionException(e);
+            }
+        }, shredThreads);
+    }
+
+    /** Queues the files of an archived directory for shredding, see {@link #shredArchived}. */
+    public CompletableFuture<Void> submit(File directory, List<EncryptedArchive.Entry> entries) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                shredArchived(directory, entries);
+            } catch (CryptoException e) {
+                throw new CompletionException(e);
+            }
+        }, shredThreads);
+    }
+
+    /** Shreds a file on the calling thread. */
+    public void shred(File file) throws CryptoException {
+        if (file.isDirectory()) {
+            throw new CryptoException("Cannot securely delete directory " + file + " without the list of its archived entries.");
+        }
+        if (!file.exists()) return;
+        Path path = file.toPath();
+        ByteBuffer buffer = bufferPool.acquire(BUFFER_SIZE);
+        try {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                long length = channel.size();
+                for (Pass pass : passes) {
+                    overwrite(channel, length, pass, buffer);
+                    channel.force(true);
+                }
+                channel.truncate(0);
+                channel.force(true);
+            }
+            Path renamed = path.resolveSibling(HexFormat.of().formatHex(KeySession.generateRandomBytes(8)));
+            Files.move(path, renamed);
+            Files.delete(renamed);
+            logger.info("Securely deleted file: {}", file.getAbsolutePath());
+        } catch (IOException | GeneralSecurityException e) {
+            logger.error("Failed to securely delete file: {}", file.getAbsolutePath(), e);
+            throw new CryptoException("Could not securely delete original file.", e);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Shreds the files of {@code directory} listed in its archive's table of contents, then removes
+     * the listed directories and {@code directory} itself, deepest first, if they are empty.
+     */
+    public void shredArchived(File directory, List<EncryptedArchive.Entry> entries) throws CryptoException {
+        Path root = directory.toPath();
+        List<Path> directories = new ArrayList<>();
+        for (EncryptedArchive.Entry entry : entries) {
+            Path path = EncryptedArchive.resolve(root, entry);
+            if (entry.directory()) {
+                directories.add(path);
+            } else if (isArchivedVersion(path, entry)) {
+                shred(path.toFile());
+            } else {
+                logger.warn("Keeping {}: it changed after it was archived.", path);
+            }
+        }
+        directories.sort(Comparator.comparingInt(Path::getNameCount).reversed());
+        directories.add(root.toAbsolutePath().normalize());
+        for (Path path : directories) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (DirectoryNotEmptyException e) {
+                logger.warn("Keeping directory {}: it holds entries that were not archived.", path);
+            } catch (IOException e) {
+                throw new CryptoException("Could not remove directory: " + path, e);
+            }
+        }
+    }
+
+    private static boolean isArchivedVersion(Path path, EncryptedArchive.Entry entry) throws CryptoException {
+        try {
+            return Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) && Files.size(path) == entry.size()
+                    && Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toMillis() == entry.lastModified();
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            throw new CryptoException("Could not securely delete file: " + path, e);
+        }
+    }
+
+    private static void overwrite(FileChannel channel, long length, Pass pass, ByteBuffer buffer) throws IOException, GeneralSecurityException {
+        Cipher keystream = null;
+        if (pass == Pass.RANDOM) {
+            keystream = Cipher.getInstance("AES/CTR/NoPadding");
+            keystream.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KeySession.generateRandomBytes(32), "AES"),
+                    new IvParameterSpec(KeySession.generateRandomBytes(16)));
+        } else {
+            byte fill = pass == Pass.ONES ? (byte) 0xFF : 0;
+            buffer.clear();
+            while (buffer.hasRemaining()) buffer.put(fill);
+        }
+
+        long position = 0;
+        while (position < length) {
+            int chunk = (int) Math.min(BUFFER_SIZE, length - position);
+            if (keystream != null) {
+                buffer.clear();
+                keystream.update(ZEROS.duplicate().limit(chunk), buffer);
+                buffer.flip();
+            } else {
+                buffer.clear().limit(chunk);
+            }
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        shredThreads.shutdown();
+        try {
+            shredThreads.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
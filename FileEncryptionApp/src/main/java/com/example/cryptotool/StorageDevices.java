@@ -0,0 +1,77 @@
+package com.example.cryptotool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps files to the storage device they live on and decides how many files may be read or written
+ * on each device at once.
+ * <p>
+ * Devices are told apart by {@link FileStore}. On Linux a device counts as rotational when
+ * {@code /sys/dev/block/MAJOR:MINOR/queue/rotational} (or that of the disk a partition belongs to)
+ * says so; elsewhere, and for virtual file systems, devices count as solid-state. A rotational
+ * device gets one worker unless configured otherwise, so the disk head serves one file at a time;
+ * solid-state devices get the batch's default concurrency.
+ */
+public class StorageDevices {
+    private static final Logger logger = LoggerFactory.getLogger(StorageDevices.class);
+    private static final int ROTATIONAL_CONCURRENCY = 1;
+
+    /** One storage device; {@code name} is the file store name, such as {@code /dev/sda1}. */
+    public record Device(String name, boolean rotational) {}
+
+    private final Map<FileStore, Device> devices = new ConcurrentHashMap<>();
+    private final Map<String, Integer> concurrencyOverrides;
+
+    /** @param concurrencyOverrides workers per device name, replacing the automatic choice */
+    public StorageDevices(Map<String, Integer> concurrencyOverrides) {
+        this.concurrencyOverrides = Map.copyOf(concurrencyOverrides);
+    }
+
+    /** Device holding {@code path}, or holding its nearest existing parent if it does not exist yet. */
+    public Device deviceOf(Path path) throws IOException {
+        Path existing = path.toAbsolutePath();
+        while (existing != null && !Files.exists(existing)) existing = existing.getParent();
+        if (existing == null) throw new IOException("No existing parent of " + path);
+        FileStore store = Files.getFileStore(existing);
+        Device device = devices.get(store);
+        if (device == null) {
+            device = new Device(store.name(), isRotational(existing));
+            Device known = devices.putIfAbsent(store, device);
+            if (known != null) return known;
+            logger.info("Storage device {} ({}) is {}.", device.name(), store.type(), device.rotational() ? "rotational" : "solid-state");
+        }
+        return device;
+    }
+
+    /** Files processed at once on {@code device}. */
+    public int concurrencyOf(Device device, int defaultConcurrency) {
+        Integer configured = concurrencyOverrides.get(device.name());
+        if (configured != null) return Math.max(1, configured);
+        return device.rotational() ? ROTATIONAL_CONCURRENCY : Math.max(1, defaultConcurrency);
+    }
+
+    private static boolean isRotational(Path path) {
+        try {
+            long dev = (Long) Files.getAttribute(path, "unix:dev");
+            long major = ((dev >>> 8) & 0xFFF) | ((dev >>> 32) & ~0xFFFL);
+            long minor = (dev & 0xFF) | ((dev >>> 12) & ~0xFFL);
+            Path block = Path.of("/sys/dev/block/" + major + ":" + minor);
+            if (!Files.exists(block)) return false;
+            block = block.toRealPath();
+            Path flag = block.resolve("queue/rotational");
+            // A partition has no queue of its own; its parent directory is the disk.
+            if (!Files.exists(flag) && block.getParent() != null) flag = block.getParent().resolve("queue/rotational");
+            return Files.exists(flag) && Files.readString(flag).trim().equals("1");
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException | ClassCastException e) {
+            return false;
+        }
+    }
+}
@@ -11,14 +11,18 @@ import javafx.scene.input.TransferMode;
 import javafx.scene.layout.*;
 import javafx.scene.shape.SVGPath;
 
+import java.io.File;
+
 public class UIBuilder {
 
     private final UIController controller;
     private BorderPane root;
     private TableView<FileStatusItem> fileTableView;
     private Label keyFileLabel;
+    private Label outputDirectoryLabel;
     private PasswordField passwordField;
     private CheckBox secureDeleteCheckbox;
+    private CheckBox archiveFoldersCheckbox;
     private ProgressBar progressBar;
     private Label statusLabel;
     private Button cancelButton;
@@ -110,6 +114,8 @@ public class UIBuilder {
         statusCol.setCellValueFactory(new PropertyValueFactory<>("status"));
 
         fileTableView.getColumns().addAll(nameCol, sizeCol, statusCol);
+        // Rows live in a columnar FileBatch that is not reordered; sorting by size would also read every file.
+        fileTableView.getColumns().forEach(column -> column.setSortable(false));
         fileTableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         fileTableView.setOnKeyPressed(e -> {
             if (e.getCode() == KeyCode.DELETE) controller.removeSelectedFiles();
@@ -124,7 +130,11 @@ public class UIBuilder {
         Button clearButton = createIconButton("Clear All", createIcon("M6 18L18 6M6 6l12 12"));
         clearButton.setOnAction(e -> controller.clearSelectedFiles());
 
-        HBox buttonBox = new HBox(15, addButton, removeButton, clearButton);
+        archiveFoldersCheckbox = new CheckBox("Add folders as one encrypted archive");
+        archiveFoldersCheckbox.setSelected(controller.getAppSettings().isArchiveFolders());
+        archiveFoldersCheckbox.setOnAction(e -> controller.getAppSettings().setArchiveFolders(archiveFoldersCheckbox.isSelected()));
+
+        HBox buttonBox = new HBox(15, addButton, removeButton, clearButton, archiveFoldersCheckbox);
         buttonBox.setAlignment(Pos.CENTER_LEFT);
 
         VBox layout = new VBox(20, dropZone, fileTableView, buttonBox);
@@ -149,8 +159,19 @@ public class UIBuilder {
         grid.add(new Label("Password:"), 0, 1);
         grid.add(passwordField, 1, 1);
 
+        outputDirectoryLabel = new Label();
+        updateOutputDirectoryLabel(controller.getAppSettings().getOutputDirectory());
+        Button selectOutputBtn = new Button("Select...");
+        selectOutputBtn.setOnAction(e -> controller.selectOutputDirectory());
+        Button resetOutputBtn = new Button("Reset");
+        resetOutputBtn.setOnAction(e -> controller.resetOutputDirectory());
+        HBox outputDirectoryBox = new HBox(10, outputDirectoryLabel, selectOutputBtn, resetOutputBtn);
+        outputDirectoryBox.setAlignment(Pos.CENTER_LEFT);
+        grid.add(new Label("Output Folder:"), 0, 2);
+        grid.add(outputDirectoryBox, 1, 2);
+
         secureDeleteCheckbox = new CheckBox("Securely delete original file after encryption");
-        grid.add(secureDeleteCheckbox, 1, 2);
+        grid.add(secureDeleteCheckbox, 1, 3);
 
         ColumnConstraints col1 = new ColumnConstraints();
         col1.setPercentWidth(30);
@@ -221,8 +242,10 @@ public class UIBuilder {
     // --- Public Getters for the Controller ---
     public TableView<FileStatusItem> getFileTableView() { return fileTableView; }
     public void updateKeyFileLabel(String fileName) { keyFileLabel.setText(fileName == null ? "None" : fileName); }
+    public void updateOutputDirectoryLabel(File directory) { outputDirectoryLabel.setText(directory == null ? "Next to each file" : directory.getAbsolutePath()); }
     public char[] getPassword() { return passwordField.getText().toCharArray(); }
     public boolean isSecureDeleteEnabled() { return secureDeleteCheckbox.isSelected(); }
+    public boolean isArchiveFoldersEnabled() { return archiveFoldersCheckbox.isSelected(); }
     public ProgressBar getProgressBar() { return progressBar; }
     public Label getStatusLabel() { return statusLabel; }
     public void setUiDisabled(boolean disabled) {
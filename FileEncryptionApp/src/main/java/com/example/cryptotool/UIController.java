@@ -1,21 +1,27 @@
 package com.example.cryptotool;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.scene.control.Alert;
 import javafx.scene.control.TableView;
 import javafx.scene.layout.BorderPane;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UIController {
@@ -28,18 +34,35 @@ public class UIController {
     private final AppSettings appSettings;
     private final BorderPane root;
 
-    private final ObservableList<FileStatusItem> fileList = FXCollections.observableArrayList();
+    private final FileBatchList fileList = new FileBatchList(new FileBatch());
+    /** Files and folders as the user added them; a batch's journal is keyed on these. */
+    private final Set<File> selectionRoots = new LinkedHashSet<>();
+    // Folder scans and the batch they feed are only touched on the JavaFX thread.
+    private final List<FileTreeWalker> activeScans = new ArrayList<>();
+    private FileFeed activeFeed;
+    /** Set by workers when a row status changed; the progress sampler then refreshes the table. */
+    private final AtomicBoolean statusesChanged = new AtomicBoolean();
     private File keyFile;
     private Task<Void> currentTask;
     private final AtomicBoolean cancellationFlag = new AtomicBoolean(false);
+    /** Cipher calibration in progress or last started; only touched on the JavaFX thread. */
+    private CompletableFuture<CipherRegistry.Calibration> calibration;
+    private final ExecutorService taskRunner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "batch-coordinator");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public UIController(Stage primaryStage) {
         this.primaryStage = primaryStage;
-        this.cryptoService = new CryptoService();
         this.appSettings = new AppSettings();
+        this.cryptoService = new CryptoService(Runtime.getRuntime().availableProcessors(), appSettings.getBufferBudgetBytes());
+        cryptoService.getMetrics().register("ui");
+        cryptoService.getMetrics().startSummaryLog(Duration.ofMinutes(1));
         this.uiBuilder = new UIBuilder(this);
         this.root = uiBuilder.buildUI();
         uiBuilder.getFileTableView().setItems(fileList);
+        if (appSettings.getCipherCalibration().isEmpty()) calibrateCiphers();
         logger.info("Application started. UI Initialized.");
     }
 
@@ -48,7 +71,7 @@ public class UIController {
 
     // --- Header/Menu Actions ---
     public void showHome() { DialogFactory.createInfoDialog(primaryStage, "Home", "This is the main application screen."); }
-    public void showSettings() { DialogFactory.createInfoDialog(primaryStage, "Settings", "Application settings would be configured here."); }
+    public void showSettings() { DialogFactory.createSettingsDialog(primaryStage, appSettings, this::calibrateCiphers, calibration); }
     public void showHelp() { DialogFactory.createInfoDialog(primaryStage, "Help", "Find documentation and support information here."); }
     public void manageKeys() { DialogFactory.createInfoDialog(primaryStage, "Manage Keys", "Key management features would be available here."); }
     public void showProfile() { DialogFactory.createInfoDialog(primaryStage, "Profile", "User profile information would be displayed here."); }
@@ -61,27 +84,80 @@ public class UIController {
         if (files != null) handleFileSelection(files);
     }
 
+    /** Adds files right away; folders are scanned in the background and their files stream in. */
     public void handleFileSelection(List<File> files) {
-        List<File> allFiles = new ArrayList<>();
+        List<File> plainFiles = new ArrayList<>();
+        List<File> folders = new ArrayList<>();
         for (File file : files) {
-            if (file.isDirectory()) {
-                collectFiles(file, allFiles);
+            if (file.isDirectory() && !uiBuilder.isArchiveFoldersEnabled()) {
+                folders.add(file);
             } else {
-                allFiles.add(file);
+                plainFiles.add(file);
             }
         }
-        allFiles.forEach(file -> fileList.add(new FileStatusItem(file)));
-        logger.info("{} files added to the list.", allFiles.size());
+        selectionRoots.addAll(files);
+        addItems(plainFiles, true);
+        logger.info("{} files added to the list.", plainFiles.size());
+        if (!folders.isEmpty()) startScan(folders);
+    }
+
+    private void startScan(List<File> folders) {
+        FileTreeWalker[] walker = new FileTreeWalker[1];
+        walker[0] = new FileTreeWalker(folders, new FileTreeWalker.Listener() {
+            @Override
+            public void onFilesFound(List<File> batch, long discovered) {
+                Platform.runLater(() -> {
+                    if (!activeScans.contains(walker[0])) return;
+                    addItems(batch, false);
+                    showScanStatus("Scanning folders: " + discovered + " files found...");
+                });
+            }
+
+            @Override
+            public void onFinished(long discovered, boolean cancelled) {
+                Platform.runLater(() -> {
+                    if (!activeScans.remove(walker[0])) return;
+                    showScanStatus("Status: " + (cancelled ? "Folder scan cancelled" : "Folder scan finished") + ", " + discovered + " files found");
+                    if (activeScans.isEmpty() && activeFeed != null) activeFeed.close();
+                });
+            }
+        });
+        activeScans.add(walker[0]);
+        walker[0].start();
+    }
+
+    private void cancelScans() {
+        activeScans.forEach(FileTreeWalker::cancel);
+        activeScans.clear();
+        if (activeFeed != null) activeFeed.close();
+    }
+
+    /**
+     * Adds rows to the table and, while a batch is running, to the files it still has to process.
+     * The feed receives files in row order, so a batch's file index is also the file's row.
+     */
+    private void addItems(List<File> files, boolean mayContainDirectories) {
+        fileList.addFiles(files, mayContainDirectories);
+        if (activeFeed != null && !activeFeed.isClosed()) activeFeed.addAll(files);
+    }
+
+    /** The status label belongs to the running task while there is one. */
+    private void showScanStatus(String text) {
+        if (!uiBuilder.getStatusLabel().textProperty().isBound()) uiBuilder.getStatusLabel().setText(text);
     }
 
     public void removeSelectedFiles() {
         TableView<FileStatusItem> tableView = uiBuilder.getFileTableView();
-        fileList.removeAll(tableView.getSelectionModel().getSelectedItems());
+        int[] rows = tableView.getSelectionModel().getSelectedIndices().stream().mapToInt(Integer::intValue).sorted().toArray();
+        tableView.getSelectionModel().clearSelection();
+        fileList.removeRows(rows);
         logger.info("Selected files removed from the list.");
     }
 
     public void clearSelectedFiles() {
+        cancelScans();
         fileList.clear();
+        selectionRoots.clear();
         logger.info("File list cleared.");
     }
 
@@ -96,6 +172,24 @@ public class UIController {
         }
     }
 
+    /** Lets outputs go to another folder, ideally on another disk, so reads and writes do not share a head. */
+    public void selectOutputDirectory() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Select Output Folder");
+        File directory = directoryChooser.showDialog(primaryStage);
+        if (directory != null) {
+            appSettings.setOutputDirectory(directory);
+            uiBuilder.updateOutputDirectoryLabel(directory);
+            logger.info("Output folder selected: {}", directory.getAbsolutePath());
+        }
+    }
+
+    public void resetOutputDirectory() {
+        appSettings.setOutputDirectory(null);
+        uiBuilder.updateOutputDirectoryLabel(null);
+        logger.info("Outputs will be written next to their inputs.");
+    }
+
     // --- Main Processing Logic ---
     public void processFiles(boolean isEncrypting) {
         char[] password = uiBuilder.getPassword();
@@ -103,7 +197,7 @@ public class UIController {
 
         if (!validateInputsForEncryption(password)) return;
 
-        startTask(new ArrayList<>(fileList), password, keyFile, true, secureDelete);
+        startTask(password, keyFile, true, secureDelete);
     }
 
     public void showDecryptionDialog() {
@@ -114,14 +208,26 @@ public class UIController {
 
         Optional<char[]> passwordOpt = DialogFactory.createDecryptionDialog(primaryStage);
         passwordOpt.ifPresent(password -> {
-            startTask(new ArrayList<>(fileList), password, keyFile, false, false);
+            startTask(password, keyFile, false, false);
         });
     }
 
-    private void startTask(List<FileStatusItem> items, char[] password, File keyFile, boolean isEncrypting, boolean secureDelete) {
-        logger.info("Starting a '{}' operation for {} files.", isEncrypting ? "ENCRYPT" : "DECRYPT", items.size());
+    /** Processes the listed files; files of folder scans still running are fed to the batch as they are found. */
+    private void startTask(char[] password, File keyFile, boolean isEncrypting, boolean secureDelete) {
+        logger.info("Starting a '{}' operation for {} files{}.", isEncrypting ? "ENCRYPT" : "DECRYPT", fileList.size(),
+                activeScans.isEmpty() ? "" : " and the rest of the folder scan");
         cancellationFlag.set(false);
-        currentTask = createTask(items, password, keyFile, isEncrypting, secureDelete);
+        FileBatch batch = fileList.batch();
+        List<File> files = new ArrayList<>(batch.size());
+        for (int row = 0; row < batch.size(); row++) {
+            batch.setStatus(row, FileBatch.Status.READY);
+            files.add(batch.file(row));
+        }
+        uiBuilder.getFileTableView().refresh();
+        activeFeed = new FileFeed();
+        activeFeed.addAll(files);
+        if (activeScans.isEmpty()) activeFeed.close();
+        currentTask = createTask(activeFeed, batch, new ArrayList<>(selectionRoots), password, keyFile, isEncrypting, secureDelete);
 
         uiBuilder.getProgressBar().progressProperty().bind(currentTask.progressProperty());
         uiBuilder.getStatusLabel().textProperty().bind(currentTask.messageProperty());
@@ -136,12 +242,13 @@ public class UIController {
             logger.error("Task failed with exception:", ex);
         });
 
-        new Thread(currentTask).start();
+        taskRunner.execute(currentTask);
     }
 
     public void cancelOperation() {
         if (currentTask != null && currentTask.isRunning()) {
             cancellationFlag.set(true);
+            cancelScans();
             logger.warn("Cancel button clicked. Flagging task for cancellation.");
         }
     }
@@ -160,6 +267,8 @@ public class UIController {
     }
 
     private void onTaskFinished(boolean success, String title, String message) {
+        activeFeed = null;
+        uiBuilder.getFileTableView().refresh();
         uiBuilder.setUiDisabled(false);
         uiBuilder.getProgressBar().progressProperty().unbind();
         uiBuilder.getStatusLabel().textProperty().unbind();
@@ -177,68 +286,96 @@ public class UIController {
         uiBuilder.clearPasswordFields();
     }
 
-    private void collectFiles(File directory, List<File> files) {
-        File[] dirFiles = directory.listFiles();
-        if (dirFiles != null) {
-            for (File file : dirFiles) {
-                if (file.isDirectory()) collectFiles(file, files);
-                else files.add(file);
-            }
-        }
+    /**
+     * Measures the cipher providers on a background thread and stores the result; batches started
+     * before it finishes use the platform default provider.
+     */
+    private CompletableFuture<CipherRegistry.Calibration> calibrateCiphers() {
+        if (calibration != null && !calibration.isDone()) return calibration;
+        calibration = CompletableFuture.supplyAsync(() -> {
+            CipherRegistry.Calibration result = CipherRegistry.calibrate();
+            appSettings.setCipherCalibration(result);
+            return result;
+        }, runnable -> {
+            Thread thread = new Thread(runnable, "cipher-calibration");
+            thread.setDaemon(true);
+            thread.start();
+        });
+        return calibration;
     }
 
-    private Task<Void> createTask(List<FileStatusItem> items, char[] password, File keyFile, boolean isEncrypting, boolean secureDelete) {
+    private Task<Void> createTask(FileFeed feed, FileBatch batch, List<File> roots, char[] password, File keyFile,
+                                  boolean isEncrypting, boolean secureDelete) {
         return new Task<>() {
             @Override
             protected Void call() throws Exception {
-                long totalFiles = items.size();
-                for (int i = 0; i < totalFiles; i++) {
-                    if (cancellationFlag.get()) {
-                        updateMessage("Status: Cancelling...");
-                        break;
-                    }
-
-                    final int fileIndex = i;
-                    FileStatusItem currentItem = items.get(fileIndex);
-                    File inputFile = currentItem.getFile();
-                    String outputFileName = getOutputFileName(inputFile.getName(), isEncrypting);
-                    File outputFile = new File(inputFile.getParent(), outputFileName);
-
-                    try {
-                        String operation = isEncrypting ? "Encrypting" : "Decrypting";
-                        updateMessage(String.format("Status: %s (%d/%d): %s", operation, fileIndex + 1, totalFiles, inputFile.getName()));
-                        currentItem.setStatus(operation + "...");
-
-                        if (isEncrypting) {
-                            cryptoService.encrypt(password, keyFile, inputFile, outputFile, cancellationFlag,
-                                    (p, t) -> updateProgress(fileIndex + ((double)p/t), totalFiles));
-                            if (secureDelete && !cancellationFlag.get()) cryptoService.secureDelete(inputFile);
-                        } else {
-                            cryptoService.decrypt(password, keyFile, inputFile, outputFile, cancellationFlag,
-                                    (p, t) -> updateProgress(fileIndex + ((double)p/t), totalFiles));
+                String operation = isEncrypting ? "Encrypting" : "Decrypting";
+                FileBatch.Status running = isEncrypting ? FileBatch.Status.ENCRYPTING : FileBatch.Status.DECRYPTING;
+                BatchExecutor executor = new BatchExecutor(appSettings.resolveFileConcurrency());
+                executor.setStorageDevices(appSettings.newStorageDevices());
+                cryptoService.setCompressionLevel(appSettings.getCompressionLevel());
+                cryptoService.setIncremental(appSettings.isIncrementalEncryption());
+                appSettings.configureCiphers(cryptoService);
+                BatchJournal journal = BatchJournal.open(isEncrypting ? "encrypt" : "decrypt", roots);
+
+                try (KeySession session = new KeySession(password, keyFile);
+                     ProgressChannel progressChannel = new ProgressChannel(snapshot -> publishProgress(snapshot, operation));
+                     Shredder shredder = secureDelete ? new Shredder(executor.getConcurrency(), appSettings.getShredPasses()) : null) {
+                    BatchJob job = new BatchJob(cryptoService, session, isEncrypting ? BatchJob.Mode.ENCRYPT : BatchJob.Mode.DECRYPT, journal, shredder);
+                    job.setOutputDirectory(appSettings.getOutputDirectory(), roots);
+                    job.setShredListener((file, error) -> {
+                        if (error != null) setItemStatus(batch, batch.indexOf(file), FileBatch.Status.SHRED_FAILED);
+                    });
+                    executor.run(feed, job, cancellationFlag, progressChannel, new BatchExecutor.Listener() {
+                        @Override
+                        public void onFileStarted(int index, File file) {
+                            setItemStatus(batch, index, running);
                         }
 
-                        if (cancellationFlag.get()){
-                            currentItem.setStatus("Cancelled");
-                            if(outputFile.exists()) outputFile.delete();
-                        } else {
-                            currentItem.setStatus("Success");
+                        @Override
+                        public void onFileFinished(int index, File file, BatchExecutor.Outcome outcome, Exception error) {
+                            setItemStatus(batch, index, switch (outcome) {
+                                case SUCCESS -> FileBatch.Status.SUCCESS;
+                                case CANCELLED -> FileBatch.Status.CANCELLED;
+                                case FAILED -> FileBatch.Status.FAILED;
+                            });
                         }
-
-                    } catch (Exception e) {
-                        currentItem.setStatus("Failed");
-                        logger.error("Processing failed for file: {}", inputFile.getAbsolutePath(), e);
-                        throw e;
-                    }
+                    });
+                    job.awaitShredding();
+                    if (!cancellationFlag.get()) journal.delete();
+                } finally {
+                    logger.info("Pipeline totals since start: {}", cryptoService.getPipelineStats().summary());
                 }
                 updateMessage("Status: " + (cancellationFlag.get() ? "Cancelled!" : "Done!"));
                 return null;
             }
+
+            /** Runs on the progress sampler at a fixed rate, never on the crypto threads. */
+            private void publishProgress(ProgressChannel.Snapshot snapshot, String operation) {
+                if (statusesChanged.getAndSet(false)) Platform.runLater(uiBuilder.getFileTableView()::refresh);
+                updateProgress(snapshot.bytesDone(), snapshot.bytesTotal());
+                if (cancellationFlag.get()) {
+                    updateMessage("Status: Cancelling...");
+                    return;
+                }
+                String eta = snapshot.etaMillis() < 0 ? "--:--" : formatDuration(snapshot.etaMillis());
+                updateMessage(String.format("Status: %s (%d/%d files done) %.1f MB/s, ETA %s",
+                        operation, snapshot.filesDone(), snapshot.filesTotal(), snapshot.megabytesPerSecond(), eta));
+            }
         };
     }
 
-    private String getOutputFileName(String inputName, boolean isEncrypting) {
-        return isEncrypting ? inputName + ".enc" : (inputName.toLowerCase().endsWith(".enc") ? inputName.substring(0, inputName.length() - 4) : inputName + ".dec");
+    private static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        return seconds >= 3600 ? String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60)
+                : String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    /** Called from worker threads; the table picks the change up on its next sampled refresh. */
+    private void setItemStatus(FileBatch batch, int row, FileBatch.Status status) {
+        if (row < 0) return;
+        batch.setStatus(row, status);
+        statusesChanged.set(true);
     }
 }
 
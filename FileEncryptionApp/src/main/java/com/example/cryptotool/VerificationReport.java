@@ -0,0 +1,62 @@
+package com.example.cryptotool;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Outcome of verifying a set of encrypted files: one result per file, in input order, and the
+ * aggregate throughput over the ciphertext that was authenticated.
+ */
+public class VerificationReport {
+
+    public enum Status { PASSED, FAILED, CANCELLED }
+
+    /** Result of one file; {@code error} is null unless it failed. */
+    public record FileResult(File file, Status status, long bytes, long nanos, String error) {
+        public boolean passed() {
+            return status == Status.PASSED;
+        }
+    }
+
+    private final List<FileResult> results;
+    private final long elapsedNanos;
+
+    public VerificationReport(List<FileResult> results, long elapsedNanos) {
+        this.results = List.copyOf(results);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<FileResult> getResults() {
+        return results;
+    }
+
+    public List<FileResult> getFailures() {
+        return results.stream().filter(r -> r.status() == Status.FAILED).toList();
+    }
+
+    public int count(Status status) {
+        return (int) results.stream().filter(r -> r.status() == status).count();
+    }
+
+    /** True if every file passed; a cancelled run never passes. */
+    public boolean allPassed() {
+        return count(Status.PASSED) == results.size();
+    }
+
+    /** Ciphertext bytes of the files that were checked to the end, passed or failed. */
+    public long getBytesVerified() {
+        return results.stream().filter(r -> r.status() != Status.CANCELLED).mapToLong(FileResult::bytes).sum();
+    }
+
+    public double getSeconds() {
+        return elapsedNanos / 1e9;
+    }
+
+    public double getMegabytesPerSecond() {
+        return getBytesVerified() / 1e6 / Math.max(getSeconds(), 1e-9);
+    }
+
+    public double getFilesPerSecond() {
+        return (results.size() - count(Status.CANCELLED)) / Math.max(getSeconds(), 1e-9);
+    }
+}
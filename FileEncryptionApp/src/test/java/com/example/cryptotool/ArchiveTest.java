@@ -0,0 +1,107 @@
+package com.example.cryptotool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchiveTest {
+    @TempDir
+    Path directory;
+
+    private final CryptoService cryptoService = new CryptoService(2, 16L * 1024 * 1024);
+    private final KeySession session = new KeySession("correct horse battery staple".toCharArray(), null);
+
+    @AfterEach
+    void closeSession() {
+        session.close();
+    }
+
+    @Test
+    void packsListsAndExtractsTrees() throws Exception {
+        Path source = Files.createDirectories(directory.resolve("source"));
+        Files.createDirectories(source.resolve("nested/empty"));
+        Files.writeString(source.resolve("a.txt"), "first");
+        Files.write(source.resolve("nested/b.bin"), random(300_000));
+        Files.write(source.resolve("nested/zero.bin"), new byte[0]);
+        File archive = encrypt(source);
+
+        List<String> paths = cryptoService.listArchive(session, archive).stream().map(EncryptedArchive.Entry::path).toList();
+        assertTrue(paths.containsAll(List.of("a.txt", "nested/b.bin", "nested/zero.bin", "nested/empty")), paths.toString());
+
+        File extracted = directory.resolve("extracted").toFile();
+        cryptoService.decrypt(session, archive, extracted, new AtomicBoolean(), new ProgressChannel().register(archive, 1));
+        for (String path : List.of("a.txt", "nested/b.bin", "nested/zero.bin")) {
+            assertArrayEquals(Files.readAllBytes(source.resolve(path)), Files.readAllBytes(extracted.toPath().resolve(path)), path);
+        }
+        assertTrue(Files.isDirectory(extracted.toPath().resolve("nested/empty")));
+    }
+
+    @Test
+    void extractsSingleEntries() throws Exception {
+        Path source = Files.createDirectories(directory.resolve("source"));
+        Files.writeString(source.resolve("a.txt"), "first");
+        byte[] wanted = random(200_000);
+        Files.write(Files.createDirectories(source.resolve("nested")).resolve("b.bin"), wanted);
+        File archive = encrypt(source);
+
+        File target = directory.resolve("partial").toFile();
+        cryptoService.extractArchiveEntries(session, archive, List.of("nested/b.bin"), target);
+        assertArrayEquals(wanted, Files.readAllBytes(target.toPath().resolve("nested/b.bin")));
+        assertFalse(Files.exists(target.toPath().resolve("a.txt")));
+        assertThrows(CryptoException.class, () -> cryptoService.extractArchiveEntries(session, archive, List.of("missing.txt"), target));
+    }
+
+    @Test
+    void rejectsEntriesOutsideTheTarget() throws Exception {
+        Path target = directory.resolve("target");
+        for (String name : List.of("../escape.txt", "nested/../../escape.txt", "", ".", directory.resolve("absolute.txt").toString())) {
+            assertThrows(CryptoException.class, () -> EncryptedArchive.resolve(target, entry(name)), name);
+        }
+        assertEquals(target.resolve("inside.txt").toAbsolutePath(), EncryptedArchive.resolve(target, entry("nested/../inside.txt")));
+    }
+
+    @Test
+    void rejectsTamperedArchives() throws Exception {
+        Path source = Files.createDirectories(directory.resolve("source"));
+        Files.write(source.resolve("a.bin"), random(100_000));
+        File archive = encrypt(source);
+        byte[] bytes = Files.readAllBytes(archive.toPath());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(archive.toPath(), bytes);
+
+        File extracted = directory.resolve("extracted").toFile();
+        assertThrows(CryptoException.class,
+                () -> cryptoService.decrypt(session, archive, extracted, new AtomicBoolean(), new ProgressChannel().register(archive, 1)));
+        assertFalse(extracted.exists(), "a failed extraction must not leave a partial tree");
+    }
+
+    private File encrypt(Path source) throws CryptoException {
+        File archive = directory.resolve(source.getFileName() + ".enc").toFile();
+        cryptoService.encrypt(session, source.toFile(), archive, new AtomicBoolean(), new ProgressChannel().register(source.toFile(), 1));
+        return archive;
+    }
+
+    /** Only the name of an entry matters to {@link EncryptedArchive#resolve}. */
+    private static EncryptedArchive.Entry entry(String name) {
+        return new EncryptedArchive.Entry(name, false, 0, 0, 0);
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.cryptotool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BatchExecutorTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void reportsFilesSkippedAfterAFailureAsCancelled() throws Exception {
+        List<File> files = files(4);
+        IOException failure = new IOException("first file fails");
+        BatchExecutor.Outcome[] outcomes = new BatchExecutor.Outcome[files.size()];
+        ProgressChannel progress = new ProgressChannel();
+
+        Exception thrown = assertThrows(IOException.class, () -> new BatchExecutor(1).run(files, (file, flag, fileProgress) -> {
+            if (file.equals(files.get(0))) throw failure;
+        }, new AtomicBoolean(), progress, recordingInto(outcomes)));
+
+        assertSame(failure, thrown);
+        assertEquals(List.of(BatchExecutor.Outcome.FAILED, BatchExecutor.Outcome.CANCELLED, BatchExecutor.Outcome.CANCELLED,
+                BatchExecutor.Outcome.CANCELLED), List.of(outcomes));
+        assertEquals(files.size(), progress.snapshot().filesDone());
+    }
+
+    @Test
+    void reportsEveryFileOfACancelledBatch() throws Exception {
+        List<File> files = files(3);
+        BatchExecutor.Outcome[] outcomes = new BatchExecutor.Outcome[files.size()];
+        List<File> started = new ArrayList<>();
+        ProgressChannel progress = new ProgressChannel();
+
+        new BatchExecutor(2).run(files, (file, flag, fileProgress) -> started.add(file), new AtomicBoolean(true), progress,
+                recordingInto(outcomes));
+
+        assertEquals(List.of(), started);
+        assertEquals(List.of(BatchExecutor.Outcome.CANCELLED, BatchExecutor.Outcome.CANCELLED, BatchExecutor.Outcome.CANCELLED),
+                List.of(outcomes));
+        assertEquals(files.size(), progress.snapshot().filesDone());
+    }
+
+    private List<File> files(int count) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            files.add(Files.writeString(directory.resolve("file" + i + ".txt"), "file " + i).toFile());
+        }
+        return files;
+    }
+
+    private static BatchExecutor.Listener recordingInto(BatchExecutor.Outcome[] outcomes) {
+        return new BatchExecutor.Listener() {
+            @Override
+            public void onFileFinished(int index, File file, BatchExecutor.Outcome outcome, Exception error) {
+                outcomes[index] = outcome;
+            }
+        };
+    }
+}
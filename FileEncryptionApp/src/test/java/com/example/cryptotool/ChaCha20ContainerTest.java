@@ -0,0 +1,123 @@
+package com.example.cryptotool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** Containers sealed with ChaCha20-Poly1305 are read back by the algorithm their header names. */
+class ChaCha20ContainerTest {
+    private static final int SEGMENT_SIZE = 16 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private final CryptoService cryptoService = new CryptoService(2, 16L * 1024 * 1024);
+    private final KeySession session = new KeySession("correct horse battery staple".toCharArray(), null);
+    private byte[] plaintext;
+    private File input;
+    private File encrypted;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cryptoService.setSegmentSize(SEGMENT_SIZE);
+        cryptoService.setCompressionLevel(SegmentCompressor.NO_COMPRESSION);
+        plaintext = new byte[5 * SEGMENT_SIZE + 321];
+        new Random(1).nextBytes(plaintext);
+        input = Files.write(directory.resolve("input.bin"), plaintext).toFile();
+        encrypted = directory.resolve("input.bin.enc").toFile();
+    }
+
+    @AfterEach
+    void closeSession() {
+        session.close();
+    }
+
+    @Test
+    void decryptsByTheAlgorithmItsHeaderNames() throws Exception {
+        cryptoService.setAlgorithm(FileHeader.ALGORITHM_CHACHA20_POLY1305);
+        encrypt();
+        try (InputStream in = Files.newInputStream(encrypted.toPath())) {
+            assertEquals(FileHeader.ALGORITHM_CHACHA20_POLY1305, FileHeader.read(in).getAlgorithm());
+        }
+
+        // Decryption follows the header, not the algorithm new files are written with.
+        cryptoService.setAlgorithm(FileHeader.ALGORITHM_AES_256_GCM);
+        File decrypted = directory.resolve("decrypted.out").toFile();
+        cryptoService.decrypt(session, encrypted, decrypted, new AtomicBoolean(), new ProgressChannel().register(encrypted, 1));
+        assertArrayEquals(plaintext, Files.readAllBytes(decrypted.toPath()));
+
+        try (SeekableByteChannel channel = cryptoService.openDecryptingChannel(session, encrypted)) {
+            ByteBuffer read = ByteBuffer.allocate(100);
+            channel.position(2L * SEGMENT_SIZE - 50).read(read);
+            assertArrayEquals(Arrays.copyOfRange(plaintext, 2 * SEGMENT_SIZE - 50, 2 * SEGMENT_SIZE + 50), read.array());
+        }
+    }
+
+    @Test
+    void rejectsTamperedSegments() throws Exception {
+        cryptoService.setAlgorithm(FileHeader.ALGORITHM_CHACHA20_POLY1305);
+        encrypt();
+        try (RandomAccessFile file = new RandomAccessFile(encrypted, "rw")) {
+            long position = file.length() / 2;
+            file.seek(position);
+            int original = file.read();
+            file.seek(position);
+            file.write(original ^ 1);
+        }
+        File decrypted = directory.resolve("decrypted.out").toFile();
+        assertThrows(CryptoException.class,
+                () -> cryptoService.decrypt(session, encrypted, decrypted, new AtomicBoolean(), new ProgressChannel().register(encrypted, 1)));
+        assertFalse(decrypted.exists());
+    }
+
+    @Test
+    void rejectsAHeaderSwitchedToTheOtherAlgorithm() throws Exception {
+        cryptoService.setAlgorithm(FileHeader.ALGORITHM_CHACHA20_POLY1305);
+        encrypt();
+        try (RandomAccessFile file = new RandomAccessFile(encrypted, "rw")) {
+            // The algorithm id follows the magic, version and header length.
+            file.seek(FileHeader.MAGIC.length + 1 + 2);
+            assertEquals(FileHeader.ALGORITHM_CHACHA20_POLY1305, file.read());
+            file.seek(FileHeader.MAGIC.length + 1 + 2);
+            file.write(FileHeader.ALGORITHM_AES_256_GCM);
+        }
+        File decrypted = directory.resolve("decrypted.out").toFile();
+        assertThrows(CryptoException.class,
+                () -> cryptoService.decrypt(session, encrypted, decrypted, new AtomicBoolean(), new ProgressChannel().register(encrypted, 1)));
+    }
+
+    @Test
+    void opensTheSegmentItJustSealedOnTheSameThread() throws Exception {
+        FileHeader header = new FileHeader(FileHeader.ALGORITHM_CHACHA20_POLY1305, FileHeader.KDF_KEY_FILE_DIGEST, 0, SEGMENT_SIZE,
+                new byte[FileHeader.NONCE_PREFIX_LENGTH], session.getBatchSalt(), new byte[FileHeader.SALT_LENGTH]);
+        SegmentCipher cipher = new SegmentCipher(session.keyFor(header), header);
+        ByteBuffer sealed = ByteBuffer.allocate(SEGMENT_SIZE + SegmentCipher.TAG_LENGTH_BYTES);
+        cipher.seal(0, false, ByteBuffer.wrap(plaintext, 0, SEGMENT_SIZE), sealed);
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer opened = ByteBuffer.allocate(SEGMENT_SIZE);
+            cipher.open(0, false, sealed.flip(), opened);
+            assertArrayEquals(Arrays.copyOf(plaintext, SEGMENT_SIZE), opened.array());
+        }
+    }
+
+    private void encrypt() throws CryptoException {
+        cryptoService.encrypt(session, input, encrypted, new AtomicBoolean(), new ProgressChannel().register(input, 1));
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.cryptotool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Interrupts encryptions at a checkpoint and resumes them. The interruption comes from a thread
+ * that raises the cancellation flag as soon as a new checkpoint shows up, so the interrupted run may
+ * already have sealed a few segments past it.
+ */
+class CheckpointResumeTest {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final long FILE_SIZE = 48L * 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private final CryptoService cryptoService = new CryptoService(2, 16L * 1024 * 1024);
+    private final KeySession session = new KeySession("correct horse battery staple".toCharArray(), null);
+    private File plaintext;
+    private File encrypted;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cryptoService.setSegmentSize(SEGMENT_SIZE);
+        cryptoService.setCompressionLevel(SegmentCompressor.NO_COMPRESSION);
+        cryptoService.setCheckpointIntervalBytes(CryptoService.DEFAULT_SEGMENT_SIZE);
+        plaintext = directory.resolve("input.bin").toFile();
+        encrypted = directory.resolve("input.bin.enc").toFile();
+        writeRandom(plaintext, 0, FILE_SIZE, 1);
+    }
+
+    @AfterEach
+    void closeSession() {
+        session.close();
+    }
+
+    @Test
+    void resumedTailUsesFreshNoncesAfterInPlaceEdit() throws Exception {
+        interruptAtNextCheckpoint();
+        JobCheckpoint checkpoint = JobCheckpoint.load(encrypted);
+        assertNotNull(checkpoint);
+        FileHeader header = checkpoint.header();
+        long firstResumed = checkpoint.getSegments();
+
+        // The segments the interrupted run sealed, or may have sealed, right after its checkpoint.
+        int compared = 4;
+        ByteBuffer[] original = new ByteBuffer[compared];
+        ByteBuffer[] interrupted = new ByteBuffer[compared];
+        SegmentCipher generationZero = new SegmentCipher(session.keyFor(header), header);
+        try (FileChannel in = FileChannel.open(plaintext.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < compared; i++) {
+                original[i] = readAt(in, (firstResumed + i) * SEGMENT_SIZE, SEGMENT_SIZE);
+                interrupted[i] = ByteBuffer.allocate(SEGMENT_SIZE + SegmentCipher.TAG_LENGTH_BYTES);
+                generationZero.seal(firstResumed + i, false, original[i].duplicate(), interrupted[i]);
+            }
+        }
+
+        // Rewrite the tail in place, keeping the size and modification time the checkpoint matches on.
+        long modified = plaintext.lastModified();
+        writeRandom(plaintext, checkpoint.getPlaintextOffset(), FILE_SIZE - checkpoint.getPlaintextOffset(), 2);
+        assertTrue(plaintext.setLastModified(modified));
+        assertTrue(checkpoint.matchesInput(plaintext, SegmentCompressor.NO_COMPRESSION));
+
+        cryptoService.encrypt(session, plaintext, encrypted, new AtomicBoolean(), progress(plaintext));
+        assertFalse(cryptoService.hasCheckpoint(encrypted));
+        assertDecryptsTo(plaintext);
+
+        try (FileChannel in = FileChannel.open(plaintext.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(encrypted.toPath(), StandardOpenOption.READ)) {
+            long sealedSegmentSize = SEGMENT_SIZE + SegmentCipher.TAG_LENGTH_BYTES;
+            for (int i = 0; i < compared; i++) {
+                ByteBuffer edited = readAt(in, (firstResumed + i) * SEGMENT_SIZE, SEGMENT_SIZE);
+                ByteBuffer resumed = readAt(out, header.length() + (firstResumed + i) * sealedSegmentSize, SEGMENT_SIZE);
+                byte[] plaintextXor = xor(original[i], edited);
+                byte[] ciphertextXor = xor(interrupted[i].flip().limit(SEGMENT_SIZE), resumed);
+                assertFalse(Arrays.equals(plaintextXor, ciphertextXor), "segment " + (firstResumed + i) + " reused a nonce");
+            }
+        }
+    }
+
+    @Test
+    void resumesTwiceAndDecryptsThroughEveryReader() throws Exception {
+        interruptAtNextCheckpoint();
+        long firstCheckpoint = JobCheckpoint.load(encrypted).getSegments();
+        interruptAtNextCheckpoint();
+        JobCheckpoint second = JobCheckpoint.load(encrypted);
+        assertTrue(second.getSegments() > firstCheckpoint);
+        assertEquals(1, second.getGeneration());
+
+        cryptoService.encrypt(session, plaintext, encrypted, new AtomicBoolean(), progress(plaintext));
+        assertFalse(cryptoService.hasCheckpoint(encrypted));
+        try (FileChannel in = FileChannel.open(encrypted.toPath(), StandardOpenOption.READ)) {
+            FileHeader header = FileHeader.read(Channels.newInputStream(in));
+            assertEquals(2, SegmentIndex.load(in, header).resumes().size());
+        }
+
+        assertDecryptsTo(plaintext);
+        File streamed = directory.resolve("streamed.out").toFile();
+        try (InputStream in = Files.newInputStream(encrypted.toPath()); OutputStream out = Files.newOutputStream(streamed.toPath())) {
+            cryptoService.decrypt(session, in, out, encrypted.length(), new AtomicBoolean(), progress(encrypted));
+        }
+        assertEquals(-1, Files.mismatch(plaintext.toPath(), streamed.toPath()));
+
+        try (SeekableByteChannel channel = cryptoService.openDecryptingChannel(session, encrypted);
+             FileChannel in = FileChannel.open(plaintext.toPath(), StandardOpenOption.READ)) {
+            assertEquals(FILE_SIZE, channel.size());
+            long position = (firstCheckpoint + 1) * SEGMENT_SIZE - 100;
+            ByteBuffer read = ByteBuffer.allocate(200);
+            channel.position(position).read(read);
+            assertArrayEquals(readAt(in, position, 200).array(), read.array());
+        }
+    }
+
+    @Test
+    void rejectsTamperedResumePoints() throws Exception {
+        interruptAtNextCheckpoint();
+        cryptoService.encrypt(session, plaintext, encrypted, new AtomicBoolean(), progress(plaintext));
+        try (RandomAccessFile file = new RandomAccessFile(encrypted, "rw")) {
+            // The generation of the only resume point sits just before its count and the 24-byte footer.
+            long generation = file.length() - 24 - 4 - 4;
+            file.seek(generation);
+            assertEquals(1, file.readInt());
+            file.seek(generation);
+            file.writeInt(2);
+        }
+        File decrypted = directory.resolve("tampered.out").toFile();
+        assertThrows(CryptoException.class,
+                () -> cryptoService.decrypt(session, encrypted, decrypted, new AtomicBoolean(), progress(encrypted)));
+    }
+
+    /** Runs the encryption until it saves a checkpoint past the current one, then cancels it. */
+    private void interruptAtNextCheckpoint() throws Exception {
+        JobCheckpoint previous = JobCheckpoint.load(encrypted);
+        long previousSegments = previous == null ? 0 : previous.getSegments();
+        AtomicBoolean cancel = new AtomicBoolean();
+        Thread watcher = new Thread(() -> {
+            while (!cancel.get()) {
+                JobCheckpoint checkpoint = JobCheckpoint.load(encrypted);
+                if (checkpoint != null && checkpoint.getSegments() > previousSegments) cancel.set(true);
+                Thread.onSpinWait();
+            }
+        });
+        watcher.start();
+        try {
+            cryptoService.encrypt(session, plaintext, encrypted, cancel, progress(plaintext));
+        } finally {
+            cancel.set(true);
+            watcher.join();
+        }
+        assertTrue(cryptoService.hasCheckpoint(encrypted), "the encryption finished before it could be interrupted");
+    }
+
+    private void assertDecryptsTo(File expected) throws Exception {
+        File decrypted = directory.resolve("decrypted.out").toFile();
+        cryptoService.decrypt(session, encrypted, decrypted, new AtomicBoolean(), progress(encrypted));
+        assertEquals(-1, Files.mismatch(expected.toPath(), decrypted.toPath()));
+    }
+
+    private static void writeRandom(File file, long offset, long length, long seed) throws Exception {
+        Random random = new Random(seed);
+        byte[] block = new byte[1024 * 1024];
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(offset);
+            for (long written = 0; written < length; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, length - written));
+            }
+        }
+    }
+
+    private static byte[] xor(ByteBuffer a, ByteBuffer b) {
+        byte[] result = new byte[a.remaining()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) (a.get(a.position() + i) ^ b.get(b.position() + i));
+        }
+        return result;
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+            // keep reading
+        }
+        return buffer.flip();
+    }
+
+    private static ProgressChannel.FileProgress progress(File file) {
+        return new ProgressChannel().register(file, 1);
+    }
+}
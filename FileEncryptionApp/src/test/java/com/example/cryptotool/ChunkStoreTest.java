@@ -0,0 +1,107 @@
+package com.example.cryptotool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Incremental encryption: a small edit rewrites only the chunks around it, and the store still round trips. */
+class ChunkStoreTest {
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private final CryptoService cryptoService = new CryptoService(2, 16L * 1024 * 1024);
+    private final KeySession session = new KeySession("correct horse battery staple".toCharArray(), null);
+    private File plaintext;
+    private File encrypted;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cryptoService.setIncremental(true);
+        cryptoService.setCompressionLevel(SegmentCompressor.NO_COMPRESSION);
+        plaintext = directory.resolve("input.bin").toFile();
+        encrypted = directory.resolve("input.bin.enc").toFile();
+        byte[] bytes = new byte[FILE_SIZE];
+        new Random(1).nextBytes(bytes);
+        Files.write(plaintext.toPath(), bytes);
+    }
+
+    @AfterEach
+    void closeSession() {
+        session.close();
+    }
+
+    @Test
+    void rewritesOnlyTheChunksAnEditTouches() throws Exception {
+        encrypt();
+        Set<String> before = chunks().keySet();
+        assertTrue(before.size() > 3, "expected the file to span several chunks, got " + before.size());
+        assertDecryptsTo(plaintext);
+
+        try (RandomAccessFile file = new RandomAccessFile(plaintext, "rw")) {
+            file.seek(FILE_SIZE / 2);
+            file.write("an edit in the middle".getBytes());
+        }
+        encrypt();
+        Set<String> after = chunks().keySet();
+        Set<String> kept = new HashSet<>(after);
+        kept.retainAll(before);
+        int written = after.size() - kept.size();
+        assertTrue(written >= 1 && written <= 2, "an edit inside one chunk should rewrite one or two, rewrote " + written);
+        assertTrue(before.size() - kept.size() >= 1, "chunks the new manifest no longer references must be deleted");
+        assertDecryptsTo(plaintext);
+    }
+
+    @Test
+    void rejectsTamperedChunks() throws Exception {
+        encrypt();
+        Path chunk = chunks().values().iterator().next();
+        byte[] bytes = Files.readAllBytes(chunk);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(chunk, bytes);
+
+        File decrypted = directory.resolve("decrypted.out").toFile();
+        assertThrows(CryptoException.class,
+                () -> cryptoService.decrypt(session, encrypted, decrypted, new AtomicBoolean(), new ProgressChannel().register(encrypted, 1)));
+        assertFalse(decrypted.exists());
+    }
+
+    private void encrypt() throws CryptoException {
+        cryptoService.encrypt(session, plaintext, encrypted, new AtomicBoolean(), new ProgressChannel().register(plaintext, 1));
+    }
+
+    private void assertDecryptsTo(File expected) throws Exception {
+        File decrypted = directory.resolve("decrypted.out").toFile();
+        Files.deleteIfExists(decrypted.toPath());
+        cryptoService.decrypt(session, encrypted, decrypted, new AtomicBoolean(), new ProgressChannel().register(encrypted, 1));
+        assertEquals(-1, Files.mismatch(expected.toPath(), decrypted.toPath()));
+    }
+
+    /** Chunk files of the store, which sit one level below it in fan-out directories. */
+    private Map<String, Path> chunks() throws Exception {
+        Path store = ChunkStore.directoryFor(encrypted).toPath();
+        try (Stream<Path> files = Files.walk(store, 2)) {
+            return files.filter(path -> path.getNameCount() - store.getNameCount() == 2 && Files.isRegularFile(path))
+                    .collect(Collectors.toMap(path -> path.getFileName().toString(), path -> path));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.cryptotool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KeySessionTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void cachedKeysFollowKeyFileEdits() throws Exception {
+        for (int kdf : new int[] {FileHeader.KDF_KEY_FILE_DIGEST, FileHeader.KDF_PBKDF2_HKDF}) {
+            File keyFile = Files.writeString(directory.resolve("key-" + kdf), "first key file").toFile();
+            try (KeySession session = new KeySession("correct horse battery staple".toCharArray(), keyFile)) {
+                FileHeader header = header(kdf, session);
+                byte[] first = session.keyFor(header).getEncoded();
+                assertArrayEquals(first, session.keyFor(header).getEncoded());
+                assertEquals(1, session.getKdfRuns());
+
+                Files.writeString(keyFile.toPath(), "second, longer key file");
+                byte[] second = session.keyFor(header).getEncoded();
+                assertFalse(Arrays.equals(first, second), "kdf " + kdf + " reused a key stretched from the old key file");
+
+                Files.writeString(keyFile.toPath(), "first key file");
+                assertArrayEquals(first, session.keyFor(header).getEncoded());
+                assertEquals(2, session.getKdfRuns());
+            }
+        }
+    }
+
+    @Test
+    void missingKeyFilesFailOnlyTheDigestScheme() throws Exception {
+        File missing = directory.resolve("missing").toFile();
+        try (KeySession session = new KeySession("correct horse battery staple".toCharArray(), missing);
+             KeySession withoutKeyFile = new KeySession("correct horse battery staple".toCharArray(), null)) {
+            assertThrows(Exception.class, () -> session.keyFor(header(FileHeader.KDF_KEY_FILE_DIGEST, session)));
+            // The original scheme reads a missing key file as empty.
+            FileHeader header = header(FileHeader.KDF_PBKDF2_HKDF, session);
+            assertArrayEquals(withoutKeyFile.keyFor(header).getEncoded(), session.keyFor(header).getEncoded());
+        }
+    }
+
+    private static FileHeader header(int kdf, KeySession session) {
+        return new FileHeader(FileHeader.ALGORITHM_AES_256_GCM, kdf, 0, CryptoService.DEFAULT_SEGMENT_SIZE,
+                new byte[FileHeader.NONCE_PREFIX_LENGTH], session.getBatchSalt(), new byte[FileHeader.SALT_LENGTH]);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.cryptotool;
+
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.GCMModeCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decrypts files several times larger than the heap, which surefire caps at 64 MB. The plaintext is
+ * a sparse file with a few marker bytes, so it costs no disk space of its own.
+ */
+class LargeFileDecryptionTest {
+    private static final long FILE_SIZE = 256L * 1024 * 1024;
+    private static final long BUFFER_BUDGET_BYTES = 16L * 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private final CryptoService cryptoService = new CryptoService(2, BUFFER_BUDGET_BYTES);
+    private final KeySession session = new KeySession("correct horse battery staple".toCharArray(), null);
+    private File plaintext;
+
+    @BeforeEach
+    void createSparsePlaintext() throws Exception {
+        assertTrue(FILE_SIZE > 2 * Runtime.getRuntime().maxMemory(), "the heap must be far smaller than the test file");
+        plaintext = directory.resolve("large.bin").toFile();
+        try (RandomAccessFile file = new RandomAccessFile(plaintext, "rw")) {
+            file.setLength(FILE_SIZE);
+            for (long offset = 0; offset < FILE_SIZE; offset += FILE_SIZE / 7) {
+                file.seek(offset);
+                file.writeLong(offset);
+            }
+        }
+    }
+
+    @AfterEach
+    void closeSession() {
+        session.close();
+    }
+
+    @Test
+    void decryptsSegmentedContainerLargerThanHeap() throws Exception {
+        File encrypted = directory.resolve("large.bin.enc").toFile();
+        File decrypted = directory.resolve("large.out").toFile();
+        cryptoService.encrypt(session, plaintext, encrypted, new AtomicBoolean(), progress(plaintext));
+        cryptoService.decrypt(session, encrypted, decrypted, new AtomicBoolean(), progress(encrypted));
+
+        assertEquals(-1, Files.mismatch(plaintext.toPath(), decrypted.toPath()));
+    }
+
+    @Test
+    void decryptsLegacyFileLargerThanHeap() throws Exception {
+        File encrypted = directory.resolve("legacy.bin.enc").toFile();
+        File decrypted = directory.resolve("legacy.out").toFile();
+        writeLegacyFile(plaintext, encrypted);
+        cryptoService.decrypt(session, encrypted, decrypted, new AtomicBoolean(), progress(encrypted));
+
+        assertEquals(-1, Files.mismatch(plaintext.toPath(), decrypted.toPath()));
+    }
+
+    @Test
+    void releasesNoLegacyPlaintextBeforeTheTagIsChecked() throws Exception {
+        File small = Files.write(directory.resolve("small.bin"), new byte[3 * 1024 * 1024]).toFile();
+        File encrypted = directory.resolve("legacy.bin.enc").toFile();
+        File decrypted = directory.resolve("legacy.out").toFile();
+        writeLegacyFile(small, encrypted);
+        try (RandomAccessFile file = new RandomAccessFile(encrypted, "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 1);
+        }
+
+        assertThrows(CryptoException.class, () -> cryptoService.decrypt(session, encrypted, decrypted, new AtomicBoolean(), progress(encrypted)));
+        assertFalse(decrypted.exists());
+        assertFalse(new File(directory.toFile(), "legacy.out.partial").exists());
+    }
+
+    /** Writes the pre-container format: salt, IV, then a single AES-GCM ciphertext with its tag at the end. */
+    private void writeLegacyFile(File input, File output) throws Exception {
+        SecureRandom random = new SecureRandom();
+        byte[] salt = new byte[16];
+        byte[] iv = new byte[12];
+        random.nextBytes(salt);
+        random.nextBytes(iv);
+        GCMModeCipher cipher = GCMBlockCipher.newInstance(AESEngine.newInstance());
+        cipher.init(true, new AEADParameters(new KeyParameter(session.legacyKey(salt).getEncoded()), 128, iv));
+
+        byte[] buffer = new byte[1024 * 1024];
+        byte[] sealed = new byte[buffer.length + 32];
+        try (InputStream in = Files.newInputStream(input.toPath()); OutputStream out = Files.newOutputStream(output.toPath())) {
+            out.write(salt);
+            out.write(iv);
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(sealed, 0, cipher.processBytes(buffer, 0, read, sealed, 0));
+            }
+            out.write(sealed, 0, cipher.doFinal(sealed, 0));
+        }
+    }
+
+    private static ProgressChannel.FileProgress progress(File file) {
+        return new ProgressChannel().register(file, 1);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.cryptotool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShredderTest {
+    @TempDir
+    Path directory;
+
+    private final CryptoService cryptoService = new CryptoService(2, 16L * 1024 * 1024);
+    private final KeySession session = new KeySession("correct horse battery staple".toCharArray(), null);
+    private final Shredder shredder = new Shredder(1, Shredder.SINGLE_PASS);
+
+    @AfterEach
+    void close() {
+        shredder.close();
+        session.close();
+    }
+
+    @Test
+    void shredsFilesOfEverySizeWithoutLeavingAnythingBehind() throws Exception {
+        try (Shredder threePass = new Shredder(2, Shredder.THREE_PASS)) {
+            for (int length : new int[] {0, 1, 1024 * 1024, 3 * 1024 * 1024 + 17}) {
+                Path file = Files.write(directory.resolve("secret-" + length), new byte[length]);
+                threePass.shred(file.toFile());
+                assertFalse(Files.exists(file));
+            }
+            Path queued = Files.writeString(directory.resolve("queued"), "queued");
+            threePass.submit(queued.toFile()).join();
+            assertFalse(Files.exists(queued));
+            threePass.shred(directory.resolve("missing").toFile());
+        }
+        try (Stream<Path> left = Files.list(directory)) {
+            assertEquals(List.of(), left.toList(), "the renamed copies must be deleted too");
+        }
+    }
+
+    @Test
+    void parsesPassLists() {
+        assertEquals(Shredder.THREE_PASS, Shredder.parsePasses(" zeros, ONES ,random"));
+        assertEquals("zeros,ones,random", Shredder.formatPasses(Shredder.THREE_PASS));
+        assertThrows(IllegalArgumentException.class, () -> Shredder.parsePasses("zeros,gutmann"));
+        assertThrows(IllegalArgumentException.class, () -> Shredder.parsePasses(" , "));
+    }
+
+    @Test
+    void shredsOnlyWhatTheArchiveHolds() throws Exception {
+        Path source = Files.createDirectories(directory.resolve("source"));
+        Files.createDirectories(source.resolve("nested/empty"));
+        Files.writeString(source.resolve("a.txt"), "archived");
+        Files.writeString(source.resolve("nested/b.txt"), "archived too");
+        File archive = directory.resolve("source.enc").toFile();
+        cryptoService.encrypt(session, source.toFile(), archive, new AtomicBoolean(), new ProgressChannel().register(source.toFile(), 1));
+
+        Path arrived = Files.writeString(source.resolve("nested/arrived.txt"), "written after packing");
+        shredder.shredArchived(source.toFile(), cryptoService.listArchive(session, archive));
+
+        assertFalse(Files.exists(source.resolve("a.txt")));
+        assertFalse(Files.exists(source.resolve("nested/b.txt")));
+        assertFalse(Files.exists(source.resolve("nested/empty")));
+        assertTrue(Files.exists(arrived), "a file the archive does not hold must survive");
+    }
+
+    @Test
+    void keepsFilesChangedAfterPacking() throws Exception {
+        Path source = Files.createDirectories(directory.resolve("source"));
+        Path file = Files.writeString(source.resolve("a.txt"), "archived");
+        File archive = directory.resolve("source.enc").toFile();
+        cryptoService.encrypt(session, source.toFile(), archive, new AtomicBoolean(), new ProgressChannel().register(source.toFile(), 1));
+
+        Files.writeString(file, "appended after packing");
+        shredder.shredArchived(source.toFile(), cryptoService.listArchive(session, archive));
+
+        assertTrue(Files.exists(file));
+        assertTrue(Files.isDirectory(source));
+    }
+
+    @Test
+    void refusesDirectoriesWithoutEntries() {
+        assertThrows(CryptoException.class, () -> shredder.shred(directory.toFile()));
+        assertTrue(Files.isDirectory(directory));
+        assertThrows(CryptoException.class,
+                () -> shredder.shredArchived(directory.toFile(), List.of(new EncryptedArchive.Entry("../outside", false, 0, 0, 0))));
+    }
+}
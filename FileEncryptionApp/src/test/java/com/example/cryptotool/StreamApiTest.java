@@ -0,0 +1,142 @@
+package com.example.cryptotool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Round trips through the stream, channel and in-memory forms of the API, and the ways they must fail. */
+class StreamApiTest {
+    private static final int SEGMENT_SIZE = 16 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private final CryptoService cryptoService = new CryptoService(2, 16L * 1024 * 1024);
+    private final KeySession session = new KeySession("correct horse battery staple".toCharArray(), null);
+
+    @AfterEach
+    void closeSession() {
+        session.close();
+    }
+
+    @Test
+    void streamsRoundTripAcrossSegmentBoundaries() throws Exception {
+        cryptoService.setSegmentSize(SEGMENT_SIZE);
+        for (int length : new int[] {0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 5 * SEGMENT_SIZE + 123}) {
+            byte[] plaintext = random(length);
+            byte[] container = encryptStream(plaintext);
+            assertArrayEquals(plaintext, decryptStream(container), "length " + length);
+        }
+    }
+
+    @Test
+    void streamDecryptsFileContainers() throws Exception {
+        cryptoService.setSegmentSize(SEGMENT_SIZE);
+        cryptoService.setCompressionLevel(SegmentCompressor.NO_COMPRESSION);
+        byte[] plaintext = random(3 * SEGMENT_SIZE + 7);
+        File input = Files.write(directory.resolve("input.bin"), plaintext).toFile();
+        File encrypted = directory.resolve("input.bin.enc").toFile();
+        cryptoService.encrypt(session, input, encrypted, new AtomicBoolean(), new ProgressChannel().register(input, 1));
+
+        assertArrayEquals(plaintext, decryptStream(Files.readAllBytes(encrypted.toPath())));
+    }
+
+    @Test
+    void rejectsCompressedContainersAsStream() throws Exception {
+        cryptoService.setCompressionLevel(6);
+        byte[] plaintext = "compressible ".repeat(10_000).getBytes(StandardCharsets.US_ASCII);
+        File input = Files.write(directory.resolve("input.txt"), plaintext).toFile();
+        File encrypted = directory.resolve("input.txt.enc").toFile();
+        cryptoService.encrypt(session, input, encrypted, new AtomicBoolean(), new ProgressChannel().register(input, 1));
+
+        byte[] container = Files.readAllBytes(encrypted.toPath());
+        CryptoException failure = assertThrows(CryptoException.class, () -> decryptStream(container));
+        assertTrue(failure.getMessage().contains("Compressed"), failure.getMessage());
+    }
+
+    @Test
+    void rejectsTruncatedAndTamperedStreams() throws Exception {
+        cryptoService.setSegmentSize(SEGMENT_SIZE);
+        byte[] container = encryptStream(random(3 * SEGMENT_SIZE));
+
+        byte[] truncated = Arrays.copyOf(container, container.length - (int) SegmentIndex.trailerLength(3) - 1);
+        assertThrows(CryptoException.class, () -> decryptStream(truncated));
+
+        byte[] tampered = container.clone();
+        tampered[tampered.length / 2] ^= 1;
+        assertThrows(CryptoException.class, () -> decryptStream(tampered));
+    }
+
+    @Test
+    void buffersRoundTrip() throws Exception {
+        byte[] plaintext = random(1000);
+        ByteBuffer container = cryptoService.encrypt(session, ByteBuffer.wrap(plaintext));
+        ByteBuffer decrypted = cryptoService.decrypt(session, container);
+        assertEquals(ByteBuffer.wrap(plaintext), decrypted);
+    }
+
+    @Test
+    void bufferRejectsOtherPassword() throws Exception {
+        ByteBuffer container = cryptoService.encrypt(session, ByteBuffer.wrap(random(1000)));
+        try (KeySession other = new KeySession("wrong password".toCharArray(), null)) {
+            assertThrows(CryptoException.class, () -> cryptoService.decrypt(other, container));
+        }
+    }
+
+    @Test
+    void seekableChannelReadsRanges() throws Exception {
+        cryptoService.setSegmentSize(SEGMENT_SIZE);
+        byte[] plaintext = random(4 * SEGMENT_SIZE + 99);
+        File input = Files.write(directory.resolve("input.bin"), plaintext).toFile();
+        File encrypted = directory.resolve("input.bin.enc").toFile();
+        cryptoService.encrypt(session, input, encrypted, new AtomicBoolean(), new ProgressChannel().register(input, 1));
+
+        try (SeekableByteChannel channel = cryptoService.openDecryptingChannel(session, encrypted)) {
+            assertEquals(plaintext.length, channel.size());
+            for (long position : new long[] {0, SEGMENT_SIZE - 10, 2L * SEGMENT_SIZE, plaintext.length - 50}) {
+                ByteBuffer read = ByteBuffer.allocate(50);
+                channel.position(position);
+                while (read.hasRemaining() && channel.read(read) > 0) {
+                    // keep reading
+                }
+                assertArrayEquals(Arrays.copyOfRange(plaintext, (int) position, (int) position + 50), read.array());
+            }
+            assertEquals(-1, channel.position(plaintext.length).read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    private byte[] encryptStream(byte[] plaintext) throws CryptoException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cryptoService.encrypt(session, new ByteArrayInputStream(plaintext), out, plaintext.length, new AtomicBoolean(), null);
+        return out.toByteArray();
+    }
+
+    private byte[] decryptStream(byte[] container) throws CryptoException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cryptoService.decrypt(session, new ByteArrayInputStream(container), out, container.length, new AtomicBoolean(), null);
+        return out.toByteArray();
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
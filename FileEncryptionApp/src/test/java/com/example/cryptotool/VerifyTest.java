@@ -0,0 +1,100 @@
+package com.example.cryptotool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VerifyTest {
+    @TempDir
+    Path directory;
+
+    private final CryptoService cryptoService = new CryptoService(2, 16L * 1024 * 1024);
+    private final KeySession session = new KeySession("correct horse battery staple".toCharArray(), null);
+
+    @AfterEach
+    void closeSession() {
+        session.close();
+    }
+
+    @Test
+    void reportsEveryFileInInputOrder() throws Exception {
+        List<File> encrypted = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            encrypted.add(encrypt("file" + i + ".bin", 100_000 + i));
+        }
+        flipByte(encrypted.get(2));
+
+        VerificationReport report = cryptoService.verify(session, encrypted, 2, new AtomicBoolean(), new ProgressChannel());
+        List<VerificationReport.FileResult> results = report.getResults();
+        assertEquals(encrypted, results.stream().map(VerificationReport.FileResult::file).toList());
+        assertEquals(List.of(VerificationReport.Status.PASSED, VerificationReport.Status.PASSED,
+                        VerificationReport.Status.FAILED, VerificationReport.Status.PASSED),
+                results.stream().map(VerificationReport.FileResult::status).toList());
+        assertNotNull(results.get(2).error());
+        assertEquals(List.of(results.get(2)), report.getFailures());
+        assertFalse(report.allPassed());
+        assertEquals(encrypted.stream().mapToLong(File::length).sum(), report.getBytesVerified());
+    }
+
+    @Test
+    void writesNoPlaintext() throws Exception {
+        File encrypted = encrypt("input.bin", 200_000);
+        VerificationReport report = cryptoService.verify(session, List.of(encrypted), 1, new AtomicBoolean(), new ProgressChannel());
+        assertTrue(report.allPassed());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of("input.bin", "input.bin.enc"), files.map(path -> path.getFileName().toString()).sorted().toList());
+        }
+    }
+
+    @Test
+    void reportsWrongPasswordsAsFailures() throws Exception {
+        File encrypted = encrypt("input.bin", 1000);
+        try (KeySession other = new KeySession("wrong password".toCharArray(), null)) {
+            VerificationReport report = cryptoService.verify(other, List.of(encrypted), 1, new AtomicBoolean(), new ProgressChannel());
+            assertEquals(1, report.count(VerificationReport.Status.FAILED));
+        }
+    }
+
+    @Test
+    void reportsFilesOfACancelledRunAsCancelled() throws Exception {
+        File encrypted = encrypt("input.bin", 1000);
+        VerificationReport report = cryptoService.verify(session, List.of(encrypted, encrypted), 1, new AtomicBoolean(true), new ProgressChannel());
+        assertEquals(2, report.count(VerificationReport.Status.CANCELLED));
+        assertFalse(report.allPassed());
+        assertEquals(0, report.getBytesVerified());
+    }
+
+    private File encrypt(String name, int length) throws Exception {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        File input = Files.write(directory.resolve(name), bytes).toFile();
+        File output = directory.resolve(name + ".enc").toFile();
+        cryptoService.encrypt(session, input, output, new AtomicBoolean(), new ProgressChannel().register(input, 1));
+        return output;
+    }
+
+    private static void flipByte(File file) throws Exception {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            long position = file.length() / 2;
+            out.seek(position);
+            int original = out.read();
+            out.seek(position);
+            out.write(original ^ 1);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.cryptotool.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/** Scratch files for benchmarks; contents are incompressible pseudo-random bytes. */
+final class BenchmarkFiles {
+    private BenchmarkFiles() {}
+
+    static File createDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory("fcp-bench-" + prefix).toFile();
+    }
+
+    static File randomFile(File directory, String name, long size) throws IOException {
+        File file = new File(directory, name);
+        SplittableRandom random = new SplittableRandom(42);
+        byte[] block = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            for (long written = 0; written < size; written += block.length) {
+                for (int i = 0; i < block.length; i += Long.BYTES) {
+                    long value = random.nextLong();
+                    for (int b = 0; b < Long.BYTES; b++) block[i + b] = (byte) (value >>> (8 * b));
+                }
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    static void deleteDirectory(File directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory.toPath())) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
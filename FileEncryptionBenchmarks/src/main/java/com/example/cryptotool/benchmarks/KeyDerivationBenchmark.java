@@ -0,0 +1,70 @@
+package com.example.cryptotool.benchmarks;
+
+import com.example.cryptotool.FileHeader;
+import com.example.cryptotool.KeySession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key-derivation latency: a full PBKDF2 stretch (paid once per batch, or per file for version 1
+ * containers) against the HKDF step that derives each file key from a cached master key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyDerivationBenchmark {
+    private final SecureRandom random = new SecureRandom();
+    private KeySession session;
+    private FileHeader hkdfHeader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        session = new KeySession("benchmark".toCharArray(), null);
+        hkdfHeader = header(FileHeader.KDF_PBKDF2_HKDF, session.getBatchSalt());
+        session.keyFor(hkdfHeader);
+    }
+
+    @Benchmark
+    public SecretKey pbkdf2PerFile() throws Exception {
+        return session.keyFor(header(FileHeader.KDF_PBKDF2, randomBytes(FileHeader.SALT_LENGTH)));
+    }
+
+    @Benchmark
+    public SecretKey hkdfFromCachedMasterKey() throws Exception {
+        return session.keyFor(header(FileHeader.KDF_PBKDF2_HKDF, session.getBatchSalt()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+    }
+
+    private FileHeader header(int kdf, byte[] salt) {
+        return new FileHeader(FileHeader.ALGORITHM_AES_256_GCM, kdf, FileHeader.FLAG_INDEX_TRAILER, 1024 * 1024,
+                randomBytes(FileHeader.NONCE_PREFIX_LENGTH), salt,
+                kdf == FileHeader.KDF_PBKDF2_HKDF ? randomBytes(FileHeader.SALT_LENGTH) : null);
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.cryptotool.benchmarks;
+
+import com.example.cryptotool.CryptoService;
+import com.example.cryptotool.KeySession;
+import com.example.cryptotool.ProgressChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cost of progress reporting on the hot loop. Small segments maximise the number of counter updates
+ * per file. "detached" writes to a counter nobody reads; "sampled" runs a 20 Hz {@link ProgressChannel}
+ * whose subscriber formats a status message the way the UI does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class ProgressCallbackBenchmark {
+    @Param({"4", "64"})
+    public int segmentSizeKb;
+
+    private File directory;
+    private File plaintext;
+    private File output;
+    private CryptoService cryptoService;
+    private KeySession session;
+    private final AtomicBoolean notCancelled = new AtomicBoolean();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = BenchmarkFiles.createDirectory("progress");
+        plaintext = BenchmarkFiles.randomFile(directory, "plain.bin", 16L * 1024 * 1024);
+        output = new File(directory, "out.bin");
+        cryptoService = new CryptoService();
+        cryptoService.setSegmentSize(segmentSizeKb * 1024);
+        session = new KeySession("benchmark".toCharArray(), null);
+    }
+
+    @Benchmark
+    public void detached() throws Exception {
+        cryptoService.encrypt(session, plaintext, output, notCancelled, ProgressChannel.detached(plaintext));
+    }
+
+    @Benchmark
+    public void sampled(Blackhole blackhole) throws Exception {
+        try (ProgressChannel channel = new ProgressChannel(snapshot -> blackhole.consume(String.format(
+                "Status: Encrypting (%d/%d files done) %.1f MB/s", snapshot.filesDone(), snapshot.filesTotal(), snapshot.megabytesPerSecond())))) {
+            channel.expect(plaintext.length(), 1);
+            ProgressChannel.FileProgress progress = channel.register(plaintext, plaintext.length());
+            cryptoService.encrypt(session, plaintext, output, notCancelled, progress);
+            progress.finish(true);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        session.close();
+        BenchmarkFiles.deleteDirectory(directory);
+    }
+}
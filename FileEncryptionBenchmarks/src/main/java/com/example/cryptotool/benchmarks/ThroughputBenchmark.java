@@ -0,0 +1,87 @@
+package com.example.cryptotool.benchmarks;
+
+import com.example.cryptotool.CryptoService;
+import com.example.cryptotool.FileHeader;
+import com.example.cryptotool.KeySession;
+import com.example.cryptotool.ProgressChannel;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Encrypt and decrypt throughput of {@link CryptoService} over real files, across segment sizes,
+ * file sizes and JCA providers. Scores are milliseconds per file; divide the file size by the score
+ * for MB/s. The key session is shared, so these numbers exclude PBKDF2 (see {@link KeyDerivationBenchmark}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class ThroughputBenchmark {
+    @Param({"64", "1024", "4096"})
+    public int segmentSizeKb;
+
+    @Param({"1", "64"})
+    public int fileSizeMb;
+
+    @Param({"SunJCE", "BC"})
+    public String provider;
+
+    private File directory;
+    private File plaintext;
+    private File encrypted;
+    private File output;
+    private CryptoService cryptoService;
+    private KeySession session;
+    private final AtomicBoolean notCancelled = new AtomicBoolean();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = BenchmarkFiles.createDirectory("throughput");
+        plaintext = BenchmarkFiles.randomFile(directory, "plain.bin", fileSizeMb * 1024L * 1024);
+        encrypted = new File(directory, "plain.bin.enc");
+        output = new File(directory, "out.bin");
+
+        cryptoService = new CryptoService();
+        cryptoService.setSegmentSize(segmentSizeKb * 1024);
+        cryptoService.setCipherProvider(FileHeader.ALGORITHM_AES_256_GCM, "BC".equals(provider) ? new BouncyCastleProvider() : null);
+        session = new KeySession("benchmark".toCharArray(), null);
+        cryptoService.encrypt(session, plaintext, encrypted, notCancelled, ProgressChannel.detached(plaintext));
+    }
+
+    @Benchmark
+    public long encrypt() throws Exception {
+        cryptoService.encrypt(session, plaintext, output, notCancelled, ProgressChannel.detached(plaintext));
+        return output.length();
+    }
+
+    @Benchmark
+    public long decrypt() throws Exception {
+        cryptoService.decrypt(session, encrypted, output, notCancelled, ProgressChannel.detached(encrypted));
+        return output.length();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        session.close();
+        BenchmarkFiles.deleteDirectory(directory);
+    }
+}